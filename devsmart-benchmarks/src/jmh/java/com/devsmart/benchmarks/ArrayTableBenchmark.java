@@ -0,0 +1,185 @@
+package com.devsmart.benchmarks;
+
+
+import com.devsmart.ArrayTable;
+import com.devsmart.ColumnOps;
+import com.google.common.collect.Ordering;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ArrayTableBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int rows;
+
+    /**
+     * a fresh copy of the unsorted table for benchmarks that modify it
+     */
+    @State(Scope.Thread)
+    public static class MutableTable {
+
+        ArrayTable table = ArrayTable.createWithColumnTypes(int.class);
+
+        @Setup(Level.Invocation)
+        public void setup(ArrayTableBenchmark benchmark) {
+            table.copy(benchmark.mUnsorted);
+        }
+    }
+
+    private ArrayTable mUnsorted;
+    private ArrayTable mSorted;
+    private ArrayTable.RowComparator mIntComparator;
+    private ArrayTable.RowComparator mMultikeyComparator;
+    private ArrayTable.MultikeyBinarySearch mMultikeySearch;
+    private ArrayTable.Function<Double> mFunction;
+    private Random mRandom;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        mRandom = new Random(1);
+        mUnsorted = ArrayTable.createWithColumnTypes(rows, int.class, long.class, double.class, String.class);
+        for (int i = 0; i < rows; i++) {
+            mUnsorted.addRow(mRandom.nextInt(rows), mRandom.nextLong(), mRandom.nextDouble(), "row" + i);
+        }
+
+        mIntComparator = new ArrayTable.ChainedRowComparator.Builder(mUnsorted)
+                .byColumnAsc(0)
+                .build();
+        mMultikeyComparator = new ArrayTable.ChainedRowComparator.Builder(mUnsorted)
+                .byColumnAsc(0)
+                .byColumnAsc(3)
+                .build();
+
+        mSorted = ArrayTable.createWithColumnTypes(int.class);
+        mSorted.copy(mUnsorted);
+        mSorted.sort(mMultikeyComparator);
+
+        mMultikeySearch = new ArrayTable.MultikeyBinarySearch.Builder()
+                .addIntAsc(0)
+                .addObj(3, Ordering.<String>natural())
+                .build();
+
+        mFunction = new ArrayTable.Function<Double>() {
+            @Override
+            public Double transform(ArrayTable t, int row) {
+                return t.getDouble(row, 2);
+            }
+        };
+    }
+
+    @Benchmark
+    public ArrayTable addRow() {
+        ArrayTable table = ArrayTable.createWithColumnTypes(int.class, long.class, double.class, String.class);
+        for (int i = 0; i < rows; i++) {
+            table.addRow(i, (long) i, (double) i, null);
+        }
+        return table;
+    }
+
+    @Benchmark
+    public ArrayTable appendRow() {
+        ArrayTable table = ArrayTable.createWithColumnTypes(int.class, long.class, double.class, String.class);
+        for (int i = 0; i < rows; i++) {
+            final int row = table.appendRow();
+            table.setInt(row, 0, i);
+            table.setLong(row, 1, i);
+            table.setDouble(row, 2, i);
+        }
+        return table;
+    }
+
+    @Benchmark
+    public ArrayTable insertAt(MutableTable state) {
+        state.table.insertAt(state.table.rows() / 2, 1, 1L, 1.0, null);
+        return state.table;
+    }
+
+    @Benchmark
+    public ArrayTable deleteRow(MutableTable state) {
+        state.table.deleteRow(state.table.rows() / 2);
+        return state.table;
+    }
+
+    @Benchmark
+    public ArrayTable sortInt(MutableTable state) {
+        state.table.sort(mIntComparator);
+        return state.table;
+    }
+
+    @Benchmark
+    public ArrayTable sortMultikey(MutableTable state) {
+        state.table.sort(mMultikeyComparator);
+        return state.table;
+    }
+
+    @Benchmark
+    public ArrayTable parallelSortInt(MutableTable state) throws InterruptedException {
+        state.table.parallelSort(mIntComparator);
+        return state.table;
+    }
+
+    @Benchmark
+    public ArrayTable resortSorted() {
+        mSorted.resort();
+        return mSorted;
+    }
+
+    @Benchmark
+    public int binarySearch() {
+        return mSorted.binarySearch(0, mRandom.nextInt(rows));
+    }
+
+    @Benchmark
+    public void floorCeil(Blackhole bh) {
+        final int key = mRandom.nextInt(rows);
+        bh.consume(mSorted.floor(0, key, 0, rows - 1));
+        bh.consume(mSorted.ceil(0, key, 0, rows - 1));
+    }
+
+    @Benchmark
+    public int multikeySearch() {
+        final int row = mRandom.nextInt(rows);
+        mMultikeySearch.setKey(0, mSorted.getInt(row, 0));
+        mMultikeySearch.setKey(1, mSorted.getObject(row, 3));
+        return mMultikeySearch.search(mSorted);
+    }
+
+    @Benchmark
+    public double iterate() {
+        double sum = 0;
+        for (Double value : mSorted.iterate(mFunction)) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double sumColumn() {
+        return ColumnOps.sum(mSorted, 2);
+    }
+
+    @Benchmark
+    public BitSet filterColumn() {
+        return ColumnOps.filter(mSorted, 2, ColumnOps.Compare.LT, 0.5);
+    }
+
+    @Benchmark
+    public ColumnOps.Groups groupBy() {
+        return ColumnOps.groupBy(mSorted, 0, 2);
+    }
+}
@@ -0,0 +1,97 @@
+package com.devsmart.benchmarks;
+
+
+import com.devsmart.Delegate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost of dispatching one event through {@link Delegate#createInvoker()},
+ * {@link Delegate#dispatch(Delegate.Dispatcher)}, {@link Delegate#emit(String, Object...)} and
+ * a {@link Delegate.Emitter} to all listeners, compared with a plain loop over the listeners.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DelegateBenchmark {
+
+    public interface Listener {
+        void onEvent(int value);
+    }
+
+    public static class CountingListener implements Listener {
+        long sum;
+
+        @Override
+        public void onEvent(int value) {
+            sum += value;
+        }
+    }
+
+    @Param({"1", "50"})
+    public int listeners;
+
+    private Delegate<Listener> mDelegate;
+    private Listener mInvoker;
+    private Delegate.Emitter<Listener> mEmitter;
+    private Listener[] mDirect;
+    private int mValue;
+
+    @Setup
+    public void setup() {
+        mDelegate = new Delegate<Listener>(Listener.class);
+        mDirect = new Listener[listeners];
+        for (int i = 0; i < listeners; i++) {
+            mDirect[i] = new CountingListener();
+            mDelegate.registerCallback(mDirect[i]);
+        }
+        mInvoker = mDelegate.createInvoker();
+        try {
+            mEmitter = mDelegate.emitter("onEvent", int.class);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Benchmark
+    public void invoker() {
+        mInvoker.onEvent(mValue++);
+    }
+
+    @Benchmark
+    public void dispatch() {
+        final int value = mValue++;
+        mDelegate.dispatch(new Delegate.Dispatcher<Listener>() {
+            @Override
+            public void dispatch(Listener listener) {
+                listener.onEvent(value);
+            }
+        });
+    }
+
+    @Benchmark
+    public void emit() throws Exception {
+        mDelegate.emit("onEvent", mValue++);
+    }
+
+    @Benchmark
+    public void emitter() throws Exception {
+        mEmitter.emit(mValue++);
+    }
+
+    @Benchmark
+    public void direct() {
+        final int value = mValue++;
+        for (Listener l : mDirect) {
+            l.onEvent(value);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.devsmart.benchmarks;
+
+
+import com.devsmart.DoubleArrayAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * alloc/free round trips on one shared allocator, single threaded and under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DoubleArrayAllocatorBenchmark {
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Random random = new Random();
+    }
+
+    @Param({"16", "1024"})
+    public int maxArraySize;
+
+    private DoubleArrayAllocator mAllocator;
+
+    @Setup
+    public void setup() {
+        mAllocator = new DoubleArrayAllocator(64L * 1024 * 1024);
+    }
+
+    private double[] allocFree(ThreadState state) {
+        double[] array = mAllocator.alloc(1 + state.random.nextInt(maxArraySize));
+        mAllocator.free(array);
+        return array;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public double[] allocFree1(ThreadState state) {
+        return allocFree(state);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double[] allocFree4(ThreadState state) {
+        return allocFree(state);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public double[] allocFreeMax(ThreadState state) {
+        return allocFree(state);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public double[] newArray(ThreadState state) {
+        return new double[1 + state.random.nextInt(maxArraySize)];
+    }
+}
@@ -0,0 +1,70 @@
+package com.devsmart.benchmarks;
+
+
+import com.devsmart.ListenerRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost of attaching and detaching {@code listeners} listeners, as a screen rebuild does, with
+ * {@link ListenerRegistry} and with a {@link CopyOnWriteArraySet}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListenerRegistryBenchmark {
+
+    @Param({"100", "5000"})
+    public int listeners;
+
+    private Object[] mListeners;
+
+    @Setup
+    public void setup() {
+        mListeners = new Object[listeners];
+        for (int i = 0; i < listeners; i++) {
+            mListeners[i] = new Object();
+        }
+    }
+
+    @Benchmark
+    public int registry() {
+        ListenerRegistry<Object> registry = new ListenerRegistry<Object>();
+        for (Object l : mListeners) {
+            registry.add(l);
+        }
+        int count = 0;
+        for (Object l : registry) {
+            count++;
+        }
+        for (Object l : mListeners) {
+            registry.remove(l);
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int copyOnWrite() {
+        CopyOnWriteArraySet<Object> set = new CopyOnWriteArraySet<Object>();
+        for (Object l : mListeners) {
+            set.add(l);
+        }
+        int count = 0;
+        for (Object l : set) {
+            count++;
+        }
+        for (Object l : mListeners) {
+            set.remove(l);
+        }
+        return count;
+    }
+}
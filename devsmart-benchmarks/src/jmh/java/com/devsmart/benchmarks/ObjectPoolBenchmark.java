@@ -0,0 +1,66 @@
+package com.devsmart.benchmarks;
+
+
+import com.devsmart.ObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * borrow/release round trips on one shared pool, single threaded and under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ObjectPoolBenchmark {
+
+    @Param({"8", "256"})
+    public int poolSize;
+
+    @Param({"0", "4"})
+    public int threadCacheSize;
+
+    private ObjectPool<StringBuilder> mPool;
+
+    @Setup
+    public void setup() {
+        mPool = new ObjectPool<StringBuilder>(poolSize, threadCacheSize, new ObjectPool.PooledCreator<StringBuilder>() {
+            @Override
+            public StringBuilder create() {
+                return new StringBuilder(64);
+            }
+        });
+    }
+
+    private StringBuilder borrowRelease() {
+        StringBuilder obj = mPool.borrow();
+        mPool.release(obj);
+        return obj;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public StringBuilder borrowRelease1() {
+        return borrowRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public StringBuilder borrowRelease4() {
+        return borrowRelease();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public StringBuilder borrowReleaseMax() {
+        return borrowRelease();
+    }
+}
@@ -0,0 +1,61 @@
+package com.devsmart.benchmarks;
+
+
+import com.devsmart.StateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost of one {@link StateMachine#input(Enum, Object)} with one listener, cycling through a
+ * small protocol state machine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StateMachineBenchmark {
+
+    public enum ConnState {
+        IDLE, HEADER, BODY, DONE
+    }
+
+    public enum Packet {
+        START, HEADER, DATA, END, RESET
+    }
+
+    private static final Packet[] SEQUENCE = {
+            Packet.START, Packet.HEADER, Packet.DATA, Packet.DATA, Packet.END, Packet.RESET
+    };
+
+    private StateMachine<ConnState, Packet> mMachine;
+    private int mCount;
+    private int mPos;
+
+    @Setup
+    public void setup() {
+        mMachine = new StateMachine<ConnState, Packet>(ConnState.IDLE);
+        mMachine.configure(ConnState.IDLE, Packet.START, ConnState.HEADER);
+        mMachine.configure(ConnState.HEADER, Packet.HEADER, ConnState.BODY);
+        mMachine.configure(ConnState.BODY, Packet.DATA, ConnState.BODY);
+        mMachine.configure(ConnState.BODY, Packet.END, ConnState.DONE);
+        mMachine.configure(ConnState.DONE, Packet.RESET, ConnState.IDLE);
+        mMachine.addListener(new StateMachine.StateChangeListener<ConnState, Packet>() {
+            @Override
+            public void onStateChanged(StateMachine<ConnState, Packet> stateMachine, ConnState lastState, ConnState newState, Packet input, Object data) {
+                mCount++;
+            }
+        });
+    }
+
+    @Benchmark
+    public void input() {
+        mMachine.input(SEQUENCE[mPos], null);
+        mPos = mPos == SEQUENCE.length - 1 ? 0 : mPos + 1;
+    }
+}
@@ -0,0 +1,87 @@
+package com.devsmart.benchmarks;
+
+
+import com.devsmart.KeyedTaskQueue;
+import com.devsmart.TaskQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * throughput of tiny tasks pushed through a single serial TaskQueue, and through a
+ * KeyedTaskQueue spread over many keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TaskQueueBenchmark {
+
+    private static final int TASKS = 10000;
+    private static final int KEYS = 1000;
+
+    private ExecutorService mExecutor;
+    private TaskQueue mQueue;
+    private KeyedTaskQueue<Integer> mKeyedQueue;
+    private Runnable mNoop;
+
+    @Setup
+    public void setup() {
+        mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        mQueue = new TaskQueue(mExecutor);
+        mKeyedQueue = new KeyedTaskQueue<Integer>(mExecutor);
+        mNoop = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void execute() throws InterruptedException {
+        for (int i = 0; i < TASKS - 1; i++) {
+            mQueue.execute(mNoop);
+        }
+
+        final CountDownLatch done = new CountDownLatch(1);
+        mQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void executeKeyed() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < TASKS; i++) {
+            mKeyedQueue.execute(i % KEYS, task);
+        }
+        done.await();
+    }
+}
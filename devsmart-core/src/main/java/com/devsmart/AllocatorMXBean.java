@@ -0,0 +1,67 @@
+package com.devsmart;
+
+
+/**
+ * Statistics of an array pool such as {@link ArrayAllocator} or {@link DoubleArrayAllocator}.
+ * Register a pool with {@link JmxUtils#register(Object, String, String)} to read them
+ * through JMX.
+ */
+public interface AllocatorMXBean {
+
+    /**
+     * the number of allocations served from the pool
+     */
+    long getHits();
+
+    /**
+     * the number of allocations that created a new array
+     */
+    long getMisses();
+
+    /**
+     * the fraction of allocations served from the pool, 0 if there were none
+     */
+    double getHitRate();
+
+    /**
+     * the number of allocations that returned a longer array than requested
+     */
+    long getOversizeAllocations();
+
+    /**
+     * the total number of bytes by which returned arrays were longer than requested
+     */
+    long getOversizeBytes();
+
+    /**
+     * the number of frees that were dropped because the pool was full
+     */
+    long getRejectedFrees();
+
+    /**
+     * the number of frees of an array that was already in the pool
+     */
+    long getDuplicateFrees();
+
+    /**
+     * the number of bytes currently held by the pool
+     */
+    long getPooledBytes();
+
+    long getMaxBytes();
+
+    /**
+     * When leak tracking is on, the stack of every allocation is recorded and arrays that
+     * are garbage collected without having been freed are logged. This is expensive and
+     * meant for debugging only.
+     */
+    boolean isLeakTracking();
+
+    void setLeakTracking(boolean enabled);
+
+    /**
+     * the number of arrays garbage collected without having been freed while leak
+     * tracking was on
+     */
+    long getLeaks();
+}
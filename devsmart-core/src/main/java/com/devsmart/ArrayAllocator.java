@@ -0,0 +1,285 @@
+package com.devsmart;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Pools of scratch arrays of every primitive type and of direct {@link ByteBuffer}s, all
+ * sharing one memory budget. Like {@link DoubleArrayAllocator}, {@code allocX(size)} returns
+ * an array of at least {@code size} elements, reusing a freed one when possible, and all
+ * methods are thread safe without a global lock.
+ * <pre>
+ *     byte[] buffer = ArrayAllocator.getDefault().allocBytes(8192);
+ *     try {
+ *         ...
+ *     } finally {
+ *         ArrayAllocator.getDefault().free(buffer);
+ *     }
+ * </pre>
+ * An array must not be used after it was freed. Freed arrays beyond the budget are left to
+ * the garbage collector.
+ */
+public class ArrayAllocator implements AllocatorMXBean {
+
+    /**
+     * the budget of {@link #getDefault()}, in bytes
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    private static final ArrayAllocator sDefault = new ArrayAllocator(DEFAULT_MAX_BYTES);
+
+    private final PoolBudget mBudget;
+    private final SizeClassPool<byte[]> mBytes;
+    private final SizeClassPool<int[]> mInts;
+    private final SizeClassPool<long[]> mLongs;
+    private final SizeClassPool<float[]> mFloats;
+    private final SizeClassPool<double[]> mDoubles;
+    private final SizeClassPool<ByteBuffer> mDirectBuffers;
+    private final SizeClassPool<?>[] mPools;
+
+    /**
+     * @param maxBytes the maximum number of bytes held by all pools together
+     */
+    public ArrayAllocator(long maxBytes) {
+        mBudget = new PoolBudget(maxBytes);
+        mBytes = new SizeClassPool<byte[]>("byte[]", mBudget, 0) {
+            @Override
+            byte[] create(int length) {
+                return new byte[length];
+            }
+
+            @Override
+            int lengthOf(byte[] item) {
+                return item.length;
+            }
+        };
+        mInts = new SizeClassPool<int[]>("int[]", mBudget, 2) {
+            @Override
+            int[] create(int length) {
+                return new int[length];
+            }
+
+            @Override
+            int lengthOf(int[] item) {
+                return item.length;
+            }
+        };
+        mLongs = new SizeClassPool<long[]>("long[]", mBudget, 3) {
+            @Override
+            long[] create(int length) {
+                return new long[length];
+            }
+
+            @Override
+            int lengthOf(long[] item) {
+                return item.length;
+            }
+        };
+        mFloats = new SizeClassPool<float[]>("float[]", mBudget, 2) {
+            @Override
+            float[] create(int length) {
+                return new float[length];
+            }
+
+            @Override
+            int lengthOf(float[] item) {
+                return item.length;
+            }
+        };
+        mDoubles = new SizeClassPool<double[]>("double[]", mBudget, 3) {
+            @Override
+            double[] create(int length) {
+                return new double[length];
+            }
+
+            @Override
+            int lengthOf(double[] item) {
+                return item.length;
+            }
+        };
+        mDirectBuffers = new SizeClassPool<ByteBuffer>("direct ByteBuffer", mBudget, 0, true) {
+            @Override
+            ByteBuffer create(int length) {
+                return DirectBuffers.allocate(length);
+            }
+
+            @Override
+            int lengthOf(ByteBuffer item) {
+                return item.capacity();
+            }
+        };
+        mPools = new SizeClassPool<?>[]{mBytes, mInts, mLongs, mFloats, mDoubles, mDirectBuffers};
+    }
+
+    /**
+     * the process wide allocator, with a budget of {@link #DEFAULT_MAX_BYTES}
+     */
+    public static ArrayAllocator getDefault() {
+        return sDefault;
+    }
+
+    public byte[] allocBytes(int size) {
+        return mBytes.alloc(size);
+    }
+
+    public void free(byte[] array) {
+        mBytes.free(array);
+    }
+
+    public int[] allocInts(int size) {
+        return mInts.alloc(size);
+    }
+
+    public void free(int[] array) {
+        mInts.free(array);
+    }
+
+    public long[] allocLongs(int size) {
+        return mLongs.alloc(size);
+    }
+
+    public void free(long[] array) {
+        mLongs.free(array);
+    }
+
+    public float[] allocFloats(int size) {
+        return mFloats.alloc(size);
+    }
+
+    public void free(float[] array) {
+        mFloats.free(array);
+    }
+
+    public double[] allocDoubles(int size) {
+        return mDoubles.alloc(size);
+    }
+
+    public void free(double[] array) {
+        mDoubles.free(array);
+    }
+
+    /**
+     * Returns a direct buffer with a capacity of at least {@code size} bytes. The buffer is
+     * cleared (position 0, limit = capacity) and in native byte order.
+     */
+    public ByteBuffer allocDirect(int size) {
+        ByteBuffer retval = mDirectBuffers.alloc(size);
+        retval.clear();
+        return retval.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * returns a buffer obtained from {@link #allocDirect(int)}. If the pool is full, the
+     * buffer's memory is released right away. Neither the buffer nor any slice or view of
+     * it may be used afterwards.
+     */
+    public void free(ByteBuffer buffer) {
+        checkArgument(buffer.isDirect(), "not a direct buffer");
+        if (mDirectBuffers.free(buffer) == SizeClassPool.FULL) {
+            DirectBuffers.free(buffer);
+        }
+    }
+
+    private long getCount(int counter) {
+        long retval = 0;
+        for (SizeClassPool<?> pool : mPools) {
+            retval += pool.getCount(counter);
+        }
+        return retval;
+    }
+
+    @Override
+    public long getHits() {
+        return getCount(SizeClassPool.HITS);
+    }
+
+    @Override
+    public long getMisses() {
+        return getCount(SizeClassPool.MISSES);
+    }
+
+    @Override
+    public double getHitRate() {
+        final long hits = getHits();
+        final long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getOversizeAllocations() {
+        return getCount(SizeClassPool.OVERSIZE);
+    }
+
+    @Override
+    public long getOversizeBytes() {
+        long retval = 0;
+        for (SizeClassPool<?> pool : mPools) {
+            retval += pool.getOversizeUnits();
+        }
+        return retval;
+    }
+
+    @Override
+    public long getRejectedFrees() {
+        return getCount(SizeClassPool.FULL);
+    }
+
+    @Override
+    public long getDuplicateFrees() {
+        return getCount(SizeClassPool.DUPLICATE);
+    }
+
+    @Override
+    public long getPooledBytes() {
+        return mBudget.getSize();
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return mBudget.getMaxSize();
+    }
+
+    @Override
+    public boolean isLeakTracking() {
+        return mBytes.getLeakTracker() != null;
+    }
+
+    @Override
+    public void setLeakTracking(boolean enabled) {
+        for (SizeClassPool<?> pool : mPools) {
+            pool.setLeakTracking(enabled);
+        }
+    }
+
+    @Override
+    public long getLeaks() {
+        long retval = 0;
+        for (SizeClassPool<?> pool : mPools) {
+            LeakTracker tracker = pool.getLeakTracker();
+            if (tracker != null) {
+                retval += tracker.getLeaks();
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @return the allocation stacks of the arrays that are currently allocated and not yet
+     * freed, or an empty list if leak tracking is off
+     */
+    public List<Throwable> getOutstandingAllocations() {
+        List<Throwable> retval = new ArrayList<Throwable>();
+        for (SizeClassPool<?> pool : mPools) {
+            LeakTracker tracker = pool.getLeakTracker();
+            if (tracker != null) {
+                retval.addAll(tracker.getOutstanding());
+            }
+        }
+        return retval;
+    }
+}
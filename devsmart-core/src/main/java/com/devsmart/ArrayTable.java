@@ -1,10 +1,17 @@
 package com.devsmart;
 
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Ordering;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -15,6 +22,11 @@ public class ArrayTable {
 
     private interface SwapImpl {
         void swap(Object array, int i, int j);
+
+        /**
+         * copies {@code src[order[i]]} to {@code dest[i]} for every {@code i < length}
+         */
+        void gather(Object src, Object dest, int[] order, int length);
     }
 
     private static SwapImpl INT_SWAP = new SwapImpl() {
@@ -24,6 +36,15 @@ public class ArrayTable {
             Array.setInt(array, i, Array.getInt(array, j));
             Array.setInt(array, j, temp);
         }
+
+        @Override
+        public void gather(Object src, Object dest, int[] order, int length) {
+            final int[] s = (int[]) src;
+            final int[] d = (int[]) dest;
+            for (int i = 0; i < length; i++) {
+                d[i] = s[order[i]];
+            }
+        }
     };
 
     public static SwapImpl LONG_SWAP = new SwapImpl() {
@@ -33,6 +54,15 @@ public class ArrayTable {
             Array.setLong(array, i, Array.getLong(array, j));
             Array.setLong(array, j, temp);
         }
+
+        @Override
+        public void gather(Object src, Object dest, int[] order, int length) {
+            final long[] s = (long[]) src;
+            final long[] d = (long[]) dest;
+            for (int i = 0; i < length; i++) {
+                d[i] = s[order[i]];
+            }
+        }
     };
 
     private static SwapImpl FLOAT_SWAP = new SwapImpl() {
@@ -42,6 +72,15 @@ public class ArrayTable {
             Array.setFloat(array, i, Array.getFloat(array, j));
             Array.setFloat(array, j, temp);
         }
+
+        @Override
+        public void gather(Object src, Object dest, int[] order, int length) {
+            final float[] s = (float[]) src;
+            final float[] d = (float[]) dest;
+            for (int i = 0; i < length; i++) {
+                d[i] = s[order[i]];
+            }
+        }
     };
 
     private static SwapImpl DOUBLE_SWAP = new SwapImpl() {
@@ -51,6 +90,15 @@ public class ArrayTable {
             Array.setDouble(array, i, Array.getDouble(array, j));
             Array.setDouble(array, j, temp);
         }
+
+        @Override
+        public void gather(Object src, Object dest, int[] order, int length) {
+            final double[] s = (double[]) src;
+            final double[] d = (double[]) dest;
+            for (int i = 0; i < length; i++) {
+                d[i] = s[order[i]];
+            }
+        }
     };
 
     private static SwapImpl BOOLEAN_SWAP = new SwapImpl() {
@@ -60,6 +108,15 @@ public class ArrayTable {
             Array.setBoolean(array, i, Array.getBoolean(array, j));
             Array.setBoolean(array, j, temp);
         }
+
+        @Override
+        public void gather(Object src, Object dest, int[] order, int length) {
+            final boolean[] s = (boolean[]) src;
+            final boolean[] d = (boolean[]) dest;
+            for (int i = 0; i < length; i++) {
+                d[i] = s[order[i]];
+            }
+        }
     };
 
     private static SwapImpl OBJ_SWAP = new SwapImpl() {
@@ -69,6 +126,15 @@ public class ArrayTable {
             Array.set(array, i, Array.get(array, j));
             Array.set(array, j, temp);
         }
+
+        @Override
+        public void gather(Object src, Object dest, int[] order, int length) {
+            final Object[] s = (Object[]) src;
+            final Object[] d = (Object[]) dest;
+            for (int i = 0; i < length; i++) {
+                d[i] = s[order[i]];
+            }
+        }
     };
 
     public interface RowComparator {
@@ -79,7 +145,18 @@ public class ArrayTable {
         T transform(ArrayTable t, int row);
     }
 
-    public static class AscIntRowComparator implements RowComparator {
+    /**
+     * a RowComparator that orders rows by a single primitive column. {@link #resort()}
+     * recognizes these (alone or chained) and sorts them with a radix sort instead of
+     * calling {@code compare} for every pair of rows.
+     */
+    private interface PrimitiveRowComparator extends RowComparator {
+        int getColumn();
+        Class<?> getKeyType();
+        boolean isDescending();
+    }
+
+    public static class AscIntRowComparator implements PrimitiveRowComparator {
 
         private final int mColumn;
 
@@ -89,7 +166,22 @@ public class ArrayTable {
 
         @Override
         public int compare(ArrayTable table, int rowa, int rowb) {
-            return table.getInt(rowa, mColumn) - table.getInt(rowb, mColumn);
+            return Integer.compare(table.getInt(rowa, mColumn), table.getInt(rowb, mColumn));
+        }
+
+        @Override
+        public int getColumn() {
+            return mColumn;
+        }
+
+        @Override
+        public Class<?> getKeyType() {
+            return int.class;
+        }
+
+        @Override
+        public boolean isDescending() {
+            return false;
         }
 
         @Override
@@ -98,7 +190,7 @@ public class ArrayTable {
         }
     }
 
-    public static class DescIntRowComparator implements RowComparator {
+    public static class DescIntRowComparator implements PrimitiveRowComparator {
 
         private final int mColumn;
 
@@ -108,7 +200,90 @@ public class ArrayTable {
 
         @Override
         public int compare(ArrayTable table, int rowa, int rowb) {
-            return table.getInt(rowb, mColumn) - table.getInt(rowa, mColumn);
+            return Integer.compare(table.getInt(rowb, mColumn), table.getInt(rowa, mColumn));
+        }
+
+        @Override
+        public int getColumn() {
+            return mColumn;
+        }
+
+        @Override
+        public Class<?> getKeyType() {
+            return int.class;
+        }
+
+        @Override
+        public boolean isDescending() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d DESC", mColumn);
+        }
+    }
+
+    public static class AscLongRowComparator implements PrimitiveRowComparator {
+
+        private final int mColumn;
+
+        public AscLongRowComparator(int column) {
+            mColumn = column;
+        }
+
+        @Override
+        public int compare(ArrayTable table, int rowa, int rowb) {
+            return Long.compare(table.getLong(rowa, mColumn), table.getLong(rowb, mColumn));
+        }
+
+        @Override
+        public int getColumn() {
+            return mColumn;
+        }
+
+        @Override
+        public Class<?> getKeyType() {
+            return long.class;
+        }
+
+        @Override
+        public boolean isDescending() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ASC", mColumn);
+        }
+    }
+
+    public static class DescLongRowComparator implements PrimitiveRowComparator {
+
+        private final int mColumn;
+
+        public DescLongRowComparator(int column) {
+            mColumn = column;
+        }
+
+        @Override
+        public int compare(ArrayTable table, int rowa, int rowb) {
+            return Long.compare(table.getLong(rowb, mColumn), table.getLong(rowa, mColumn));
+        }
+
+        @Override
+        public int getColumn() {
+            return mColumn;
+        }
+
+        @Override
+        public Class<?> getKeyType() {
+            return long.class;
+        }
+
+        @Override
+        public boolean isDescending() {
+            return true;
         }
 
         @Override
@@ -117,7 +292,7 @@ public class ArrayTable {
         }
     }
 
-    public static class AscFloatRowComparator implements RowComparator {
+    public static class AscFloatRowComparator implements PrimitiveRowComparator {
 
         private final int mColumn;
 
@@ -130,13 +305,28 @@ public class ArrayTable {
             return Float.compare(table.getFloat(rowa, mColumn), table.getFloat(rowb, mColumn));
         }
 
+        @Override
+        public int getColumn() {
+            return mColumn;
+        }
+
+        @Override
+        public Class<?> getKeyType() {
+            return float.class;
+        }
+
+        @Override
+        public boolean isDescending() {
+            return false;
+        }
+
         @Override
         public String toString() {
             return String.format("%d ASC", mColumn);
         }
     }
 
-    public static class DescFloatRowComparator implements RowComparator {
+    public static class DescFloatRowComparator implements PrimitiveRowComparator {
 
         private final int mColumn;
 
@@ -149,13 +339,28 @@ public class ArrayTable {
             return Float.compare(table.getFloat(rowb, mColumn), table.getFloat(rowa, mColumn));
         }
 
+        @Override
+        public int getColumn() {
+            return mColumn;
+        }
+
+        @Override
+        public Class<?> getKeyType() {
+            return float.class;
+        }
+
+        @Override
+        public boolean isDescending() {
+            return true;
+        }
+
         @Override
         public String toString() {
             return String.format("%d DESC", mColumn);
         }
     }
 
-    public static class AscDoubleRowComparator implements RowComparator {
+    public static class AscDoubleRowComparator implements PrimitiveRowComparator {
 
         private final int mColumn;
 
@@ -168,13 +373,28 @@ public class ArrayTable {
             return Double.compare(table.getDouble(rowa, mColumn), table.getDouble(rowb, mColumn));
         }
 
+        @Override
+        public int getColumn() {
+            return mColumn;
+        }
+
+        @Override
+        public Class<?> getKeyType() {
+            return double.class;
+        }
+
+        @Override
+        public boolean isDescending() {
+            return false;
+        }
+
         @Override
         public String toString() {
             return String.format("%d ASC", mColumn);
         }
     }
 
-    public static class DescDoubleRowComparator implements RowComparator {
+    public static class DescDoubleRowComparator implements PrimitiveRowComparator {
 
         private final int mColumn;
 
@@ -187,6 +407,21 @@ public class ArrayTable {
             return Double.compare(table.getDouble(rowb, mColumn), table.getDouble(rowa, mColumn));
         }
 
+        @Override
+        public int getColumn() {
+            return mColumn;
+        }
+
+        @Override
+        public Class<?> getKeyType() {
+            return double.class;
+        }
+
+        @Override
+        public boolean isDescending() {
+            return true;
+        }
+
         @Override
         public String toString() {
             return String.format("%d DESC", mColumn);
@@ -242,6 +477,8 @@ public class ArrayTable {
             public Builder byColumnAsc(int column) {
                 if (mRefTable.mColumnTypes[column] == int.class) {
                     add(new AscIntRowComparator(column));
+                } else if (mRefTable.mColumnTypes[column] == long.class) {
+                    add(new AscLongRowComparator(column));
                 } else if(mRefTable.mColumnTypes[column] == float.class) {
                     add(new AscFloatRowComparator(column));
                 } else if(mRefTable.mColumnTypes[column] == double.class){
@@ -256,6 +493,8 @@ public class ArrayTable {
             public Builder byColumnDesc(int column) {
                 if (mRefTable.mColumnTypes[column] == int.class) {
                     add(new DescIntRowComparator(column));
+                } else if (mRefTable.mColumnTypes[column] == long.class) {
+                    add(new DescLongRowComparator(column));
                 } else if(mRefTable.mColumnTypes[column] == float.class) {
                     add(new DescFloatRowComparator(column));
                 } else if(mRefTable.mColumnTypes[column] == double.class){
@@ -530,6 +769,18 @@ public class ArrayTable {
     private int mCapacity = 0;
     private RowComparator mComparator;
 
+    /**
+     * incremented whenever rows are added, removed or moved. Indexes compare it with
+     * the value they were built at to detect that they are stale.
+     */
+    private int mModCount = 0;
+
+    /**
+     * per column count of {@code setX} calls. Only tracked once an index exists, so
+     * tables without indexes pay a single null check per {@code setX}.
+     */
+    private int[] mColumnModCount;
+
     public static ArrayTable createWithColumnsCopy(Object... initialColumnValues) {
         ArrayTable retval = new ArrayTable();
         retval.mColumnTypes = new Class<?>[initialColumnValues.length];
@@ -612,7 +863,7 @@ public class ArrayTable {
     private ArrayTable() {
     }
 
-    private static Class<?> collateColumnTypes(Class<?> input) {
+    static Class<?> collateColumnTypes(Class<?> input) {
         if (int.class == input || Integer.class == input) {
             return int.class;
         } else if (long.class == input || Long.class == input) {
@@ -664,6 +915,14 @@ public class ArrayTable {
         mColumnNames[column] = name;
     }
 
+    /**
+     * @return the backing array of {@code column}. Only the first {@link #rows()} values
+     * are valid.
+     */
+    Object columnArray(int column) {
+        return mColumns[column];
+    }
+
     public Object getColumn(int column) {
         final Class classType = mColumnTypes[column];
         if (classType == int.class) {
@@ -681,6 +940,30 @@ public class ArrayTable {
         }
     }
 
+    /**
+     * writes this table to {@code file} in a columnar format that can be opened
+     * instantly with {@link #mapReadOnly(File)}. All columns must be primitive.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        TableFile.save(file, mColumnTypes, mColumnNames, mColumns, mRows);
+    }
+
+    /**
+     * memory-maps a table written by {@link #save(File)}. No data is read or copied up
+     * front: values are served straight from the OS page cache. The returned table is
+     * read-only and should be closed to unmap the file.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static OffHeapTable mapReadOnly(File file) throws IOException {
+        return TableFile.mapReadOnly(file);
+    }
+
     /**
      * the total number of rows currently allocated.
      *
@@ -700,6 +983,7 @@ public class ArrayTable {
             }
         }
         mRows = 0;
+        mModCount++;
     }
 
     public void copy(ArrayTable copy) {
@@ -714,9 +998,20 @@ public class ArrayTable {
             mColumns[i] = Array.newInstance(mColumnTypes[i], mCapacity);
             System.arraycopy(copy.mColumns[i], 0, mColumns[i], 0, mRows);
         }
+        if (mColumnModCount != null) {
+            mColumnModCount = new int[mColumnTypes.length];
+        }
+        mModCount++;
     }
 
-    private void ensureCapacity(int minCapacity) {
+    /**
+     * Increases the capacity of this table, if necessary, to ensure that it can hold
+     * at least {@code minCapacity} rows without reallocating its columns. Bulk loaders
+     * should call this once up front.
+     *
+     * @param minCapacity the desired minimum capacity
+     */
+    public void ensureCapacity(int minCapacity) {
         if (minCapacity - mCapacity > 0) {
             grow(minCapacity);
         }
@@ -758,29 +1053,9 @@ public class ArrayTable {
         checkArgument(data != null && data.length == mColumnTypes.length);
 
         ensureCapacity(mRows + 1);
-        for (int i = 0; i < mColumnTypes.length; i++) {
-            if (mColumnTypes[i] == int.class) {
-                int[] column = (int[]) mColumns[i];
-                column[mRows] = ((Number) data[i]).intValue();
-            } else if (mColumnTypes[i] == long.class) {
-                long[] column = (long[]) mColumns[i];
-                column[mRows] = ((Number) data[i]).longValue();
-            } else if (mColumnTypes[i] == float.class) {
-                float[] column = (float[]) mColumns[i];
-                column[mRows] = ((Number) data[i]).floatValue();
-            } else if (mColumnTypes[i] == double.class) {
-                double[] column = (double[]) mColumns[i];
-                column[mRows] = ((Number) data[i]).doubleValue();
-            } else if (mColumnTypes[i] == boolean.class) {
-                boolean[] column = (boolean[]) mColumns[i];
-                column[mRows] = ((Boolean) data[i]).booleanValue();
-            } else {
-                Object[] column = (Object[]) mColumns[i];
-                column[mRows] = data[i];
-            }
-        }
-
+        setRow(mRows, data);
         mRows++;
+        mModCount++;
     }
 
     /**
@@ -793,28 +1068,78 @@ public class ArrayTable {
      */
     public void insertAt(int index, Object... data) {
         checkArgument(data != null && data.length == mColumnTypes.length);
+
+        insertRow(index);
+        setRow(index, data);
+    }
+
+    /**
+     * adds a new row to the bottom of the table without boxing or allocating. The
+     * cells of the new row must be filled in with the typed setters, for example:
+     * <pre>
+     *     int row = table.appendRow();
+     *     table.setLong(row, 0, timestamp);
+     *     table.setDouble(row, 1, price);
+     * </pre>
+     * Object cells of the new row are {@code null}. Primitive cells are not cleared
+     * and may hold values from rows that were removed by {@link #clear()} or
+     * {@link #deleteRow(int)}.
+     *
+     * @return the index of the new row
+     */
+    public int appendRow() {
+        ensureCapacity(mRows + 1);
+        mModCount++;
+        return mRows++;
+    }
+
+    /**
+     * Inserts an empty row at the specified position in this table without boxing or
+     * allocating. Shifts the rows currently at that position (if any) and any subsequent
+     * rows down (adds one to their indices). The cells of the new row must be filled in
+     * with the typed setters.
+     *
+     * @param index index at which the new row is to be inserted
+     * @see #appendRow()
+     */
+    public void insertRow(int index) {
+        checkState(index >= 0 && index <= mRows, "invalid row");
         ensureCapacity(mRows + 1);
 
         for (int i = 0; i < mColumnTypes.length; i++) {
             Object column = mColumns[i];
             System.arraycopy(column, index, column, index + 1, mRows - index);
+            if (!mColumnTypes[i].isPrimitive()) {
+                ((Object[]) column)[index] = null;
+            }
+        }
+
+        mRows++;
+        mModCount++;
+    }
 
+    private void setRow(int row, Object[] data) {
+        for (int i = 0; i < mColumnTypes.length; i++) {
             if (mColumnTypes[i] == int.class) {
-                Array.setInt(column, index, ((Number) data[i]).intValue());
+                int[] column = (int[]) mColumns[i];
+                column[row] = ((Number) data[i]).intValue();
             } else if (mColumnTypes[i] == long.class) {
-                Array.setLong(column, index, ((Number) data[i]).longValue());
+                long[] column = (long[]) mColumns[i];
+                column[row] = ((Number) data[i]).longValue();
             } else if (mColumnTypes[i] == float.class) {
-                Array.setFloat(column, index, ((Number) data[i]).floatValue());
+                float[] column = (float[]) mColumns[i];
+                column[row] = ((Number) data[i]).floatValue();
             } else if (mColumnTypes[i] == double.class) {
-                Array.setDouble(column, index, ((Number) data[i]).doubleValue());
+                double[] column = (double[]) mColumns[i];
+                column[row] = ((Number) data[i]).doubleValue();
             } else if (mColumnTypes[i] == boolean.class) {
-                Array.setBoolean(column, index, ((Boolean) data[i]).booleanValue());
+                boolean[] column = (boolean[]) mColumns[i];
+                column[row] = ((Boolean) data[i]).booleanValue();
             } else {
-                Array.set(column, index, data[i]);
+                Object[] column = (Object[]) mColumns[i];
+                column[row] = data[i];
             }
         }
-
-        mRows++;
     }
 
     public void deleteRow(int index) {
@@ -833,6 +1158,7 @@ public class ArrayTable {
         }
 
         mRows--;
+        mModCount++;
     }
 
     public int getInt(int row, int column) {
@@ -843,6 +1169,9 @@ public class ArrayTable {
     public void setInt(int row, int column, int value) {
         ((int[])mColumns[column])[row] = value;
         //Array.setInt(mColumns[column], row, value);
+        if (mColumnModCount != null) {
+            mColumnModCount[column]++;
+        }
     }
 
     public long getLong(int row, int column) {
@@ -853,6 +1182,9 @@ public class ArrayTable {
     public void setLong(int row, int column, long value) {
         ((long[])mColumns[column])[row] = value;
         //Array.setLong(mColumns[column], row, value);
+        if (mColumnModCount != null) {
+            mColumnModCount[column]++;
+        }
     }
 
     public float getFloat(int row, int column) {
@@ -863,6 +1195,9 @@ public class ArrayTable {
     public void setFloat(int row, int column, float value) {
         ((float[])mColumns[column])[row] = value;
         //Array.setFloat(mColumns[column], row, value);
+        if (mColumnModCount != null) {
+            mColumnModCount[column]++;
+        }
     }
 
     public double getDouble(int row, int column) {
@@ -873,6 +1208,9 @@ public class ArrayTable {
     public void setDouble(int row, int column, double value) {
         ((double[])mColumns[column])[row] = value;
         //Array.setDouble(mColumns[column], row, value);
+        if (mColumnModCount != null) {
+            mColumnModCount[column]++;
+        }
     }
 
     public boolean getBoolean(int row, int column) {
@@ -883,6 +1221,9 @@ public class ArrayTable {
     public void setBoolean(int row, int column, boolean value) {
         ((boolean[])mColumns[column])[row] = value;
         //Array.setBoolean(mColumns[column], row, value);
+        if (mColumnModCount != null) {
+            mColumnModCount[column]++;
+        }
     }
 
     public <T> T getObject(int row, int column) {
@@ -893,6 +1234,9 @@ public class ArrayTable {
     public void setObject(int row, int column, Object value) {
         ((Object[])mColumns[column])[row] = value;
         //Array.set(mColumns[column], row, value);
+        if (mColumnModCount != null) {
+            mColumnModCount[column]++;
+        }
     }
 
     public int floor(int column, int key, int min, int max) {
@@ -1029,10 +1373,12 @@ public class ArrayTable {
         for (int i = 0; i < mColumnTypes.length; i++) {
             mColumnSwapImpl[i].swap(mColumns[i], rowi, rowj);
         }
+        mModCount++;
     }
 
     /**
-     * sort rows based on {@code comparator}
+     * sort rows based on {@code comparator}. The sort is stable: rows that compare
+     * equal keep their relative order.
      *
      * @param comparator
      */
@@ -1068,48 +1414,449 @@ public class ArrayTable {
      * @see ArrayTable#sort(RowComparator)
      */
     public void resort() {
-        if (mComparator != null) {
-            heapSort();
+        if (mComparator != null && mRows > 1) {
+            permute(sortedOrder(mComparator));
         }
     }
 
-    private void heapSort() {
-        int n = mRows - 1;
+    /**
+     * @return the row indices in the order given by {@code comparator}. The table itself
+     * is left unchanged.
+     */
+    int[] sortedOrder(RowComparator comparator) {
+        int[] order = new int[mRows];
+        for (int i = 0; i < mRows; i++) {
+            order[i] = i;
+        }
+        if (mRows < RADIX_SORT_THRESHOLD || !radixSort(order, comparator)) {
+            int[] aux = order.clone();
+            mergeSort(aux, order, 0, mRows, comparator);
+        }
+        return order;
+    }
+
+    /**
+     * Tuning parameter: tables with fewer rows than this are always sorted by comparison.
+     */
+    private static final int RADIX_SORT_THRESHOLD = 512;
 
-        heapify();
-        for(int i=n;i>0;i--){
-            swap(0, i);
-            n = n - 1;
-            maxheap(0, n);
+    /**
+     * sorts the rows listed in {@code order} with a radix sort if {@code comparator} only compares primitive
+     * columns, i.e. it is a {@link PrimitiveRowComparator} or a {@link ChainedRowComparator}
+     * made up entirely of them.
+     *
+     * @return false if the comparator is not supported and {@code order} was left untouched
+     */
+    private boolean radixSort(int[] order, RowComparator comparator) {
+        final RowComparator[] steps;
+        if (comparator instanceof ChainedRowComparator) {
+            steps = ((ChainedRowComparator) comparator).mCompareSteps;
+        } else {
+            steps = new RowComparator[]{comparator};
         }
+
+        if (steps.length == 0) {
+            return false;
+        }
+        for (RowComparator step : steps) {
+            if (!(step instanceof PrimitiveRowComparator)
+                    || step.getClass().getDeclaringClass() != ArrayTable.class) {
+                // subclasses may override compare()
+                return false;
+            }
+            PrimitiveRowComparator key = (PrimitiveRowComparator) step;
+            if (mColumnTypes[key.getColumn()] != key.getKeyType()) {
+                return false;
+            }
+        }
+
+        final int n = order.length;
+        int[] intKeys = null;
+        long[] longKeys = null;
+        for (int s = steps.length - 1; s >= 0; s--) {
+            final PrimitiveRowComparator key = (PrimitiveRowComparator) steps[s];
+            final boolean desc = key.isDescending();
+            final Class<?> type = key.getKeyType();
+            final Object column = mColumns[key.getColumn()];
+
+            if (type == int.class || type == float.class) {
+                if (intKeys == null) {
+                    intKeys = new int[n];
+                }
+                if (type == int.class) {
+                    final int[] values = (int[]) column;
+                    for (int i = 0; i < n; i++) {
+                        intKeys[i] = RadixSort.intKey(values[order[i]], desc);
+                    }
+                } else {
+                    final float[] values = (float[]) column;
+                    for (int i = 0; i < n; i++) {
+                        intKeys[i] = RadixSort.floatKey(values[order[i]], desc);
+                    }
+                }
+                RadixSort.sort(order, intKeys, n);
+            } else {
+                if (longKeys == null) {
+                    longKeys = new long[n];
+                }
+                if (type == long.class) {
+                    final long[] values = (long[]) column;
+                    for (int i = 0; i < n; i++) {
+                        longKeys[i] = RadixSort.longKey(values[order[i]], desc);
+                    }
+                } else {
+                    final double[] values = (double[]) column;
+                    for (int i = 0; i < n; i++) {
+                        longKeys[i] = RadixSort.doubleKey(values[order[i]], desc);
+                    }
+                }
+                RadixSort.sort(order, longKeys, n);
+            }
+        }
+
+        return true;
     }
 
-    private void heapify() {
-        int n = mRows - 1;
-        for(int i=n/2;i>=0;i--) {
-            maxheap(i, n);
+    /**
+     * Tuning parameter: arrays smaller than this are sorted with insertion sort.
+     */
+    private static final int INSERTIONSORT_THRESHOLD = 7;
+
+    /**
+     * Stable merge sort of the row indices in {@code dest[low, high)}. {@code src} must
+     * hold the same values as {@code dest} on entry. Rows are only compared, never moved,
+     * so each column is touched once afterwards in {@link #permute(int[])}. Already ordered
+     * halves are detected with a single compare and copied, which makes re-sorting
+     * nearly sorted tables close to linear.
+     */
+    private void mergeSort(int[] src, int[] dest, int low, int high, RowComparator c) {
+        final int length = high - low;
+
+        if (length < INSERTIONSORT_THRESHOLD) {
+            for (int i = low + 1; i < high; i++) {
+                final int row = dest[i];
+                int j = i;
+                while (j > low && c.compare(this, dest[j - 1], row) > 0) {
+                    dest[j] = dest[j - 1];
+                    j--;
+                }
+                dest[j] = row;
+            }
+            return;
+        }
+
+        final int mid = (low + high) >>> 1;
+        mergeSort(dest, src, low, mid, c);
+        mergeSort(dest, src, mid, high, c);
+
+        if (c.compare(this, src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, low, dest, low, length);
+            return;
+        }
+
+        for (int i = low, p = low, q = mid; i < high; i++) {
+            if (q >= high || p < mid && c.compare(this, src[p], src[q]) <= 0) {
+                dest[i] = src[p++];
+            } else {
+                dest[i] = src[q++];
+            }
         }
     }
 
-    private void maxheap(int i, int n) {
+    /**
+     * rearranges the rows so that row {@code i} becomes what was previously
+     * row {@code order[i]}. Each column is rebuilt with one linear gather pass
+     * instead of swapping every column on every exchange.
+     *
+     * @param order a permutation of {@code [0, rows())}
+     */
+    private void permute(int[] order) {
+        if (isIdentity(order)) {
+            return;
+        }
+        mModCount++;
 
-        int left = 2*i;
-        int right = 2*i + 1;
-        int max = i;
-        if(left <= n && mComparator.compare(this, left, i) > 0) {
-            max = left;
+        // gather into one scratch array per column type and copy back so that
+        // arrays handed to createWithColumns() keep reflecting the table
+        HashMap<Class<?>, Object> scratch = new HashMap<Class<?>, Object>();
+        for (int i = 0; i < mColumnTypes.length; i++) {
+            Object buffer = scratch.get(mColumnTypes[i]);
+            if (buffer == null) {
+                buffer = Array.newInstance(mColumnTypes[i], mRows);
+                scratch.put(mColumnTypes[i], buffer);
+            }
+            permuteColumn(i, order, buffer);
         }
+    }
 
-        if(right <=n && mComparator.compare(this, right, max) > 0) {
-            max = right;
+    private boolean isIdentity(int[] order) {
+        for (int i = 0; i < mRows; i++) {
+            if (order[i] != i) {
+                return false;
+            }
         }
+        return true;
+    }
+
+    private void permuteColumn(int column, int[] order, Object buffer) {
+        mColumnSwapImpl[column].gather(mColumns[column], buffer, order, mRows);
+        System.arraycopy(buffer, 0, mColumns[column], 0, mRows);
+    }
 
-        if(max != i) {
-            swap(i, max);
-            maxheap(max, n);
+    /**
+     * The default minimum number of rows for which {@link #parallelSort(RowComparator, ExecutorService)}
+     * splits the work across threads. Smaller tables are sorted on the calling thread.
+     */
+    public static final int DEFAULT_PARALLEL_SORT_THRESHOLD = 1 << 16;
+
+    /**
+     * same as {@link #sort(RowComparator)} but the work is split across {@link ThreadUtils#CPUThreads}.
+     *
+     * @see #parallelSort(RowComparator, ExecutorService, int)
+     */
+    public void parallelSort(RowComparator comparator) throws InterruptedException {
+        parallelSort(comparator, ThreadUtils.CPUThreads, DEFAULT_PARALLEL_SORT_THRESHOLD);
+    }
+
+    /**
+     * @see #parallelSort(RowComparator, ExecutorService, int)
+     */
+    public void parallelSort(RowComparator comparator, ExecutorService executor) throws InterruptedException {
+        parallelSort(comparator, executor, DEFAULT_PARALLEL_SORT_THRESHOLD);
+    }
+
+    /**
+     * sort rows based on {@code comparator} using the threads of {@code executor}. The row
+     * permutation is split into one chunk per processor, the chunks are sorted concurrently
+     * and then merged pairwise, with each merge further split so every round keeps all
+     * threads busy. Finally each column is permuted by its own task. The result is identical
+     * to {@link #sort(RowComparator)}, including stability.
+     * <p>
+     * The calling thread only waits on the submitted tasks; the tasks never wait on each
+     * other, so it is safe to use a bounded executor.
+     *
+     * @param threshold tables with fewer rows than this are sorted on the calling thread
+     */
+    public void parallelSort(RowComparator comparator, ExecutorService executor, int threshold) throws InterruptedException {
+        checkArgument(threshold > 0, "threshold must be positive");
+        mComparator = comparator;
+
+        final int parallelism = Runtime.getRuntime().availableProcessors();
+        if (mRows < threshold || mRows < 2 * parallelism || parallelism < 2) {
+            resort();
+            return;
+        }
+
+        final int[] order = new int[mRows];
+        for (int i = 0; i < mRows; i++) {
+            order[i] = i;
+        }
+
+        int runs = parallelism;
+        int[] bounds = new int[runs + 1];
+        for (int i = 0; i <= runs; i++) {
+            bounds[i] = (int) ((long) mRows * i / runs);
+        }
+
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < runs; i++) {
+            tasks.add(new SortRunTask(order, bounds[i], bounds[i + 1], comparator));
+        }
+        invokeAll(executor, tasks);
+
+        int[] src = order;
+        int[] dest = new int[mRows];
+        while (runs > 1) {
+            tasks.clear();
+            final int pairs = runs / 2;
+            final int splits = Math.max(1, parallelism / pairs);
+            int[] newBounds = new int[(runs + 1) / 2 + 1];
+
+            for (int r = 0; r < pairs; r++) {
+                final int lo = bounds[2 * r];
+                addMergeTasks(tasks, src, dest, lo, bounds[2 * r + 1], bounds[2 * r + 2], splits, comparator);
+                newBounds[r] = lo;
+            }
+            if (runs % 2 == 1) {
+                final int lo = bounds[runs - 1];
+                System.arraycopy(src, lo, dest, lo, mRows - lo);
+                newBounds[pairs] = lo;
+            }
+            newBounds[newBounds.length - 1] = mRows;
+            invokeAll(executor, tasks);
+
+            int[] tmp = src;
+            src = dest;
+            dest = tmp;
+            bounds = newBounds;
+            runs = newBounds.length - 1;
+        }
+
+        if (isIdentity(src)) {
+            return;
+        }
+        mModCount++;
+
+        tasks.clear();
+        final int[] sorted = src;
+        for (int i = 0; i < mColumnTypes.length; i++) {
+            final int column = i;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    permuteColumn(column, sorted, Array.newInstance(mColumnTypes[column], mRows));
+                    return null;
+                }
+            });
+        }
+        invokeAll(executor, tasks);
+    }
+
+    private class SortRunTask implements Callable<Void> {
+
+        private final int[] mOrder;
+        private final int mFrom;
+        private final int mTo;
+        private final RowComparator mRunComparator;
+
+        SortRunTask(int[] order, int from, int to, RowComparator comparator) {
+            mOrder = order;
+            mFrom = from;
+            mTo = to;
+            mRunComparator = comparator;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            int[] run = Arrays.copyOfRange(mOrder, mFrom, mTo);
+            if (run.length < RADIX_SORT_THRESHOLD || !radixSort(run, mRunComparator)) {
+                mergeSort(run.clone(), run, 0, run.length, mRunComparator);
+            }
+            System.arraycopy(run, 0, mOrder, mFrom, run.length);
+            return null;
+        }
+    }
+
+    /**
+     * adds tasks that merge the sorted runs {@code src[lo, mid)} and {@code src[mid, hi)} into
+     * {@code dest[lo, hi)}. The left run is cut into {@code splits} pieces and each cut is
+     * located in the right run by binary search, giving independent sub-merges.
+     */
+    private void addMergeTasks(List<Callable<Void>> tasks, final int[] src, final int[] dest,
+                               final int lo, final int mid, final int hi, int splits, final RowComparator c) {
+        int aLo = lo;
+        int bLo = mid;
+        for (int s = 1; s <= splits; s++) {
+            final int aHi;
+            final int bHi;
+            if (s == splits) {
+                aHi = mid;
+                bHi = hi;
+            } else {
+                aHi = lo + (int) ((long) (mid - lo) * s / splits);
+                if (aHi == aLo || aHi >= mid) {
+                    continue;
+                }
+                bHi = lowerBound(src, bLo, hi, src[aHi], c);
+            }
+
+            final int fa = aLo;
+            final int fb = bLo;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    merge(src, fa, aHi, fb, bHi, dest, fa + fb - mid, c);
+                    return null;
+                }
+            });
+            aLo = aHi;
+            bLo = bHi;
         }
     }
 
+    /**
+     * @return the first index in {@code order[low, high)} whose row does not compare less than {@code row}
+     */
+    private int lowerBound(int[] order, int low, int high, int row, RowComparator c) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (c.compare(this, order[mid], row) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * stable merge of {@code src[aLo, aHi)} and {@code src[bLo, bHi)} into {@code dest} starting
+     * at {@code destLo}. On ties rows from the first run come first.
+     */
+    private void merge(int[] src, int aLo, int aHi, int bLo, int bHi, int[] dest, int destLo, RowComparator c) {
+        int p = aLo;
+        int q = bLo;
+        int i = destLo;
+        while (p < aHi && q < bHi) {
+            if (c.compare(this, src[q], src[p]) < 0) {
+                dest[i++] = src[q++];
+            } else {
+                dest[i++] = src[p++];
+            }
+        }
+        System.arraycopy(src, p, dest, i, aHi - p);
+        System.arraycopy(src, q, dest, i + aHi - p, bHi - q);
+    }
+
+    private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks) throws InterruptedException {
+        for (Future<Void> f : executor.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+    }
+
+
+    /**
+     * creates a hash index on an int or long column. The index is rebuilt automatically
+     * the first time it is used after the table has changed.
+     *
+     * @see HashIndex
+     */
+    public HashIndex createHashIndex(int column) {
+        checkArgument(mColumnTypes[column] == int.class || mColumnTypes[column] == long.class,
+                "hash indexes require an int or long column");
+        trackColumnChanges();
+        return new HashIndex(this, column);
+    }
+
+    /**
+     * creates an index that lists the rows in ascending order of {@code column} without
+     * moving them. The index is rebuilt automatically the first time it is used after the
+     * table has changed.
+     *
+     * @see SortedIndex
+     */
+    public SortedIndex createSortedIndex(int column) {
+        trackColumnChanges();
+        return new SortedIndex(this, column);
+    }
+
+    private void trackColumnChanges() {
+        if (mColumnModCount == null) {
+            mColumnModCount = new int[mColumnTypes.length];
+        }
+    }
+
+    /**
+     * @return a value that changes whenever rows are added, removed or moved, or a cell of
+     * {@code column} is set
+     */
+    long version(int column) {
+        return ((long) mModCount << 32) | (mColumnModCount[column] & 0xFFFFFFFFL);
+    }
 
     @Override
     public String toString() {
@@ -0,0 +1,775 @@
+package com.devsmart;
+
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bulk operations over the primitive columns of an {@link ArrayTable}: aggregates, filters
+ * and group-by. Each operation is a plain loop over the backing {@code int[]}, {@code long[]},
+ * {@code float[]} or {@code double[]} array of the column, with the type dispatch done once
+ * outside the loop, so there are no per-row calls or boxing and the JIT can unroll and
+ * vectorize.
+ * <p>
+ * Filters produce a selection {@link BitSet} (bit {@code i} set if row {@code i} matches).
+ * Selections are combined with {@link BitSet#and(BitSet)} / {@link BitSet#or(BitSet)},
+ * passed to the aggregate and group-by operations, or turned into row ids with
+ * {@link #rows(BitSet)}:
+ * <pre>
+ *     BitSet sel = ColumnOps.filter(table, PRICE, ColumnOps.Compare.GT, 100.0);
+ *     sel.and(ColumnOps.filter(table, QTY, ColumnOps.Compare.LE, 10));
+ *     double avg = ColumnOps.stats(table, PRICE, sel).getMean();
+ * </pre>
+ */
+public final class ColumnOps {
+
+    public enum Compare {
+        EQ, NE, LT, LE, GT, GE
+    }
+
+    private ColumnOps() {
+    }
+
+    /**
+     * Summary of the values of a column. {@code NaN} values are counted and make the sum
+     * and mean {@code NaN}, but are ignored by min and max.
+     */
+    public static class Stats {
+
+        private int mCount;
+        private double mSum;
+        private double mMin = Double.POSITIVE_INFINITY;
+        private double mMax = Double.NEGATIVE_INFINITY;
+        private long mLongSum;
+        private long mLongMin = Long.MAX_VALUE;
+        private long mLongMax = Long.MIN_VALUE;
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public double getSum() {
+            return mSum;
+        }
+
+        /**
+         * @return {@link Double#NaN} if there are no values
+         */
+        public double getMean() {
+            return mCount == 0 ? Double.NaN : mSum / mCount;
+        }
+
+        /**
+         * @return {@link Double#POSITIVE_INFINITY} if there are no values
+         */
+        public double getMin() {
+            return mMin;
+        }
+
+        /**
+         * @return {@link Double#NEGATIVE_INFINITY} if there are no values
+         */
+        public double getMax() {
+            return mMax;
+        }
+
+        /**
+         * the exact sum of an int or long column, wrapping on overflow
+         */
+        public long getLongSum() {
+            return mLongSum;
+        }
+
+        /**
+         * the exact minimum of an int or long column, {@link Long#MAX_VALUE} if there are no values
+         */
+        public long getLongMin() {
+            return mLongMin;
+        }
+
+        /**
+         * the exact maximum of an int or long column, {@link Long#MIN_VALUE} if there are no values
+         */
+        public long getLongMax() {
+            return mLongMax;
+        }
+
+        private void setLong(int count, long sum, long min, long max) {
+            mCount = count;
+            mLongSum = sum;
+            mSum = sum;
+            if (count > 0) {
+                mLongMin = min;
+                mLongMax = max;
+                mMin = min;
+                mMax = max;
+            } else {
+                // an empty int column passes the int sentinels
+                mLongMin = Long.MAX_VALUE;
+                mLongMax = Long.MIN_VALUE;
+            }
+        }
+
+        private void setDouble(int count, double sum, double min, double max) {
+            mCount = count;
+            mSum = sum;
+            mMin = min;
+            mMax = max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d sum=%s min=%s max=%s mean=%s", mCount, mSum, mMin, mMax, getMean());
+        }
+    }
+
+    private static void checkNumeric(Class<?> type) {
+        checkArgument(type == int.class || type == long.class || type == float.class || type == double.class,
+                "column is not numeric");
+    }
+
+    /**
+     * @return the sum of a numeric column. Int and long columns are summed exactly as longs
+     * (wrapping on overflow) and then converted.
+     */
+    public static double sum(ArrayTable table, int column) {
+        final Class<?> type = table.getColumnType(column);
+        checkNumeric(type);
+        final Object array = table.columnArray(column);
+        final int n = table.rows();
+
+        if (type == int.class) {
+            final int[] a = (int[]) array;
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += a[i];
+            }
+            return sum;
+        } else if (type == long.class) {
+            final long[] a = (long[]) array;
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += a[i];
+            }
+            return sum;
+        } else if (type == float.class) {
+            return sum((float[]) array, n);
+        } else {
+            return sum((double[]) array, n);
+        }
+    }
+
+    private static double sum(float[] a, int n) {
+        // independent accumulators so consecutive additions do not wait on each other
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += a[i];
+            s1 += a[i + 1];
+            s2 += a[i + 2];
+            s3 += a[i + 3];
+        }
+        for (; i < n; i++) {
+            s0 += a[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static double sum(double[] a, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += a[i];
+            s1 += a[i + 1];
+            s2 += a[i + 2];
+            s3 += a[i + 3];
+        }
+        for (; i < n; i++) {
+            s0 += a[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double min(ArrayTable table, int column) {
+        return stats(table, column).getMin();
+    }
+
+    public static double max(ArrayTable table, int column) {
+        return stats(table, column).getMax();
+    }
+
+    /**
+     * @return {@link Double#NaN} if the table is empty
+     */
+    public static double mean(ArrayTable table, int column) {
+        final int n = table.rows();
+        return n == 0 ? Double.NaN : sum(table, column) / n;
+    }
+
+    /**
+     * computes count, sum, min and max of a numeric column in one pass.
+     */
+    public static Stats stats(ArrayTable table, int column) {
+        final Class<?> type = table.getColumnType(column);
+        checkNumeric(type);
+        final Object array = table.columnArray(column);
+        final int n = table.rows();
+        Stats retval = new Stats();
+
+        if (type == int.class) {
+            final int[] a = (int[]) array;
+            long sum = 0;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                final int v = a[i];
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            retval.setLong(n, sum, min, max);
+
+        } else if (type == long.class) {
+            final long[] a = (long[]) array;
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                final long v = a[i];
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            retval.setLong(n, sum, min, max);
+
+        } else if (type == float.class) {
+            final float[] a = (float[]) array;
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                final float v = a[i];
+                if (v < min) {
+                    min = v;
+                }
+                if (v > max) {
+                    max = v;
+                }
+            }
+            retval.setDouble(n, sum(a, n), min, max);
+
+        } else {
+            final double[] a = (double[]) array;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                final double v = a[i];
+                if (v < min) {
+                    min = v;
+                }
+                if (v > max) {
+                    max = v;
+                }
+            }
+            retval.setDouble(n, sum(a, n), min, max);
+        }
+        return retval;
+    }
+
+    /**
+     * computes count, sum, min and max of a numeric column over the selected rows only.
+     */
+    public static Stats stats(ArrayTable table, int column, BitSet selection) {
+        final Class<?> type = table.getColumnType(column);
+        checkNumeric(type);
+        final Object array = table.columnArray(column);
+        final int n = table.rows();
+        Stats retval = new Stats();
+
+        int count = 0;
+        if (type == int.class || type == long.class) {
+            final int[] ia = type == int.class ? (int[]) array : null;
+            final long[] la = type == long.class ? (long[]) array : null;
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = selection.nextSetBit(0); i >= 0 && i < n; i = selection.nextSetBit(i + 1)) {
+                final long v = ia != null ? ia[i] : la[i];
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                count++;
+            }
+            retval.setLong(count, sum, min, max);
+
+        } else {
+            final float[] fa = type == float.class ? (float[]) array : null;
+            final double[] da = type == double.class ? (double[]) array : null;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = selection.nextSetBit(0); i >= 0 && i < n; i = selection.nextSetBit(i + 1)) {
+                final double v = fa != null ? fa[i] : da[i];
+                sum += v;
+                if (v < min) {
+                    min = v;
+                }
+                if (v > max) {
+                    max = v;
+                }
+                count++;
+            }
+            retval.setDouble(count, sum, min, max);
+        }
+        return retval;
+    }
+
+    /**
+     * @return the rows whose value in {@code column} compares to {@code value} as given by
+     * {@code op}. Float and double columns are compared as doubles.
+     */
+    public static BitSet filter(ArrayTable table, int column, Compare op, long value) {
+        final Class<?> type = table.getColumnType(column);
+        if (type == float.class || type == double.class) {
+            return filter(table, column, op, (double) value);
+        }
+        checkArgument(type == int.class || type == long.class, "column is not numeric");
+
+        // every comparison is a (possibly negated) test for lo <= x <= hi
+        long lo = Long.MIN_VALUE;
+        long hi = Long.MAX_VALUE;
+        boolean negate = false;
+        switch (op) {
+            case NE:
+            case EQ:
+                negate = op == Compare.NE;
+                lo = value;
+                hi = value;
+                break;
+            case LT:
+                if (value == Long.MIN_VALUE) {
+                    return new BitSet();
+                }
+                hi = value - 1;
+                break;
+            case LE:
+                hi = value;
+                break;
+            case GT:
+                if (value == Long.MAX_VALUE) {
+                    return new BitSet();
+                }
+                lo = value + 1;
+                break;
+            case GE:
+                lo = value;
+                break;
+        }
+
+        final int n = table.rows();
+        final long[] words = new long[(n + 63) >>> 6];
+        // x - lo <= hi - lo as unsigned values is the same as lo <= x <= hi
+        final long range = (hi - lo) ^ Long.MIN_VALUE;
+        if (type == int.class) {
+            final int[] a = (int[]) table.columnArray(column);
+            for (int w = 0, i = 0; w < words.length; w++) {
+                final int end = Math.min(n, i + 64);
+                long word = 0;
+                for (int bit = 0; i < end; i++, bit++) {
+                    final int x = a[i];
+                    word |= (((x - lo) ^ Long.MIN_VALUE) <= range ? 1L : 0L) << bit;
+                }
+                words[w] = word;
+            }
+        } else {
+            final long[] a = (long[]) table.columnArray(column);
+            for (int w = 0, i = 0; w < words.length; w++) {
+                final int end = Math.min(n, i + 64);
+                long word = 0;
+                for (int bit = 0; i < end; i++, bit++) {
+                    final long x = a[i];
+                    word |= (((x - lo) ^ Long.MIN_VALUE) <= range ? 1L : 0L) << bit;
+                }
+                words[w] = word;
+            }
+        }
+        return toBitSet(words, n, negate);
+    }
+
+    /**
+     * @return the rows whose value in {@code column} compares to {@code value} as given by
+     * {@code op}, using the {@code <}, {@code ==}, ... operators (so {@code NaN} only
+     * matches {@link Compare#NE}).
+     */
+    public static BitSet filter(ArrayTable table, int column, Compare op, double value) {
+        final Class<?> type = table.getColumnType(column);
+        checkNumeric(type);
+
+        double lo = Double.NEGATIVE_INFINITY;
+        double hi = Double.POSITIVE_INFINITY;
+        boolean negate = false;
+        switch (op) {
+            case NE:
+            case EQ:
+                negate = op == Compare.NE;
+                lo = value;
+                hi = value;
+                break;
+            case LT:
+                if (value == Double.NEGATIVE_INFINITY) {
+                    return new BitSet();
+                }
+                hi = Math.nextAfter(value, Double.NEGATIVE_INFINITY);
+                break;
+            case LE:
+                hi = value;
+                break;
+            case GT:
+                if (value == Double.POSITIVE_INFINITY) {
+                    return new BitSet();
+                }
+                lo = Math.nextAfter(value, Double.POSITIVE_INFINITY);
+                break;
+            case GE:
+                lo = value;
+                break;
+        }
+
+        final int n = table.rows();
+        final long[] words = new long[(n + 63) >>> 6];
+        final Object array = table.columnArray(column);
+        if (type == int.class) {
+            final int[] a = (int[]) array;
+            for (int w = 0, i = 0; w < words.length; w++) {
+                final int end = Math.min(n, i + 64);
+                long word = 0;
+                for (int bit = 0; i < end; i++, bit++) {
+                    final int x = a[i];
+                    word |= ((lo <= x) & (x <= hi) ? 1L : 0L) << bit;
+                }
+                words[w] = word;
+            }
+        } else if (type == long.class) {
+            final long[] a = (long[]) array;
+            for (int w = 0, i = 0; w < words.length; w++) {
+                final int end = Math.min(n, i + 64);
+                long word = 0;
+                for (int bit = 0; i < end; i++, bit++) {
+                    final long x = a[i];
+                    word |= ((lo <= x) & (x <= hi) ? 1L : 0L) << bit;
+                }
+                words[w] = word;
+            }
+        } else if (type == float.class) {
+            final float[] a = (float[]) array;
+            for (int w = 0, i = 0; w < words.length; w++) {
+                final int end = Math.min(n, i + 64);
+                long word = 0;
+                for (int bit = 0; i < end; i++, bit++) {
+                    final float x = a[i];
+                    word |= ((lo <= x) & (x <= hi) ? 1L : 0L) << bit;
+                }
+                words[w] = word;
+            }
+        } else {
+            final double[] a = (double[]) array;
+            for (int w = 0, i = 0; w < words.length; w++) {
+                final int end = Math.min(n, i + 64);
+                long word = 0;
+                for (int bit = 0; i < end; i++, bit++) {
+                    final double x = a[i];
+                    word |= ((lo <= x) & (x <= hi) ? 1L : 0L) << bit;
+                }
+                words[w] = word;
+            }
+        }
+        return toBitSet(words, n, negate);
+    }
+
+    /**
+     * {@code BitSet.valueOf(long[])}, which needs Java 7, or null
+     */
+    private static final Method BITSET_VALUE_OF = bitSetValueOf();
+
+    private static Method bitSetValueOf() {
+        try {
+            return BitSet.class.getMethod("valueOf", long[].class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * builds the filter result from the match bits, inverting them for a negated comparison.
+     * Bits are assembled a word at a time in the loops above: a data dependent branch per
+     * row is mispredicted half the time on unsorted data.
+     */
+    private static BitSet toBitSet(long[] words, int n, boolean negate) {
+        if (negate) {
+            for (int w = 0; w < words.length; w++) {
+                words[w] = ~words[w];
+            }
+            if ((n & 63) != 0) {
+                words[words.length - 1] &= (1L << n) - 1;
+            }
+        }
+        if (BITSET_VALUE_OF != null) {
+            try {
+                return (BitSet) BITSET_VALUE_OF.invoke(null, (Object) words);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return copyBits(words, n);
+    }
+
+    /**
+     * {@code BitSet.valueOf(words)} for Java 6, with room for {@code n} bits
+     */
+    static BitSet copyBits(long[] words, int n) {
+        BitSet retval = new BitSet(n);
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            final int base = w << 6;
+            if (word == -1L) {
+                retval.set(base, base + 64);
+                continue;
+            }
+            while (word != 0) {
+                retval.set(base + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @return the indices of the set bits of {@code selection}, in ascending order
+     */
+    public static int[] rows(BitSet selection) {
+        int[] retval = new int[selection.cardinality()];
+        int j = 0;
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+            retval[j++] = i;
+        }
+        return retval;
+    }
+
+    /**
+     * The result of {@link #groupBy(ArrayTable, int, int)}: one group per distinct key, in
+     * order of first appearance, with count, sum, min and max of the value column.
+     */
+    public static class Groups {
+
+        private int mSize;
+        private long[] mKeys;
+        private int[] mCounts;
+        private double[] mSums;
+        private double[] mMins;
+        private double[] mMaxs;
+
+        private Groups(int size, long[] keys, int[] counts, double[] sums, double[] mins, double[] maxs) {
+            mSize = size;
+            mKeys = keys;
+            mCounts = counts;
+            mSums = sums;
+            mMins = mins;
+            mMaxs = maxs;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public long getKey(int group) {
+            return mKeys[group];
+        }
+
+        public int getCount(int group) {
+            return mCounts[group];
+        }
+
+        public double getSum(int group) {
+            return mSums[group];
+        }
+
+        public double getMin(int group) {
+            return mMins[group];
+        }
+
+        public double getMax(int group) {
+            return mMaxs[group];
+        }
+
+        public double getMean(int group) {
+            return mSums[group] / mCounts[group];
+        }
+
+        /**
+         * @return the group of {@code key}, or -1 if the key did not occur. This is a linear
+         * search over the groups.
+         */
+        public int indexOf(long key) {
+            for (int i = 0; i < mSize; i++) {
+                if (mKeys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * groups the rows by the int or long {@code keyColumn} and aggregates the numeric
+     * {@code valueColumn} per group.
+     */
+    public static Groups groupBy(ArrayTable table, int keyColumn, int valueColumn) {
+        return groupBy(table, keyColumn, valueColumn, null);
+    }
+
+    /**
+     * like {@link #groupBy(ArrayTable, int, int)} but only over the rows in {@code selection}.
+     * A null selection selects all rows.
+     */
+    public static Groups groupBy(ArrayTable table, int keyColumn, int valueColumn, BitSet selection) {
+        final Class<?> keyType = table.getColumnType(keyColumn);
+        checkArgument(keyType == int.class || keyType == long.class, "key column is not an int or long column");
+        final Class<?> valueType = table.getColumnType(valueColumn);
+        checkNumeric(valueType);
+
+        final int n = table.rows();
+        final int[] groupOf = new int[n];
+        final int size = assignGroups(table, keyColumn, selection, groupOf);
+
+        final long[] keys = new long[size];
+        final int[] counts = new int[size];
+        final double[] sums = new double[size];
+        final double[] mins = new double[size];
+        final double[] maxs = new double[size];
+        Arrays.fill(mins, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+
+        final Object keyArray = table.columnArray(keyColumn);
+        for (int i = 0; i < n; i++) {
+            final int g = groupOf[i];
+            if (g >= 0 && counts[g]++ == 0) {
+                keys[g] = keyType == int.class ? ((int[]) keyArray)[i] : ((long[]) keyArray)[i];
+            }
+        }
+
+        final Object valueArray = table.columnArray(valueColumn);
+        if (valueType == int.class) {
+            final int[] a = (int[]) valueArray;
+            for (int i = 0; i < n; i++) {
+                final int g = groupOf[i];
+                if (g >= 0) {
+                    accumulate(g, a[i], sums, mins, maxs);
+                }
+            }
+        } else if (valueType == long.class) {
+            final long[] a = (long[]) valueArray;
+            for (int i = 0; i < n; i++) {
+                final int g = groupOf[i];
+                if (g >= 0) {
+                    accumulate(g, a[i], sums, mins, maxs);
+                }
+            }
+        } else if (valueType == float.class) {
+            final float[] a = (float[]) valueArray;
+            for (int i = 0; i < n; i++) {
+                final int g = groupOf[i];
+                if (g >= 0) {
+                    accumulate(g, a[i], sums, mins, maxs);
+                }
+            }
+        } else {
+            final double[] a = (double[]) valueArray;
+            for (int i = 0; i < n; i++) {
+                final int g = groupOf[i];
+                if (g >= 0) {
+                    accumulate(g, a[i], sums, mins, maxs);
+                }
+            }
+        }
+
+        return new Groups(size, keys, counts, sums, mins, maxs);
+    }
+
+    private static void accumulate(int g, double v, double[] sums, double[] mins, double[] maxs) {
+        sums[g] += v;
+        if (v < mins[g]) {
+            mins[g] = v;
+        }
+        if (v > maxs[g]) {
+            maxs[g] = v;
+        }
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    /**
+     * sets {@code groupOf[row]} to the group number of each selected row's key, -1 for
+     * rows that are not selected.
+     *
+     * @return the number of groups
+     */
+    private static int assignGroups(ArrayTable table, int keyColumn, BitSet selection, int[] groupOf) {
+        final int n = table.rows();
+        final Object keyArray = table.columnArray(keyColumn);
+        final int[] intKeys = keyArray instanceof int[] ? (int[]) keyArray : null;
+        final long[] longKeys = keyArray instanceof long[] ? (long[]) keyArray : null;
+
+        // open addressing from key to group number, grown at half load
+        int[] slots = new int[16];
+        long[] slotKeys = new long[16];
+        Arrays.fill(slots, -1);
+        int mask = slots.length - 1;
+        int size = 0;
+
+        for (int i = 0; i < n; i++) {
+            if (selection != null && !selection.get(i)) {
+                groupOf[i] = -1;
+                continue;
+            }
+
+            final long key = intKeys != null ? intKeys[i] : longKeys[i];
+            int slot = hash(key) & mask;
+            while (slots[slot] >= 0 && slotKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (slots[slot] < 0) {
+                slots[slot] = size++;
+                slotKeys[slot] = key;
+
+                if (size * 2 > slots.length) {
+                    int[] newSlots = new int[slots.length * 2];
+                    long[] newSlotKeys = new long[slots.length * 2];
+                    Arrays.fill(newSlots, -1);
+                    final int newMask = newSlots.length - 1;
+                    for (int s = 0; s < slots.length; s++) {
+                        if (slots[s] >= 0) {
+                            int t = hash(slotKeys[s]) & newMask;
+                            while (newSlots[t] >= 0) {
+                                t = (t + 1) & newMask;
+                            }
+                            newSlots[t] = slots[s];
+                            newSlotKeys[t] = slotKeys[s];
+                        }
+                    }
+                    slots = newSlots;
+                    slotKeys = newSlotKeys;
+                    mask = newMask;
+                    groupOf[i] = size - 1;
+                    continue;
+                }
+            }
+            groupOf[i] = slots[slot];
+        }
+        return size;
+    }
+}
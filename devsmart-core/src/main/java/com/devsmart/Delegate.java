@@ -1,13 +1,40 @@
 package com.devsmart;
 
+import com.google.common.collect.MapMaker;
+import com.google.common.primitives.Primitives;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 
+/**
+ * A set of listeners of type {@code C}, with ways to call a method on all of them:
+ * <ul>
+ *     <li>{@link #dispatch(Dispatcher)} calls the listeners directly and is the fastest</li>
+ *     <li>{@link #createInvoker()} returns a {@code C} that forwards every call to all
+ *     listeners</li>
+ *     <li>{@link #emitter(String, Class[])} returns an {@link Emitter} for one method, to be
+ *     called with an argument array</li>
+ *     <li>{@link #emit(String, Object...)} looks the method up by name</li>
+ * </ul>
+ * By default listeners are called on the emitting thread, one after another. After
+ * {@link #setAsync(TaskQueue.Builder)} every listener instead gets its own
+ * {@link TaskQueue}: events are queued and the listener is called on the queue's executor,
+ * in order, so a slow listener no longer holds up the emitting thread or the other
+ * listeners.
+ */
 public class Delegate<C> {
 
     public interface RegisterCallback<Q> {
@@ -15,14 +42,69 @@ public class Delegate<C> {
         void onLastListener(Q callback);
     }
 
+    /**
+     * calls the event method on one listener, for {@link #dispatch(Dispatcher)}
+     */
+    public interface Dispatcher<Q> {
+        void dispatch(Q listener);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(Delegate.class);
+
+    private static final Object[] NO_ARGS = new Object[0];
+
     private final Class<C> mClassType;
     public RegisterCallback mOnRegisterCallback;
 
+    /**
+     * the interface methods called through the invoker, made accessible once so that
+     * listener interfaces need not be public and calls skip the access check
+     */
+    private final ConcurrentMap<Method, Method> mInvokerMethods = new ConcurrentHashMap<Method, Method>();
+
+    /**
+     * a public method of a listener class, with its parameter types read once
+     */
+    private static final class Overload {
+        final Method method;
+        final Class<?>[] params;
+
+        /**
+         * {@link #params} with primitive types boxed, to check arguments against
+         */
+        final Class<?>[] wrapped;
+
+        Overload(Method method) {
+            this.method = method;
+            params = method.getParameterTypes();
+            wrapped = new Class<?>[params.length];
+            for(int i=0;i<params.length;i++){
+                wrapped[i] = Primitives.wrap(params[i]);
+            }
+        }
+    }
+
+    /**
+     * the public methods of each listener class by name and then by parameter count, for
+     * {@link #emit(String, Object...)}; null where there are none
+     */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<String, Overload[][]>> mEmitMethods = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, Overload[][]>>();
+
+    private volatile TaskQueue.Builder mAsync;
+    private volatile boolean mCoalesce;
+
+    /**
+     * the delivery queue of each listener in async mode, created on its first event. Weakly
+     * keyed so that it does not hold on to weak listeners. Keys are compared by identity, so
+     * lookups use the instance held by {@link #mCallbacks}, never an equal one.
+     */
+    private final ConcurrentMap<C, TaskQueue> mQueues = new MapMaker().weakKeys().makeMap();
+
     public Delegate(Class<C> classType) {
         mClassType = classType;
     }
 
-    private CopyOnWriteArraySet<C> mCallbacks = new CopyOnWriteArraySet<C>();
+    private final ListenerRegistry<C> mCallbacks = new ListenerRegistry<C>();
 
     public void registerCallback(C callback) {
         if(mOnRegisterCallback != null && mCallbacks.isEmpty()){
@@ -31,8 +113,24 @@ public class Delegate<C> {
         mCallbacks.add(callback);
     }
 
+    /**
+     * registers {@code callback} without keeping it from being garbage collected; once it is
+     * collected it gets no more events. {@link RegisterCallback#onLastListener(Object)} is
+     * not called for collected listeners.
+     */
+    public void registerWeakCallback(C callback) {
+        if(mOnRegisterCallback != null && mCallbacks.isEmpty()){
+            mOnRegisterCallback.onFirstListener(callback);
+        }
+        mCallbacks.addWeak(callback);
+    }
+
     public void unregisterCallback(C callback) {
-        mCallbacks.remove(callback);
+        C registered = mCallbacks.removeRegistered(callback);
+        TaskQueue queue = registered != null ? mQueues.remove(registered) : null;
+        if(queue != null) {
+            queue.shutdownNow();
+        }
         if(mOnRegisterCallback != null && mCallbacks.isEmpty()) {
             mOnRegisterCallback.onLastListener(callback);
         }
@@ -40,34 +138,414 @@ public class Delegate<C> {
 
     public void unregisterAllCallbacks() {
         mCallbacks.clear();
+        shutdownQueues(true);
+    }
+
+    /**
+     * Switches to asynchronous delivery: each listener gets a queue built by
+     * {@code queueBuilder}, whose executor calls the listener. The builder's
+     * {@link TaskQueue.Builder#batch(int, long, java.util.concurrent.TimeUnit) batch} limits set how many events a
+     * listener handles per executor submission, and its
+     * {@link TaskQueue.Builder#capacity(int, TaskQueue.OverflowPolicy) capacity} bounds the
+     * events waiting for each listener. An event a full queue rejects is dropped for that
+     * listener and counted by its queue; it is not reported to the emitting thread.
+     * <p>
+     * In async mode, exceptions thrown by listeners are logged, and invoker methods with a
+     * return value return their zero value without waiting for the listeners. The builder
+     * must not be changed afterwards.
+     *
+     * @param queueBuilder null to go back to calling listeners on the emitting thread;
+     *                     events already queued are still delivered
+     */
+    public void setAsync(TaskQueue.Builder queueBuilder) {
+        mAsync = queueBuilder;
+        shutdownQueues(false);
+    }
+
+    /**
+     * asynchronous delivery on {@code executor}, for example {@link ThreadUtils#CPUThreads},
+     * with unbounded queues
+     */
+    public void setAsync(Executor executor) {
+        setAsync(new TaskQueue.Builder(executor));
+    }
+
+    public boolean isAsync() {
+        return mAsync != null;
+    }
+
+    /**
+     * In async mode, whether a burst of events is coalesced: an event replaces the one for
+     * the same method that is still waiting for a listener, so a listener that falls behind
+     * only sees the latest. Events sent with {@link #dispatch(Dispatcher)} are matched by the
+     * dispatcher's class.
+     */
+    public void setCoalescing(boolean coalesce) {
+        mCoalesce = coalesce;
     }
 
+    /**
+     * @return the queue that delivers events to {@code listener} in async mode, for its
+     * statistics, or null if it has none
+     */
+    public TaskQueue getDeliveryQueue(C listener) {
+        C registered = mCallbacks.getRegistered(listener);
+        return registered != null ? mQueues.get(registered) : null;
+    }
+
+    private void shutdownQueues(boolean discard) {
+        for(C cb : mQueues.keySet()) {
+            TaskQueue queue = mQueues.remove(cb);
+            if(queue != null && discard) {
+                queue.shutdownNow();
+            } else if(queue != null) {
+                queue.shutdown();
+            }
+        }
+    }
+
+    private TaskQueue queueFor(TaskQueue.Builder builder, C cb) {
+        TaskQueue retval = mQueues.get(cb);
+        if(retval == null) {
+            retval = builder.build();
+            TaskQueue existing = mQueues.putIfAbsent(cb, retval);
+            if(existing != null) {
+                retval = existing;
+            } else if(!mCallbacks.contains(cb)) {
+                // unregistered while this event was being sent
+                mQueues.remove(cb, retval);
+                retval.shutdownNow();
+            }
+        }
+        return retval;
+    }
+
+    private void deliver(TaskQueue.Builder builder, C cb, Object key, Runnable event) {
+        TaskQueue queue = queueFor(builder, cb);
+        try {
+            if(mCoalesce) {
+                queue.executeCoalesced(key, event);
+            } else {
+                queue.execute(event);
+            }
+        } catch (RejectedExecutionException e) {
+            logger.debug("event for {} dropped: {}", cb, e.getMessage());
+        }
+    }
+
+    /**
+     * an event sent through the invoker, an {@link Emitter} or {@link #emit(String, Object...)}
+     * in async mode
+     */
+    private static final class MethodEvent implements Runnable {
+        private final Object mListener;
+        private final Method mMethod;
+        private final Object[] mArgs;
+
+        MethodEvent(Object listener, Method method, Object[] args) {
+            mListener = listener;
+            mMethod = method;
+            mArgs = args;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mMethod.invoke(mListener, mArgs);
+            } catch (InvocationTargetException e) {
+                logger.error("{} threw in {}", mListener, mMethod.getName(), e.getCause());
+            } catch (IllegalAccessException e) {
+                logger.error("", e);
+            }
+        }
+    }
+
+    /**
+     * calls {@code dispatcher} with every listener. Unlike the invoker this needs no
+     * reflection:
+     * <pre>
+     *     delegate.dispatch(new Delegate.Dispatcher&lt;Listener&gt;() {
+     *         public void dispatch(Listener listener) {
+     *             listener.onEvent(value);
+     *         }
+     *     });
+     * </pre>
+     */
+    public void dispatch(final Dispatcher<? super C> dispatcher) {
+        final TaskQueue.Builder async = mAsync;
+        for(final C cb : mCallbacks){
+            if(async == null) {
+                dispatcher.dispatch(cb);
+            } else {
+                deliver(async, cb, dispatcher.getClass(), new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatcher.dispatch(cb);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * calls the public method {@code methodName} of every listener with {@code args}. The
+     * method is picked by name and argument count; a {@code null} argument matches any
+     * non-primitive parameter and a boxed argument matches its primitive parameter. The
+     * methods of each listener class are looked up once and cached. To emit the same event
+     * often, prefer an {@link #emitter(String, Class[])}.
+     *
+     * @throws NoSuchMethodException if a listener has no method that takes {@code args}
+     */
     public void emit(String methodName, Object... args) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-        Class<?>[] params = new Class<?>[args.length];
-        for(int i=0;i<args.length;i++){
-            params[i] = args[i].getClass();
+        if(args == null) {
+            args = NO_ARGS;
         }
+        final TaskQueue.Builder async = mAsync;
+        if(async != null) {
+            args = args.clone();
+        }
+        for(C cb : mCallbacks){
+            Method method = findMethod(cb.getClass(), methodName, args);
+            if(async == null) {
+                method.invoke(cb, args);
+            } else {
+                deliver(async, cb, method, new MethodEvent(cb, method, args));
+            }
+        }
+    }
+
+    /**
+     * A precompiled {@link #emit(String, Object...)}: the method is resolved once, against
+     * the listener interface, and every {@link #emit(Object...)} calls it on the listeners
+     * registered at that time.
+     */
+    public static final class Emitter<C> {
+        private final Delegate<C> mDelegate;
+        private final Method mMethod;
+        private final int mArity;
+
+        private Emitter(Delegate<C> delegate, Method method) {
+            mDelegate = delegate;
+            mMethod = method;
+            mArity = method.getParameterTypes().length;
+        }
+
+        public Method getMethod() {
+            return mMethod;
+        }
+
+        /**
+         * @throws IllegalArgumentException if {@code args} do not fit the method's parameters
+         * @throws InvocationTargetException if a listener threw; the remaining listeners are
+         * not called
+         */
+        public void emit(Object... args) throws InvocationTargetException {
+            if(args == null) {
+                args = NO_ARGS;
+            }
+            checkArgument(args.length == mArity, "%s takes %s arguments, got %s", mMethod.getName(), mArity, args.length);
+            final TaskQueue.Builder async = mDelegate.mAsync;
+            if(async != null) {
+                mDelegate.deliverAll(async, mMethod, args.clone());
+                return;
+            }
+            try {
+                for(C cb : mDelegate.mCallbacks){
+                    mMethod.invoke(cb, args);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * @return an {@link Emitter} for the method of the listener interface with the given
+     * name and parameter types
+     * @throws NoSuchMethodException if the listener interface has no such method
+     */
+    public Emitter<C> emitter(String methodName, Class<?>... paramTypes) throws NoSuchMethodException {
+        return new Emitter<C>(this, invokerMethod(mClassType.getMethod(methodName, paramTypes)));
+    }
 
+    private void deliverAll(TaskQueue.Builder async, Method method, Object[] args) {
         for(C cb : mCallbacks){
-            Method method = cb.getClass().getMethod(methodName, params);
-            method.invoke(cb, args);
+            deliver(async, cb, method, new MethodEvent(cb, method, args));
         }
     }
 
+    /**
+     * resolves the method {@code methodName} of {@code type} for {@code args}. Methods are
+     * looked up once per class and name; when only one has as many parameters as there are
+     * arguments, it is the answer as long as the arguments fit, and only overloads of the
+     * same arity are compared against each other.
+     */
+    private Method findMethod(Class<?> type, String methodName, Object[] args) throws NoSuchMethodException {
+        ConcurrentMap<String, Overload[][]> methods = mEmitMethods.get(type);
+        if(methods == null) {
+            methods = new ConcurrentHashMap<String, Overload[][]>();
+            ConcurrentMap<String, Overload[][]> existing = mEmitMethods.putIfAbsent(type, methods);
+            if(existing != null) {
+                methods = existing;
+            }
+        }
+
+        Overload[][] byArity = methods.get(methodName);
+        if(byArity == null) {
+            byArity = overloads(type, methodName);
+            methods.put(methodName, byArity);
+        }
+
+        Overload retval = null;
+        if(args.length < byArity.length && byArity[args.length] != null) {
+            final Overload[] candidates = byArity[args.length];
+            if(candidates.length == 1) {
+                retval = accepts(candidates[0], args) ? candidates[0] : null;
+            } else {
+                for(Overload m : candidates) {
+                    if(accepts(m, args) && (retval == null || moreSpecific(m.params, retval.params))) {
+                        retval = m;
+                    }
+                }
+            }
+        }
+        if(retval == null) {
+            throw new NoSuchMethodException(type.getName() + "." + methodName + " taking " + args.length + " matching arguments");
+        }
+        return retval.method;
+    }
+
+    private static Overload[][] overloads(Class<?> type, String methodName) {
+        ArrayList<Overload> found = new ArrayList<Overload>();
+        int maxArity = -1;
+        for(Method m : type.getMethods()) {
+            if(m.getName().equals(methodName)) {
+                try {
+                    // the listener class itself need not be public
+                    m.setAccessible(true);
+                } catch (SecurityException e) {
+                }
+                Overload overload = new Overload(m);
+                maxArity = Math.max(maxArity, overload.params.length);
+                found.add(overload);
+            }
+        }
+
+        Overload[][] retval = new Overload[maxArity + 1][];
+        for(Overload overload : found) {
+            Overload[] same = retval[overload.params.length];
+            if(same == null) {
+                same = new Overload[1];
+            } else {
+                same = Arrays.copyOf(same, same.length + 1);
+            }
+            same[same.length - 1] = overload;
+            retval[overload.params.length] = same;
+        }
+        return retval;
+    }
+
+    private static boolean accepts(Overload overload, Object[] args) {
+        for(int i=0;i<args.length;i++){
+            if(args[i] == null) {
+                if(overload.params[i].isPrimitive()) {
+                    return false;
+                }
+            } else if(!overload.wrapped[i].isInstance(args[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean moreSpecific(Class<?>[] a, Class<?>[] b) {
+        for(int i=0;i<a.length;i++){
+            if(!b[i].isAssignableFrom(a[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Method invokerMethod(Method method) {
+        Method retval = mInvokerMethods.get(method);
+        if (retval == null) {
+            try {
+                // a copy, so the Method shared by the proxy class is left alone
+                retval = method.getDeclaringClass().getMethod(method.getName(), method.getParameterTypes());
+                retval.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                retval = method;
+            } catch (SecurityException e) {
+                retval = method;
+            }
+            mInvokerMethods.put(method, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns a {@code C} that calls the same method with the same arguments on every
+     * listener. Methods declared by {@link Object} are not forwarded: they act on the
+     * invoker itself. Return values of listener methods are ignored; methods with a
+     * primitive return type return its zero value.
+     */
     public C createInvoker() {
         return (C) Proxy.newProxyInstance(mClassType.getClassLoader(), new Class[]{mClassType}, new InvocationHandler() {
             @Override
             public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                for(C cb : mCallbacks){
-                    for(Method cm : cb.getClass().getMethods()){
-                        if(cm.getName().equals(method.getName()) && Arrays.equals(cm.getParameterTypes(), method.getParameterTypes())){
-                            method.invoke(cb, args);
-                            break;
-                        }
+                if (method.getDeclaringClass() == Object.class) {
+                    return invokeObjectMethod(proxy, method, args);
+                }
+
+                final Method target = invokerMethod(method);
+                final TaskQueue.Builder async = mAsync;
+                if (async != null) {
+                    deliverAll(async, target, args == null ? NO_ARGS : args);
+                    return defaultValue(method.getReturnType());
+                }
+                try {
+                    for(C cb : mCallbacks){
+                        target.invoke(cb, args);
                     }
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
                 }
-                return null;
+                return defaultValue(method.getReturnType());
             }
         });
     }
-}
\ No newline at end of file
+
+    private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        final String name = method.getName();
+        if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else {
+            return mClassType.getName() + " invoker@" + Integer.toHexString(System.identityHashCode(proxy));
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == char.class) {
+            return (char) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        } else {
+            return 0d;
+        }
+    }
+}
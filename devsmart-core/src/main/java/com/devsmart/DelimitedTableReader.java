@@ -0,0 +1,589 @@
+package com.devsmart;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Streaming parser for delimited text (CSV, TSV, ...) that writes fields straight into the
+ * typed columns of an {@link ArrayTable}. Input is read through a fixed byte buffer and
+ * numeric and boolean fields are parsed from the raw bytes, so no {@code String} is created
+ * for them. Input must be UTF-8 or another ASCII compatible encoding.
+ * <p>
+ * Files larger than memory are processed in chunks by reusing one table:
+ * <pre>
+ *     DelimitedTableReader reader = new DelimitedTableReader(in, ',', long.class, double.class);
+ *     reader.readHeader();
+ *     ArrayTable chunk = ArrayTable.createWithColumnTypes(100000, long.class, double.class);
+ *     while (reader.read(chunk, 100000) > 0) {
+ *         process(chunk);
+ *         chunk.clear();
+ *     }
+ * </pre>
+ * Fields may be quoted with {@code "}, using {@code ""} for a literal quote. Empty fields
+ * are read as 0 for int and long columns, NaN for float and double columns, false for
+ * boolean columns and null for object columns. Lines end with {@code \n} or {@code \r\n}.
+ * Blank lines are skipped, except when there is only one column: then they are rows with
+ * an empty field.
+ */
+public class DelimitedTableReader implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final double[] DOUBLE_POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final float[] FLOAT_POW10 = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    private final InputStream mInput;
+    private final byte mDelimiter;
+    private final Class<?>[] mColumnTypes;
+
+    private byte[] mBuffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
+    private int mPos;
+    private int mLimit;
+    private boolean mEOF;
+
+    /**
+     * the number of lines before the current record
+     */
+    private long mLine;
+
+    /**
+     * the number of lines the current record spans, more than one if a quoted field holds
+     * line breaks
+     */
+    private int mRecordLines;
+
+    /**
+     * set after a malformed line, whose end is not known yet, to skip the rest of it
+     */
+    private boolean mSkipLine;
+
+    private int mFields;
+    private int[] mFieldStart = new int[16];
+    private int[] mFieldEnd = new int[16];
+    private boolean[] mFieldQuoted = new boolean[16];
+    private int mRecordEnd;
+
+    // result of scanDecimal()
+    private long mMantissa;
+    private int mExponent;
+    private boolean mNegative;
+
+    public DelimitedTableReader(InputStream in, char delimiter, Class<?>... columnTypes) {
+        checkArgument(delimiter < 0x80 && delimiter != '"' && delimiter != '\n' && delimiter != '\r',
+                "invalid delimiter");
+        mInput = in;
+        mDelimiter = (byte) delimiter;
+        mColumnTypes = new Class<?>[columnTypes.length];
+        for (int i = 0; i < columnTypes.length; i++) {
+            mColumnTypes[i] = ArrayTable.collateColumnTypes(columnTypes[i]);
+        }
+    }
+
+    /**
+     * reads the entire input into a new table.
+     *
+     * @param hasHeader if true the first line is used as column names
+     */
+    public static ArrayTable readAll(InputStream in, char delimiter, boolean hasHeader,
+                                     Class<?>... columnTypes) throws IOException {
+        DelimitedTableReader reader = new DelimitedTableReader(in, delimiter, columnTypes);
+        try {
+            ArrayTable retval = ArrayTable.createWithColumnTypes(columnTypes);
+            if (hasHeader) {
+                String[] names = reader.readHeader();
+                for (int i = 0; i < names.length && i < columnTypes.length; i++) {
+                    retval.setColumnName(i, names[i]);
+                }
+            }
+            while (reader.read(retval, Integer.MAX_VALUE) > 0) {
+            }
+            return retval;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * reads one line as strings. Typically used to consume a header line.
+     *
+     * @return the fields of the line or null at the end of the input
+     */
+    public String[] readHeader() throws IOException {
+        if (!nextRecord()) {
+            return null;
+        }
+        String[] retval = new String[mFields];
+        for (int i = 0; i < mFields; i++) {
+            retval[i] = fieldString(i);
+        }
+        consumeRecord();
+        return retval;
+    }
+
+    /**
+     * appends up to {@code maxRows} lines to the bottom of {@code table}, whose column
+     * types must match the types given to the constructor.
+     *
+     * @return the number of rows added, 0 at the end of the input
+     * @throws IOException if a line is malformed. The rows before it have been added, and the
+     *                     line itself is skipped, so the next call continues after it.
+     */
+    public int read(ArrayTable table, int maxRows) throws IOException {
+        checkArgument(table.columns() == mColumnTypes.length, "table does not have %s columns",
+                mColumnTypes.length);
+
+        int count = 0;
+        while (count < maxRows && nextRecord()) {
+            if (mFields != mColumnTypes.length) {
+                IOException e = error("expected " + mColumnTypes.length + " fields but found " + mFields);
+                consumeRecord();
+                throw e;
+            }
+
+            final int row = table.appendRow();
+            try {
+                for (int i = 0; i < mFields; i++) {
+                    final Class<?> type = mColumnTypes[i];
+                    if (type == int.class) {
+                        table.setInt(row, i, (int) parseLong(i, Integer.MIN_VALUE, Integer.MAX_VALUE));
+                    } else if (type == long.class) {
+                        table.setLong(row, i, parseLong(i, Long.MIN_VALUE, Long.MAX_VALUE));
+                    } else if (type == float.class) {
+                        table.setFloat(row, i, parseFloat(i));
+                    } else if (type == double.class) {
+                        table.setDouble(row, i, parseDouble(i));
+                    } else if (type == boolean.class) {
+                        table.setBoolean(row, i, parseBoolean(i));
+                    } else {
+                        table.setObject(row, i, mFieldEnd[i] > mFieldStart[i] || mFieldQuoted[i] ? fieldString(i) : null);
+                    }
+                }
+            } catch (IOException e) {
+                table.deleteRow(row);
+                consumeRecord();
+                throw e;
+            }
+            consumeRecord();
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    /**
+     * @return an error for the current record, reported at the line it starts on
+     */
+    private IOException error(String message) {
+        return new IOException("line " + (mLine + 1) + ": " + message);
+    }
+
+    private void consumeRecord() {
+        mPos = mRecordEnd;
+        mLine += mRecordLines;
+    }
+
+    /**
+     * skips past the end of the current line, reading more input as needed
+     */
+    private void skipLine() throws IOException {
+        while (true) {
+            for (int p = mPos; p < mLimit; p++) {
+                if (mBuffer[p] == '\n') {
+                    mPos = p + 1;
+                    mLine++;
+                    mSkipLine = false;
+                    return;
+                }
+            }
+            mPos = mLimit;
+            if (mEOF) {
+                mSkipLine = false;
+                return;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * locates the fields of the next line, reading more input as needed.
+     *
+     * @return false at the end of the input
+     */
+    private boolean nextRecord() throws IOException {
+        if (mSkipLine) {
+            skipLine();
+        }
+        boolean terminated = false;
+        while (true) {
+            if (mPos == mLimit && mEOF) {
+                return false;
+            }
+            if (scanRecord()) {
+                if (mFields == 1 && mFieldEnd[0] == mFieldStart[0] && !mFieldQuoted[0] && mColumnTypes.length != 1) {
+                    // skip blank lines. With one column they are rows with an empty field,
+                    // which is how the writer writes null
+                    consumeRecord();
+                    continue;
+                }
+                return true;
+            }
+            if (mEOF) {
+                if (terminated) {
+                    IOException e = error("unterminated quoted field");
+                    // the field runs to the end of the input
+                    mPos = mLimit;
+                    throw e;
+                }
+                // last line without a line terminator
+                mLimit = terminateInput();
+                terminated = true;
+                continue;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * appends a line terminator after the last line of the input.
+     */
+    private int terminateInput() {
+        if (mLimit == mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, mBuffer.length + 1);
+        }
+        mBuffer[mLimit] = '\n';
+        return mLimit + 1;
+    }
+
+    /**
+     * moves the unparsed bytes to the front of the buffer and reads more input, growing
+     * the buffer if a single line does not fit.
+     */
+    private void fill() throws IOException {
+        final int remaining = mLimit - mPos;
+        if (mPos > 0) {
+            System.arraycopy(mBuffer, mPos, mBuffer, 0, remaining);
+        } else if (remaining == mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+        }
+        mPos = 0;
+        mLimit = remaining;
+
+        int bytesRead = mInput.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if (bytesRead < 0) {
+            mEOF = true;
+        } else {
+            mLimit += bytesRead;
+        }
+    }
+
+    /**
+     * @return false if the buffer does not hold a complete line
+     */
+    private boolean scanRecord() throws IOException {
+        final byte[] buf = mBuffer;
+        final int limit = mLimit;
+        int p = mPos;
+        int field = 0;
+        int lineBreaks = 0;
+
+        while (true) {
+            if (field == mFieldStart.length) {
+                mFieldStart = Arrays.copyOf(mFieldStart, field * 2);
+                mFieldEnd = Arrays.copyOf(mFieldEnd, field * 2);
+                mFieldQuoted = Arrays.copyOf(mFieldQuoted, field * 2);
+            }
+
+            if (p < limit && buf[p] == '"') {
+                mFieldQuoted[field] = true;
+                mFieldStart[field] = ++p;
+                while (true) {
+                    if (p >= limit) {
+                        return false;
+                    }
+                    if (buf[p] == '"') {
+                        if (p + 1 >= limit) {
+                            return false;
+                        }
+                        if (buf[p + 1] != '"') {
+                            break;
+                        }
+                        p++;
+                    } else if (buf[p] == '\n') {
+                        lineBreaks++;
+                    }
+                    p++;
+                }
+                mFieldEnd[field] = p++;
+                if (p < limit && buf[p] != mDelimiter && buf[p] != '\n' && buf[p] != '\r') {
+                    IOException e = error("unexpected character after closing quote");
+                    // the next read starts after the rest of this line
+                    mLine += lineBreaks;
+                    mPos = p;
+                    mSkipLine = true;
+                    throw e;
+                }
+            } else {
+                mFieldQuoted[field] = false;
+                mFieldStart[field] = p;
+                while (p < limit && buf[p] != mDelimiter && buf[p] != '\n') {
+                    p++;
+                }
+                int end = p;
+                if (end > mFieldStart[field] && buf[end - 1] == '\r' && (p == limit || buf[p] == '\n')) {
+                    end--;
+                }
+                mFieldEnd[field] = end;
+            }
+
+            if (p >= limit) {
+                return false;
+            }
+            field++;
+
+            if (buf[p] == '\r') {
+                p++;
+                if (p >= limit) {
+                    return false;
+                }
+            }
+            if (buf[p] == '\n') {
+                mFields = field;
+                mRecordEnd = p + 1;
+                mRecordLines = lineBreaks + 1;
+                return true;
+            }
+            // delimiter
+            p++;
+        }
+    }
+
+    private String fieldString(int field) {
+        final int start = mFieldStart[field];
+        final int end = mFieldEnd[field];
+        if (!mFieldQuoted[field]) {
+            return new String(mBuffer, start, end - start, UTF8);
+        }
+
+        // collapse "" into "
+        byte[] unquoted = new byte[end - start];
+        int len = 0;
+        for (int i = start; i < end; i++) {
+            unquoted[len++] = mBuffer[i];
+            if (mBuffer[i] == '"') {
+                i++;
+            }
+        }
+        return new String(unquoted, 0, len, UTF8);
+    }
+
+    private int trimStart(int field) {
+        int s = mFieldStart[field];
+        final int e = mFieldEnd[field];
+        while (s < e && mBuffer[s] == ' ') {
+            s++;
+        }
+        return s;
+    }
+
+    private int trimEnd(int field, int s) {
+        int e = mFieldEnd[field];
+        while (e > s && mBuffer[e - 1] == ' ') {
+            e--;
+        }
+        return e;
+    }
+
+    private long parseLong(int field, long min, long max) throws IOException {
+        final byte[] b = mBuffer;
+        final int s = trimStart(field);
+        final int e = trimEnd(field, s);
+        if (s == e) {
+            return 0;
+        }
+
+        int i = s;
+        boolean negative = false;
+        if (b[i] == '-') {
+            negative = true;
+            i++;
+        } else if (b[i] == '+') {
+            i++;
+        }
+        if (i == e) {
+            throw numberError(field);
+        }
+
+        // accumulate negatively like Long.parseLong so that Long.MIN_VALUE fits
+        final long limit = negative ? min : -max;
+        final long multmin = limit / 10;
+        long result = 0;
+        for (; i < e; i++) {
+            final int digit = b[i] - '0';
+            if (digit < 0 || digit > 9 || result < multmin) {
+                throw numberError(field);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw numberError(field);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private boolean parseBoolean(int field) throws IOException {
+        final int s = trimStart(field);
+        final int e = trimEnd(field, s);
+        final int len = e - s;
+        if (len == 0 || len == 1 && mBuffer[s] == '0' || matches(s, e, "false")) {
+            return false;
+        } else if (len == 1 && mBuffer[s] == '1' || matches(s, e, "true")) {
+            return true;
+        }
+        throw error("invalid boolean '" + new String(mBuffer, s, len, UTF8) + "'");
+    }
+
+    private boolean matches(int s, int e, String lowercase) {
+        if (e - s != lowercase.length()) {
+            return false;
+        }
+        for (int i = s; i < e; i++) {
+            if ((mBuffer[i] | 0x20) != lowercase.charAt(i - s)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IOException numberError(int field) {
+        return error("invalid number '" + fieldString(field) + "'");
+    }
+
+    /**
+     * parses {@code [+-]digits[.digits][(e|E)[+-]digits]} into {@link #mMantissa} and
+     * {@link #mExponent}.
+     *
+     * @return false if the text is not in that form or has more than 18 significant digits
+     */
+    private boolean scanDecimal(int s, int e) {
+        final byte[] b = mBuffer;
+        int i = s;
+        mNegative = false;
+        if (i < e && (b[i] == '-' || b[i] == '+')) {
+            mNegative = b[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        int significant = 0;
+        boolean digits = false;
+        for (; i < e && b[i] >= '0' && b[i] <= '9'; i++) {
+            digits = true;
+            if (mantissa != 0 || b[i] != '0') {
+                if (++significant > 18) {
+                    return false;
+                }
+                mantissa = mantissa * 10 + (b[i] - '0');
+            }
+        }
+        if (i < e && b[i] == '.') {
+            for (i++; i < e && b[i] >= '0' && b[i] <= '9'; i++) {
+                digits = true;
+                if (mantissa != 0 || b[i] != '0') {
+                    if (++significant > 18) {
+                        return false;
+                    }
+                    mantissa = mantissa * 10 + (b[i] - '0');
+                }
+                exponent--;
+            }
+        }
+        if (!digits) {
+            return false;
+        }
+        if (i < e && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            boolean negativeExp = false;
+            if (i < e && (b[i] == '-' || b[i] == '+')) {
+                negativeExp = b[i] == '-';
+                i++;
+            }
+            if (i == e) {
+                return false;
+            }
+            int exp = 0;
+            for (; i < e && b[i] >= '0' && b[i] <= '9'; i++) {
+                if (exp > 10000) {
+                    return false;
+                }
+                exp = exp * 10 + (b[i] - '0');
+            }
+            exponent += negativeExp ? -exp : exp;
+        }
+        if (i != e) {
+            return false;
+        }
+
+        mMantissa = mantissa;
+        mExponent = exponent;
+        return true;
+    }
+
+    private double parseDouble(int field) throws IOException {
+        final int s = trimStart(field);
+        final int e = trimEnd(field, s);
+        if (s == e) {
+            return Double.NaN;
+        }
+
+        // exact when both the mantissa and the power of ten are exactly representable
+        if (scanDecimal(s, e) && mMantissa < (1L << 53)
+                && mExponent >= -22 && mExponent <= 22) {
+            double value = mExponent >= 0 ? mMantissa * DOUBLE_POW10[mExponent] : mMantissa / DOUBLE_POW10[-mExponent];
+            return mNegative ? -value : value;
+        }
+
+        try {
+            return Double.parseDouble(new String(mBuffer, s, e - s, UTF8));
+        } catch (NumberFormatException ex) {
+            throw numberError(field);
+        }
+    }
+
+    private float parseFloat(int field) throws IOException {
+        final int s = trimStart(field);
+        final int e = trimEnd(field, s);
+        if (s == e) {
+            return Float.NaN;
+        }
+
+        if (scanDecimal(s, e) && mMantissa < (1L << 24)
+                && mExponent >= -10 && mExponent <= 10) {
+            float value = mExponent >= 0 ? (float) mMantissa * FLOAT_POW10[mExponent] : (float) mMantissa / FLOAT_POW10[-mExponent];
+            return mNegative ? -value : value;
+        }
+
+        try {
+            return Float.parseFloat(new String(mBuffer, s, e - s, UTF8));
+        } catch (NumberFormatException ex) {
+            throw numberError(field);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.devsmart;
+
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Streaming writer for delimited text (CSV, TSV, ...) in UTF-8, the counterpart of
+ * {@link DelimitedTableReader}. Rows are formatted into a fixed byte buffer; int, long
+ * and boolean cells are written without creating objects. Object cells are written with
+ * {@code toString()} and quoted when needed; null cells are left empty.
+ * <p>
+ * Large tables can be written in pieces with {@link #write(ArrayTable, int, int)} or by
+ * writing successive chunks of a table that is being filled by a reader.
+ */
+public class DelimitedTableWriter implements Closeable, Flushable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] TRUE = "true".getBytes(UTF8);
+    private static final byte[] FALSE = "false".getBytes(UTF8);
+
+    /**
+     * the longest formatted long is "-9223372036854775808"
+     */
+    private static final int MAX_NUMBER_LENGTH = 32;
+
+    private final OutputStream mOutput;
+    private final byte mDelimiter;
+    private final byte[] mBuffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
+    private final StringBuilder mFormatBuilder = new StringBuilder(MAX_NUMBER_LENGTH);
+    private int mCount;
+
+    public DelimitedTableWriter(OutputStream out, char delimiter) {
+        checkArgument(delimiter < 0x80 && delimiter != '"' && delimiter != '\n' && delimiter != '\r',
+                "invalid delimiter");
+        mOutput = out;
+        mDelimiter = (byte) delimiter;
+    }
+
+    /**
+     * writes a line with the column names of {@code table}.
+     */
+    public void writeHeader(ArrayTable table) throws IOException {
+        for (int i = 0; i < table.columns(); i++) {
+            if (i > 0) {
+                writeByte(mDelimiter);
+            }
+            writeObject(table.getColumnName(i));
+        }
+        writeByte((byte) '\n');
+    }
+
+    /**
+     * writes all rows of {@code table}.
+     */
+    public void write(ArrayTable table) throws IOException {
+        write(table, 0, table.rows());
+    }
+
+    /**
+     * writes the rows {@code [fromRow, toRow)} of {@code table}.
+     */
+    public void write(ArrayTable table, int fromRow, int toRow) throws IOException {
+        checkArgument(fromRow >= 0 && fromRow <= toRow && toRow <= table.rows(), "invalid row range");
+
+        final int columns = table.columns();
+        for (int row = fromRow; row < toRow; row++) {
+            for (int i = 0; i < columns; i++) {
+                if (i > 0) {
+                    writeByte(mDelimiter);
+                }
+
+                final Class<?> type = table.getColumnType(i);
+                if (type == int.class) {
+                    writeLong(table.getInt(row, i));
+                } else if (type == long.class) {
+                    writeLong(table.getLong(row, i));
+                } else if (type == float.class) {
+                    mFormatBuilder.setLength(0);
+                    mFormatBuilder.append(table.getFloat(row, i));
+                    writeAscii(mFormatBuilder);
+                } else if (type == double.class) {
+                    mFormatBuilder.setLength(0);
+                    mFormatBuilder.append(table.getDouble(row, i));
+                    writeAscii(mFormatBuilder);
+                } else if (type == boolean.class) {
+                    writeBytes(table.getBoolean(row, i) ? TRUE : FALSE);
+                } else {
+                    writeObject(table.getObject(row, i));
+                }
+            }
+            writeByte((byte) '\n');
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        mOutput.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            mOutput.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mCount > 0) {
+            mOutput.write(mBuffer, 0, mCount);
+            mCount = 0;
+        }
+    }
+
+    private void ensureSpace(int len) throws IOException {
+        if (mBuffer.length - mCount < len) {
+            flushBuffer();
+        }
+    }
+
+    private void writeByte(byte b) throws IOException {
+        if (mCount == mBuffer.length) {
+            flushBuffer();
+        }
+        mBuffer[mCount++] = b;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > mBuffer.length) {
+            flushBuffer();
+            mOutput.write(bytes);
+            return;
+        }
+        ensureSpace(bytes.length);
+        System.arraycopy(bytes, 0, mBuffer, mCount, bytes.length);
+        mCount += bytes.length;
+    }
+
+    private void writeAscii(CharSequence str) throws IOException {
+        final int len = str.length();
+        ensureSpace(len);
+        for (int i = 0; i < len; i++) {
+            mBuffer[mCount++] = (byte) str.charAt(i);
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        ensureSpace(MAX_NUMBER_LENGTH);
+        if (value == Long.MIN_VALUE) {
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            mBuffer[mCount++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int pos = mCount + digits;
+        do {
+            mBuffer[--pos] = (byte) ('0' + (int) (value % 10));
+            value /= 10;
+        } while (value != 0);
+        mCount += digits;
+    }
+
+    private void writeObject(Object obj) throws IOException {
+        if (obj == null) {
+            return;
+        }
+
+        final String str = obj.toString();
+        boolean quote = str.isEmpty();
+        for (int i = 0; i < str.length() && !quote; i++) {
+            final char c = str.charAt(i);
+            quote = c == mDelimiter || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote) {
+            writeBytes(str.getBytes(UTF8));
+        } else {
+            writeByte((byte) '"');
+            writeBytes(str.replace("\"", "\"\"").getBytes(UTF8));
+            writeByte((byte) '"');
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.devsmart;
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Allocation and explicit release of direct {@link ByteBuffer}s. The JDK only frees direct
+ * memory once the buffer object is garbage collected; {@link #free(ByteBuffer)} releases it
+ * right away using the JDK's cleaner when one is reachable, and otherwise leaves it to GC.
+ */
+final class DirectBuffers {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectBuffers.class);
+
+    private interface Cleaner {
+        void clean(ByteBuffer buffer) throws Exception;
+    }
+
+    private static final Cleaner CLEANER = createCleaner();
+
+    private DirectBuffers() {
+    }
+
+    private static Cleaner createCleaner() {
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return new Cleaner() {
+                @Override
+                public void clean(ByteBuffer buffer) throws Exception {
+                    invokeCleaner.invoke(unsafe, buffer);
+                }
+            };
+        } catch (Exception e) {
+            // fall through
+        }
+
+        try {
+            // Java 6 - 8
+            final Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return new Cleaner() {
+                @Override
+                public void clean(ByteBuffer buffer) throws Exception {
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleanMethod.invoke(cleaner);
+                    }
+                }
+            };
+        } catch (Exception e) {
+            logger.debug("direct buffers will be released by GC only", e);
+            return null;
+        }
+    }
+
+    /**
+     * allocates a direct buffer of {@code capacity} bytes in native byte order.
+     */
+    static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * releases the memory of a direct or mapped buffer. The buffer must not be a slice or
+     * duplicate, and neither it nor any view of it may be accessed afterwards.
+     */
+    static void free(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || CLEANER == null) {
+            return;
+        }
+        try {
+            CLEANER.clean(buffer);
+        } catch (Exception e) {
+            logger.debug("could not free direct buffer", e);
+        }
+    }
+}
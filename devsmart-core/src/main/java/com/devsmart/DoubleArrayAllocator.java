@@ -1,99 +1,124 @@
 package com.devsmart;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-public class DoubleArrayAllocator {
-
-    private static final Logger logger = LoggerFactory.getLogger(DoubleArrayAllocator.class);
+/**
+ * A pool of {@code double[]} scratch arrays. {@link #alloc(int)} and {@link #free(double[])}
+ * are thread safe and do not take a global lock: arrays are kept in power-of-two size
+ * classes, each split into stripes that are mostly used by a single thread.
+ * <p>
+ * The pool holds fewer than {@code maxSize} doubles in total; arrays freed beyond that are
+ * left to the garbage collector. Freeing an array that is still in the pool is detected
+ * and ignored, see {@link #getDuplicateFrees()}.
+ */
+public class DoubleArrayAllocator implements AllocatorMXBean {
 
-    private final long mMaxSize;
-    private long mSize = 0;
-    private ArrayList<double[]> mPool = new ArrayList<double[]>();
+    private final PoolBudget mBudget;
+    private final SizeClassPool<double[]> mPool;
 
+    /**
+     * @param maxSize the maximum number of doubles held by the pool
+     */
     public DoubleArrayAllocator(long maxSize) {
-        mMaxSize = maxSize;
+        mBudget = new PoolBudget(maxSize);
+        mPool = new SizeClassPool<double[]>("double[]", mBudget, 0) {
+            @Override
+            double[] create(int length) {
+                return new double[length];
+            }
+
+            @Override
+            int lengthOf(double[] item) {
+                return item.length;
+            }
+        };
     }
 
     /**
-     * Returns an array to use that is at least {@code size} length.
+     * Returns an array to use that is at least {@code size} length. Newly created arrays
+     * are rounded up to a power of two length so they can be reused for any request of
+     * their size class.
      * @param size
      * @return
      */
-    public synchronized double[] alloc(int size) {
-        double[] retval;
-        int index = binarySearch(mPool, size);
-        if(index >= 0) {
-            retval = mPool.remove(index);
-            mSize -= retval.length;
-        } else {
-            index = -index - 1;
-            if (index < mPool.size()) {
-                retval = mPool.remove(index);
-                mSize -= retval.length;
-            } else {
-                //logger.info("allocating array {}", size);
-                retval = new double[size];
-            }
-        }
-        return retval;
+    public double[] alloc(int size) {
+        return mPool.alloc(size);
     }
 
-    public synchronized void free(double[] obj) {
-        if(mSize + obj.length < mMaxSize) {
-            int index = binarySearch(mPool, obj.length);
-            if(index >= 0 && contains(mPool, index, obj)) {
-                //be sure to not add the same obj twice
-                return;
-            }
-            index = index < 0 ? -index-1 : index;
-            mPool.add(index, obj);
-            mSize += obj.length;
-        }
-    }
-
-    private boolean contains(final List<double[]> list, int floor, double[] obj) {
-        final int top = list.size();
-        double[] a;
-        for(int i=floor;i<top && (a = list.get(i)).length == obj.length;i++) {
-            if(a == obj) {
-                return true;
-            }
-        }
-        return false;
+    public void free(double[] obj) {
+        mPool.free(obj);
+    }
+
+    @Override
+    public long getHits() {
+        return mPool.getCount(SizeClassPool.HITS);
+    }
+
+    @Override
+    public long getMisses() {
+        return mPool.getCount(SizeClassPool.MISSES);
+    }
+
+    @Override
+    public double getHitRate() {
+        final long hits = getHits();
+        final long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getOversizeAllocations() {
+        return mPool.getCount(SizeClassPool.OVERSIZE);
+    }
+
+    @Override
+    public long getOversizeBytes() {
+        return mPool.getOversizeUnits() * 8;
+    }
+
+    @Override
+    public long getRejectedFrees() {
+        return mPool.getCount(SizeClassPool.FULL);
+    }
+
+    @Override
+    public long getDuplicateFrees() {
+        return mPool.getCount(SizeClassPool.DUPLICATE);
+    }
+
+    @Override
+    public long getPooledBytes() {
+        return mBudget.getSize() * 8;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return mBudget.getMaxSize() * 8;
+    }
+
+    @Override
+    public boolean isLeakTracking() {
+        return mPool.getLeakTracker() != null;
+    }
+
+    @Override
+    public void setLeakTracking(boolean enabled) {
+        mPool.setLeakTracking(enabled);
+    }
+
+    @Override
+    public long getLeaks() {
+        LeakTracker tracker = mPool.getLeakTracker();
+        return tracker != null ? tracker.getLeaks() : 0;
     }
 
     /**
-     * deferred detection binary search algorithm. This version of binary search has
-     * the benefit that it will always return the smallest index of duplicate keys.
-     * this is useful later when we search for the same instance of arrays.
-     * @param list
-     * @param key
-     * @return
+     * @return the allocation stacks of the arrays that are currently allocated and not yet
+     * freed, or an empty list if leak tracking is off
      */
-    private static int binarySearch(final List<double[]> list, final int key) {
-        double[] obj = null;
-        int lo = 0;
-        int hi = list.size();
-
-        while(lo < hi) {
-            int mid = lo + (hi-lo)/2;
-
-            obj = list.get(mid);
-            if(obj.length < key) {
-                lo = mid + 1;
-            } else {
-                hi = mid;
-            }
-        }
-
-        if(lo == hi && lo < list.size() && list.get(lo).length == key) {
-            return lo;
-        } else {
-            return -(lo+1);
-        }
+    public List<Throwable> getOutstandingAllocations() {
+        LeakTracker tracker = mPool.getLeakTracker();
+        return tracker != null ? tracker.getOutstanding() : Collections.<Throwable>emptyList();
     }
 }
@@ -0,0 +1,65 @@
+package com.devsmart;
+
+
+/**
+ * Statistics of an {@link InstrumentedExecutorService}. Register one with
+ * {@link JmxUtils#register(Object, String, String)} to read them through JMX; the
+ * {@link ThreadUtils} pools are registered automatically when they are instrumented.
+ * Durations are in milliseconds.
+ */
+public interface ExecutorMXBean {
+
+    long getSubmittedCount();
+
+    long getCompletedCount();
+
+    /**
+     * the number of tasks that threw
+     */
+    long getFailedCount();
+
+    /**
+     * the number of tasks the executor refused
+     */
+    long getRejectedCount();
+
+    /**
+     * the number of tasks waiting for a thread, not counting delayed tasks
+     */
+    int getQueueSize();
+
+    /**
+     * the number of tasks running right now
+     */
+    int getActiveCount();
+
+    double getQueueWaitMeanMillis();
+
+    double getQueueWaitP50Millis();
+
+    double getQueueWaitP99Millis();
+
+    long getQueueWaitMaxMillis();
+
+    double getRunTimeMeanMillis();
+
+    double getRunTimeP50Millis();
+
+    double getRunTimeP99Millis();
+
+    long getRunTimeMaxMillis();
+
+    /**
+     * the number of tasks that ran longer than the slow task threshold
+     */
+    long getSlowTaskCount();
+
+    long getSlowTaskThresholdMillis();
+
+    void setSlowTaskThresholdMillis(long threshold);
+
+    /**
+     * clears the latency histograms
+     */
+    void resetLatencies();
+}
@@ -0,0 +1,39 @@
+package com.devsmart;
+
+
+import com.google.common.util.concurrent.ForwardingExecutorService;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a {@link ScheduledExecutorService} that forwards every call to {@link #delegate()}
+ */
+abstract class ForwardingScheduledExecutorService extends ForwardingExecutorService
+        implements ScheduledExecutorService {
+
+    @Override
+    protected abstract ScheduledExecutorService delegate();
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return delegate().schedule(command, delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return delegate().schedule(callable, delay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        return delegate().scheduleAtFixedRate(command, initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        return delegate().scheduleWithFixedDelay(command, initialDelay, delay, unit);
+    }
+}
@@ -0,0 +1,154 @@
+package com.devsmart;
+
+
+import java.util.Arrays;
+
+/**
+ * A hash index on an int or long column of an {@link ArrayTable}, created with
+ * {@link ArrayTable#createHashIndex(int)}. Point lookups take constant time instead of a scan
+ * of the column. The rows with a given key are listed in ascending row order:
+ * <pre>
+ *     for (int row = index.first(key); row >= 0; row = index.next(row)) {
+ *         ...
+ *     }
+ * </pre>
+ * The index uses open addressing with primitive arrays, so it holds no boxed keys. It is
+ * rebuilt on first use after rows were added, removed or moved (including {@code sort()} and
+ * {@code shuffle()}) or a cell of the indexed column was set. Writes made directly to an
+ * array passed to {@link ArrayTable#createWithColumns(Object...)} are not detected.
+ * <p>
+ * Not thread safe; lookups may rebuild the index.
+ */
+public class HashIndex {
+
+    private static final int MIN_SLOTS = 16;
+    private static final int EMPTY = -1;
+
+    private final ArrayTable mTable;
+    private final int mColumn;
+    private final boolean mIntKeys;
+    private long mVersion = -1;
+
+    private long[] mSlotKeys;
+    private int[] mSlotHeads;
+    private int mMask;
+
+    /**
+     * for every row, the next row with the same key or {@link #EMPTY}
+     */
+    private int[] mNext;
+
+    HashIndex(ArrayTable table, int column) {
+        mTable = table;
+        mColumn = column;
+        mIntKeys = table.getColumnType(column) == int.class;
+    }
+
+    public ArrayTable getTable() {
+        return mTable;
+    }
+
+    public int getColumn() {
+        return mColumn;
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private long key(int row) {
+        return mIntKeys ? mTable.getInt(row, mColumn) : mTable.getLong(row, mColumn);
+    }
+
+    private void ensureCurrent() {
+        final long version = mTable.version(mColumn);
+        if (version != mVersion) {
+            rebuild();
+            mVersion = version;
+        }
+    }
+
+    private void rebuild() {
+        final int rows = mTable.rows();
+
+        int slots = MIN_SLOTS;
+        while (slots < rows * 2L && slots < (1 << 30)) {
+            slots <<= 1;
+        }
+        if (mSlotHeads == null || mSlotHeads.length != slots) {
+            mSlotKeys = new long[slots];
+            mSlotHeads = new int[slots];
+        }
+        Arrays.fill(mSlotHeads, EMPTY);
+        mMask = slots - 1;
+
+        if (mNext == null || mNext.length < rows) {
+            mNext = new int[rows];
+        }
+
+        // insert from the last row so that every chain ends up in ascending row order
+        for (int row = rows - 1; row >= 0; row--) {
+            final long key = key(row);
+            int slot = hash(key) & mMask;
+            while (mSlotHeads[slot] != EMPTY && mSlotKeys[slot] != key) {
+                slot = (slot + 1) & mMask;
+            }
+            mSlotKeys[slot] = key;
+            mNext[row] = mSlotHeads[slot];
+            mSlotHeads[slot] = row;
+        }
+    }
+
+    /**
+     * @return the lowest row whose cell equals {@code key}, or -1 if there is none
+     */
+    public int first(long key) {
+        ensureCurrent();
+        int slot = hash(key) & mMask;
+        int head;
+        while ((head = mSlotHeads[slot]) != EMPTY) {
+            if (mSlotKeys[slot] == key) {
+                return head;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return -1;
+    }
+
+    /**
+     * @param row a row returned by {@link #first(long)} or {@link #next(int)}
+     * @return the next higher row with the same key, or -1 if there is none
+     */
+    public int next(int row) {
+        ensureCurrent();
+        return mNext[row];
+    }
+
+    public boolean contains(long key) {
+        return first(key) >= 0;
+    }
+
+    /**
+     * @return the number of rows whose cell equals {@code key}
+     */
+    public int count(long key) {
+        int retval = 0;
+        for (int row = first(key); row >= 0; row = mNext[row]) {
+            retval++;
+        }
+        return retval;
+    }
+
+    /**
+     * @return the rows whose cell equals {@code key}, in ascending order
+     */
+    public int[] find(long key) {
+        int[] retval = new int[count(key)];
+        int i = 0;
+        for (int row = first(key); row >= 0; row = mNext[row]) {
+            retval[i++] = row;
+        }
+        return retval;
+    }
+}
@@ -29,7 +29,7 @@ public class IOUtils {
     public static void pump(InputStream in, OutputStream out, int bufSize, IOProgress progress,
                             boolean autoCloseInput, boolean autoCloseOutput) throws IOException {
 
-        byte[] buffer = new byte[bufSize];
+        byte[] buffer = ArrayAllocator.getDefault().allocBytes(bufSize);
         int bytesRead;
 
         try {
@@ -40,6 +40,7 @@ public class IOUtils {
                 }
             }
         } finally {
+            ArrayAllocator.getDefault().free(buffer);
             if(autoCloseInput){
                 in.close();
             }
@@ -69,6 +70,7 @@ public class IOUtils {
         }
 
         ZipInputStream zin = new ZipInputStream(zipInputstream);
+        byte[] data = ArrayAllocator.getDefault().allocBytes(DEFAULT_BUFFER_SIZE);
         try {
             ZipEntry entry = null;
             while ((entry = zin.getNextEntry()) != null) {
@@ -82,7 +84,6 @@ public class IOUtils {
 
                     FileOutputStream fout = new FileOutputStream(newFile);
                     try {
-                        byte[] data = new byte[DEFAULT_BUFFER_SIZE];
                         int count;
                         while ((count = zin.read(data, 0, DEFAULT_BUFFER_SIZE)) != -1) {
                             fout.write(data, 0, count);
@@ -93,6 +94,7 @@ public class IOUtils {
                 }
             }
         } finally {
+            ArrayAllocator.getDefault().free(data);
             if(shouldCloseInputstream) {
                 zin.close();
             }
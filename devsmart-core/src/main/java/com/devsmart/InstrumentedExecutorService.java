@@ -0,0 +1,394 @@
+package com.devsmart;
+
+
+import com.google.common.util.concurrent.ForwardingExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps an executor to measure the tasks run on it: how many were submitted, completed,
+ * failed and rejected, how long each waited for a thread and how long it ran, and which
+ * ran longer than a threshold. Slow tasks are logged, and every task can be reported to a
+ * {@link MetricsSink}.
+ * <pre>
+ *     ExecutorService executor = new InstrumentedExecutorService("db", Executors.newFixedThreadPool(4));
+ *     JmxUtils.register(executor, "Executor", "db");
+ * </pre>
+ * Measuring costs two clock reads and a few atomic updates per task.
+ */
+public class InstrumentedExecutorService extends ForwardingExecutorService implements ExecutorMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(InstrumentedExecutorService.class);
+
+    public static final long DEFAULT_SLOW_TASK_THRESHOLD_MS = 1000;
+
+    /**
+     * receives the measurements of every task, for example to forward them to a metrics
+     * library. Called on the thread that ran the task, so implementations must be fast and
+     * thread safe.
+     */
+    public interface MetricsSink {
+
+        /**
+         * @param waitNanos the time the task waited for a thread, -1 for delayed and
+         *                  periodic tasks
+         */
+        void taskCompleted(String executor, long waitNanos, long runNanos, boolean failed);
+
+        void slowTask(String executor, Object task, long runNanos);
+    }
+
+    /**
+     * runs a task and measures it. Delayed tasks have no submit time.
+     */
+    final class TimedRunnable implements Runnable {
+        private final Runnable mTask;
+        private final boolean mDelayed;
+        private final long mSubmitTime;
+
+        TimedRunnable(Runnable task, boolean delayed) {
+            mTask = task;
+            mDelayed = delayed;
+            mSubmitTime = delayed ? 0 : System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            long wait = -1;
+            if (!mDelayed) {
+                mQueued.decrementAndGet();
+                wait = start - mSubmitTime;
+                mQueueWait.record(wait);
+            }
+            mActive.incrementAndGet();
+            boolean failed = true;
+            try {
+                mTask.run();
+                failed = failedFuture(mTask);
+            } finally {
+                mActive.decrementAndGet();
+                taskDone(mTask instanceof SubmittedTask ? ((SubmittedTask<?>) mTask).mTask : mTask,
+                        wait, System.nanoTime() - start, failed);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mTask.toString();
+        }
+    }
+
+    private final String mName;
+    private final ExecutorService mDelegate;
+    private final AtomicLong mSubmitted = new AtomicLong();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mSlowTasks = new AtomicLong();
+    private final AtomicInteger mQueued = new AtomicInteger();
+    private final AtomicInteger mActive = new AtomicInteger();
+    private final LatencyHistogram mQueueWait = new LatencyHistogram();
+    private final LatencyHistogram mRunTime = new LatencyHistogram();
+    private volatile long mSlowTaskNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_TASK_THRESHOLD_MS);
+    private volatile MetricsSink mSink;
+
+    /**
+     * @param name used in log messages and passed to the {@link MetricsSink}
+     */
+    public InstrumentedExecutorService(String name, ExecutorService delegate) {
+        mName = name;
+        mDelegate = delegate;
+    }
+
+    @Override
+    protected ExecutorService delegate() {
+        return mDelegate;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void setMetricsSink(MetricsSink sink) {
+        mSink = sink;
+    }
+
+    public void setSlowTaskThreshold(long threshold, TimeUnit unit) {
+        mSlowTaskNanos = unit.toNanos(threshold);
+    }
+
+    public LatencyHistogram getQueueWaitHistogram() {
+        return mQueueWait;
+    }
+
+    public LatencyHistogram getRunTimeHistogram() {
+        return mRunTime;
+    }
+
+    /**
+     * @return true if {@code task} is a future that completed with an exception. The
+     * exception itself is left for whoever holds the future.
+     */
+    private static boolean failedFuture(Runnable task) {
+        if (!(task instanceof Future)) {
+            return false;
+        }
+        Future<?> future = (Future<?>) task;
+        if (!future.isDone() || future.isCancelled()) {
+            return false;
+        }
+        try {
+            future.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void taskDone(Object task, long waitNanos, long runNanos, boolean failed) {
+        mRunTime.record(runNanos);
+        mCompleted.incrementAndGet();
+        if (failed) {
+            mFailed.incrementAndGet();
+        }
+
+        final MetricsSink sink = mSink;
+        if (runNanos > mSlowTaskNanos) {
+            mSlowTasks.incrementAndGet();
+            logger.warn("{}: task {} ran for {} ms", mName, task, TimeUnit.NANOSECONDS.toMillis(runNanos));
+            if (sink != null) {
+                sink.slowTask(mName, task, runNanos);
+            }
+        }
+        if (sink != null) {
+            sink.taskCompleted(mName, waitNanos, runNanos, failed);
+        }
+    }
+
+    /**
+     * wraps a task that is to be run after a delay, or periodically
+     */
+    Runnable delayed(Runnable task) {
+        mSubmitted.incrementAndGet();
+        return new TimedRunnable(task, true);
+    }
+
+    /**
+     * wraps a callable that is to be run after a delay
+     */
+    <V> Callable<V> delayed(final Callable<V> task) {
+        mSubmitted.incrementAndGet();
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                final long start = System.nanoTime();
+                mActive.incrementAndGet();
+                boolean failed = true;
+                try {
+                    V retval = task.call();
+                    failed = false;
+                    return retval;
+                } finally {
+                    mActive.decrementAndGet();
+                    taskDone(task, -1, System.nanoTime() - start, failed);
+                }
+            }
+        };
+    }
+
+    /**
+     * counts a delayed task the delegate refused
+     */
+    void rejected() {
+        mRejected.incrementAndGet();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        mSubmitted.incrementAndGet();
+        mQueued.incrementAndGet();
+        try {
+            mDelegate.execute(new TimedRunnable(command, false));
+        } catch (RejectedExecutionException e) {
+            mQueued.decrementAndGet();
+            mRejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    // submissions go through execute() so every task is measured, even if it is cancelled
+    // before it runs
+
+    /**
+     * the future of a submitted task, which remembers the task so slow tasks are reported
+     * as what was submitted
+     */
+    private static final class SubmittedTask<T> extends FutureTask<T> {
+        final Object mTask;
+
+        SubmittedTask(Callable<T> task) {
+            super(task);
+            mTask = task;
+        }
+
+        SubmittedTask(Runnable task, T result) {
+            super(task, result);
+            mTask = task;
+        }
+
+        @Override
+        public String toString() {
+            return mTask.toString();
+        }
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> retval = new SubmittedTask<T>(task);
+        execute(retval);
+        return retval;
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        FutureTask<Object> retval = new SubmittedTask<Object>(task, null);
+        execute(retval);
+        return retval;
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+        FutureTask<T> retval = new SubmittedTask<T>(task, result);
+        execute(retval);
+        return retval;
+    }
+
+    /**
+     * @return the tasks that never ran, as they were submitted. Tasks the delegate wrapped
+     * itself, such as those of a {@link java.util.concurrent.ScheduledExecutorService}, are
+     * returned as the delegate returned them.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> retval = mDelegate.shutdownNow();
+        for (int i = 0; i < retval.size(); i++) {
+            Runnable task = retval.get(i);
+            if (task instanceof TimedRunnable) {
+                TimedRunnable timed = (TimedRunnable) task;
+                if (!timed.mDelayed) {
+                    mQueued.decrementAndGet();
+                }
+                retval.set(i, timed.mTask);
+            }
+        }
+        return retval;
+    }
+
+    // invokeAll and invokeAny are forwarded as they are and not measured
+
+    @Override
+    public long getSubmittedCount() {
+        return mSubmitted.get();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return mCompleted.get();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return mFailed.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return mRejected.get();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return mQueued.get();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return mActive.get();
+    }
+
+    @Override
+    public double getQueueWaitMeanMillis() {
+        return mQueueWait.getMean(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getQueueWaitP50Millis() {
+        return mQueueWait.getPercentile(50, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getQueueWaitP99Millis() {
+        return mQueueWait.getPercentile(99, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long getQueueWaitMaxMillis() {
+        return mQueueWait.getMax(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getRunTimeMeanMillis() {
+        return mRunTime.getMean(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getRunTimeP50Millis() {
+        return mRunTime.getPercentile(50, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getRunTimeP99Millis() {
+        return mRunTime.getPercentile(99, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long getRunTimeMaxMillis() {
+        return mRunTime.getMax(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long getSlowTaskCount() {
+        return mSlowTasks.get();
+    }
+
+    @Override
+    public long getSlowTaskThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mSlowTaskNanos);
+    }
+
+    @Override
+    public void setSlowTaskThresholdMillis(long threshold) {
+        setSlowTaskThreshold(threshold, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void resetLatencies() {
+        mQueueWait.reset();
+        mRunTime.reset();
+    }
+}
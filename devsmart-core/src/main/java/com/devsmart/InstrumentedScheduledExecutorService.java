@@ -0,0 +1,64 @@
+package com.devsmart;
+
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * an {@link InstrumentedExecutorService} for a scheduled executor. Delayed and periodic
+ * tasks are counted and their run time is measured, but they have no queue wait; every run
+ * of a periodic task counts as a completed task.
+ */
+public class InstrumentedScheduledExecutorService extends InstrumentedExecutorService
+        implements ScheduledExecutorService {
+
+    private final ScheduledExecutorService mScheduled;
+
+    public InstrumentedScheduledExecutorService(String name, ScheduledExecutorService delegate) {
+        super(name, delegate);
+        mScheduled = delegate;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        try {
+            return mScheduled.schedule(delayed(command), delay, unit);
+        } catch (RejectedExecutionException e) {
+            rejected();
+            throw e;
+        }
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        try {
+            return mScheduled.schedule(delayed(callable), delay, unit);
+        } catch (RejectedExecutionException e) {
+            rejected();
+            throw e;
+        }
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        try {
+            return mScheduled.scheduleAtFixedRate(delayed(command), initialDelay, period, unit);
+        } catch (RejectedExecutionException e) {
+            rejected();
+            throw e;
+        }
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        try {
+            return mScheduled.scheduleWithFixedDelay(delayed(command), initialDelay, delay, unit);
+        } catch (RejectedExecutionException e) {
+            rejected();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.devsmart;
+
+
+import com.google.common.base.Throwables;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class JmxUtils {
+
+    public static final String DOMAIN = "com.devsmart";
+
+    /**
+     * registers {@code mbean} with the platform MBean server under
+     * {@code com.devsmart:type=<type>,name=<name>}, replacing a bean already registered under
+     * that name.
+     *
+     * @return the name the bean was registered under
+     */
+    public static ObjectName register(Object mbean, String type, String name) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type
+                    + ",name=" + ObjectName.quote(name));
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public static void unregister(ObjectName name) {
+        try {
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.devsmart;
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs tasks on a shared executor so that tasks with the same key run one at a time, in the
+ * order they were queued, while tasks of different keys run in parallel. This replaces one
+ * {@link TaskQueue} per entity, such as per session:
+ * <pre>
+ *     KeyedTaskQueue&lt;String&gt; queue = new KeyedTaskQueue&lt;String&gt;(ThreadUtils.CPUThreads);
+ *     queue.execute(sessionId, task);
+ * </pre>
+ * State is only kept for keys that have tasks queued or running; it is dropped as soon as a
+ * key's last task finishes, so the number of distinct keys over time is not limited.
+ * Keys must implement {@code equals} and {@code hashCode}.
+ */
+public class KeyedTaskQueue<K> {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyedTaskQueue.class);
+
+    /**
+     * the tasks of one key
+     */
+    private final class KeyState implements Runnable {
+        final K key;
+        final MpscQueue<Runnable> tasks = new MpscQueue<Runnable>();
+
+        /**
+         * the number of tasks queued or running. Whoever raises it from 0 submits the state
+         * to the executor; it is set to -1 once the state is removed from the map, after
+         * which it must not be used.
+         */
+        final AtomicInteger pending = new AtomicInteger();
+
+        KeyState(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            do {
+                for (int count = 0; count < mMaxBatch; count++) {
+                    runTask(take());
+                    if (taskDone()) {
+                        return;
+                    }
+                }
+            } while (!resubmit());
+        }
+
+        /**
+         * for a thread whose submission of the run was rejected, and which therefore owns
+         * the queue: drops {@code revoked} and runs the other queued tasks. Tasks other
+         * producers queued ahead of it run first, since they were accepted.
+         */
+        void revokeAndRun(Runnable revoked) {
+            while (true) {
+                Runnable task = take();
+                if (task == revoked) {
+                    // the same instance queued twice is the same task, either one may go
+                    if (!taskDone()) {
+                        run();
+                    }
+                    return;
+                }
+                runTask(task);
+                if (taskDone()) {
+                    return;
+                }
+            }
+        }
+
+        private void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                logger.error("", e);
+            }
+        }
+
+        /**
+         * takes the next task; only for the thread that owns the run
+         */
+        Runnable take() {
+            Runnable task = tasks.poll();
+            while (task == null) {
+                // a producer has counted its task but not yet linked it into the queue
+                Thread.yield();
+                task = tasks.poll();
+            }
+            return task;
+        }
+
+        /**
+         * @return true if that was the last pending task, and the run is over
+         */
+        boolean taskDone() {
+            if (pending.decrementAndGet() == 0) {
+                // whoever raises pending from 0 again submits a new run
+                if (pending.compareAndSet(0, -1)) {
+                    mStates.remove(key, this);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return false if the executor rejected the run, in which case the calling thread
+         * must keep running the tasks
+         */
+        private boolean resubmit() {
+            try {
+                mService.execute(this);
+                return true;
+            } catch (RejectedExecutionException e) {
+                logger.warn("executor rejected KeyedTaskQueue, running remaining tasks of {} inline", key);
+                return false;
+            }
+        }
+    }
+
+    private final Executor mService;
+    private final int mMaxBatch;
+    private final ConcurrentMap<K, KeyState> mStates;
+
+    public KeyedTaskQueue(Executor service) {
+        this(service, TaskQueue.DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * @param maxBatch the maximum number of tasks of one key run per executor submission
+     */
+    public KeyedTaskQueue(Executor service, int maxBatch) {
+        checkArgument(maxBatch > 0);
+        mService = service;
+        mMaxBatch = maxBatch;
+        mStates = new ConcurrentHashMap<K, KeyState>(16, 0.75f,
+                Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @throws RejectedExecutionException if the executor rejected the task, in which case it
+     *                                    will not run
+     */
+    public void execute(K key, Runnable runnable) {
+        checkArgument(key != null, "key must not be null");
+        checkNotNull(runnable);
+        while (true) {
+            KeyState state = mStates.get(key);
+            if (state == null) {
+                KeyState newState = new KeyState(key);
+                state = mStates.putIfAbsent(key, newState);
+                if (state == null) {
+                    state = newState;
+                }
+            }
+
+            final int pending = state.pending.get();
+            if (pending < 0) {
+                // idle state that is being removed: help remove it and start over
+                mStates.remove(key, state);
+                continue;
+            }
+            if (!state.pending.compareAndSet(pending, pending + 1)) {
+                continue;
+            }
+
+            state.tasks.offer(runnable);
+            if (pending == 0) {
+                try {
+                    mService.execute(state);
+                } catch (RejectedExecutionException e) {
+                    // no run was started, so this thread owns the queue. Another producer
+                    // may have counted its task after this one but linked it in first.
+                    state.revokeAndRun(runnable);
+                    throw e;
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * the number of keys that currently have tasks queued or running
+     */
+    public int getActiveKeyCount() {
+        return mStates.size();
+    }
+}
@@ -0,0 +1,104 @@
+package com.devsmart;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of durations in nanoseconds with a fixed relative precision, in
+ * the style of HdrHistogram: every power of two is split into 16 linear buckets, so a
+ * recorded value is reported with an error of at most 1/16. Recording is one atomic
+ * increment and never allocates; the whole histogram is under 8KB.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return value <= 0 ? 0 : (int) value;
+        }
+        final int exp = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    /**
+     * @return the largest value that falls into {@code bucket}
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        final int shift = (bucket >>> SUB_BITS) - 1;
+        final long lowest = (long) (SUB_COUNT + (bucket & (SUB_COUNT - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        mCounts.incrementAndGet(bucketOf(nanos));
+        mSum.addAndGet(nanos);
+        long max;
+        while (nanos > (max = mMax.get()) && !mMax.compareAndSet(max, nanos)) {
+        }
+    }
+
+    public long getCount() {
+        long retval = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            retval += mCounts.get(i);
+        }
+        return retval;
+    }
+
+    public long getMax(TimeUnit unit) {
+        return unit.convert(mMax.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public double getMean(TimeUnit unit) {
+        final long count = getCount();
+        return count == 0 ? 0 : (double) mSum.get() / count / unit.toNanos(1);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value below which {@code percentile} percent of the recorded values fall,
+     * rounded up to its bucket's upper bound
+     */
+    public double getPercentile(double percentile, TimeUnit unit) {
+        final long[] counts = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return (double) Math.min(highestValueOf(i), mMax.get()) / unit.toNanos(1);
+            }
+        }
+        return (double) mMax.get() / unit.toNanos(1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mSum.set(0);
+        mMax.set(0);
+    }
+}
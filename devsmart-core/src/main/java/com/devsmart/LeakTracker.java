@@ -0,0 +1,91 @@
+package com.devsmart;
+
+
+import com.google.common.collect.MapMaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Debugging aid for pools: remembers where every handed out object was allocated and
+ * reports objects that are garbage collected without having been returned to the pool.
+ * Recording a stack trace per allocation is expensive, so this is only meant to be turned
+ * on while looking for leaks.
+ */
+final class LeakTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeakTracker.class);
+
+    private static final class Allocation extends WeakReference<Object> {
+        final Throwable mStack;
+
+        Allocation(Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            mStack = new Throwable("allocated here");
+        }
+    }
+
+    private final String mName;
+    private final ReferenceQueue<Object> mQueue = new ReferenceQueue<Object>();
+    private final ConcurrentMap<Object, Allocation> mOutstanding = new MapMaker()
+            .weakKeys()
+            .makeMap();
+    private final AtomicLong mLeaks = new AtomicLong();
+
+    LeakTracker(String name) {
+        mName = name;
+    }
+
+    void track(Object obj) {
+        expunge();
+        mOutstanding.put(obj, new Allocation(obj, mQueue));
+    }
+
+    /**
+     * @return false if {@code obj} was not handed out by the pool, or was already returned
+     */
+    boolean untrack(Object obj) {
+        Allocation allocation = mOutstanding.remove(obj);
+        if (allocation == null) {
+            return false;
+        }
+        // a cleared reference is never enqueued
+        allocation.clear();
+        return true;
+    }
+
+    private void expunge() {
+        Reference<?> ref;
+        while ((ref = mQueue.poll()) != null) {
+            mLeaks.incrementAndGet();
+            logger.warn("{} object was garbage collected without being freed", mName, ((Allocation) ref).mStack);
+        }
+    }
+
+    /**
+     * the number of objects garbage collected without having been freed
+     */
+    long getLeaks() {
+        expunge();
+        return mLeaks.get();
+    }
+
+    /**
+     * @return the allocation stacks of the objects that are currently handed out
+     */
+    List<Throwable> getOutstanding() {
+        expunge();
+        List<Throwable> retval = new ArrayList<Throwable>();
+        for (Allocation allocation : mOutstanding.values()) {
+            retval.add(allocation.mStack);
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,363 @@
+package com.devsmart;
+
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.WeakHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A set of listeners, iterated in the order they were added. Adding and removing are O(1)
+ * amortized: listeners live in an array indexed by a hash map, a removed listener leaves a
+ * hole that is compacted away once holes make up half the array. Iterating takes no lock;
+ * it walks a snapshot of the array, which is copied at most once per change, on the first
+ * iteration after it. Thousands of listeners can be added in a row without the quadratic
+ * copying of a {@link java.util.concurrent.CopyOnWriteArraySet}.
+ * <p>
+ * Listeners added with {@link #addWeak(Object)} are only weakly referenced and disappear
+ * once they are garbage collected, so a listener that is never removed does not leak.
+ * Keep a strong reference to a weak listener for as long as it should get events;
+ * anonymous classes with no other reference are collected right away.
+ * <p>
+ * Like {@code CopyOnWriteArraySet}, listeners are compared with {@code equals}, and an
+ * iteration that has started still sees the listeners that were registered when it began.
+ */
+public class ListenerRegistry<T> implements Iterable<T> {
+
+    private static final Slot<?>[] EMPTY = new Slot<?>[0];
+    private static final Snapshot EMPTY_SNAPSHOT = new Snapshot(new Object[0], false);
+
+    /**
+     * holds a listener. Weak slots only have the referent, strong slots also keep it in
+     * {@link #mStrong}.
+     */
+    private static final class Slot<T> extends WeakReference<T> {
+        private final T mStrong;
+        private int mIndex;
+
+        Slot(T listener, boolean weak, ReferenceQueue<? super T> queue, int index) {
+            super(listener, queue);
+            mStrong = weak ? null : listener;
+            mIndex = index;
+        }
+
+        @Override
+        public T get() {
+            return mStrong != null ? mStrong : super.get();
+        }
+    }
+
+    /**
+     * the listeners without holes. Strong listeners are stored as they are, weak ones as
+     * their {@link Slot}. Published as one object so that readers never pair an array with
+     * the flag of another.
+     */
+    private static final class Snapshot {
+        final Object[] mItems;
+        final boolean mHasWeak;
+
+        Snapshot(Object[] items, boolean hasWeak) {
+            mItems = items;
+            mHasWeak = hasWeak;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final ReferenceQueue<T> mCollected = new ReferenceQueue<T>();
+
+    /**
+     * the slot of every listener. A strong slot refers to its key, so the key stays in this
+     * map until it is removed; a weak slot does not.
+     */
+    private final WeakHashMap<T, Slot<T>> mIndex = new WeakHashMap<T, Slot<T>>();
+
+    private Slot<T>[] mSlots = newArray(0);
+    private int mEnd;
+    private int mSize;
+
+    /**
+     * null if it needs to be rebuilt
+     */
+    private volatile Snapshot mSnapshot = EMPTY_SNAPSHOT;
+
+    /**
+     * @return false if {@code listener} was already registered
+     */
+    public boolean add(T listener) {
+        return add(listener, false);
+    }
+
+    /**
+     * Adds {@code listener} without keeping it from being garbage collected.
+     *
+     * @return false if {@code listener} was already registered
+     */
+    public boolean addWeak(T listener) {
+        return add(listener, true);
+    }
+
+    private boolean add(T listener, boolean weak) {
+        checkArgument(listener != null, "listener must not be null");
+        synchronized (mLock) {
+            expungeCollected();
+            if (mIndex.containsKey(listener)) {
+                return false;
+            }
+            if (mEnd == mSlots.length) {
+                grow();
+            }
+            Slot<T> slot = new Slot<T>(listener, weak, mCollected, mEnd);
+            mSlots[mEnd++] = slot;
+            mIndex.put(listener, slot);
+            mSize++;
+            mSnapshot = null;
+            return true;
+        }
+    }
+
+    /**
+     * @return false if {@code listener} was not registered
+     */
+    public boolean remove(T listener) {
+        return unlink(listener) != null;
+    }
+
+    /**
+     * removes {@code listener} like {@link #remove(Object)}
+     *
+     * @return the registered instance that equals {@code listener}, or null if there was
+     * none or it has been garbage collected
+     */
+    T removeRegistered(T listener) {
+        Slot<T> slot = unlink(listener);
+        return slot != null ? slot.get() : null;
+    }
+
+    /**
+     * @return the registered instance that equals {@code listener}, or null if there is none
+     */
+    T getRegistered(T listener) {
+        if (listener == null) {
+            return null;
+        }
+        synchronized (mLock) {
+            Slot<T> slot = mIndex.get(listener);
+            return slot != null ? slot.get() : null;
+        }
+    }
+
+    private Slot<T> unlink(T listener) {
+        if (listener == null) {
+            return null;
+        }
+        synchronized (mLock) {
+            expungeCollected();
+            Slot<T> slot = mIndex.remove(listener);
+            if (slot != null) {
+                removeSlot(slot);
+            }
+            return slot;
+        }
+    }
+
+    public void clear() {
+        synchronized (mLock) {
+            mIndex.clear();
+            Arrays.fill(mSlots, 0, mEnd, null);
+            mEnd = 0;
+            mSize = 0;
+            mSnapshot = EMPTY_SNAPSHOT;
+            while (mCollected.poll() != null) {
+            }
+        }
+    }
+
+    public boolean contains(T listener) {
+        if (listener == null) {
+            return false;
+        }
+        synchronized (mLock) {
+            Slot<T> slot = mIndex.get(listener);
+            return slot != null && slot.get() != null;
+        }
+    }
+
+    /**
+     * @return the number of listeners, not counting weak listeners that have been collected
+     */
+    public int size() {
+        synchronized (mLock) {
+            expungeCollected();
+            return mSize;
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return an iterator over the listeners registered now. It does not support
+     * {@link Iterator#remove()}.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        Snapshot snapshot = snapshot();
+        return snapshot.mHasWeak ? new WeakSnapshotIterator<T>(snapshot.mItems)
+                : new SnapshotIterator<T>(snapshot.mItems);
+    }
+
+    private Snapshot snapshot() {
+        Snapshot retval = mSnapshot;
+        if (retval == null) {
+            synchronized (mLock) {
+                retval = mSnapshot;
+                if (retval == null) {
+                    if (mSize == 0) {
+                        retval = EMPTY_SNAPSHOT;
+                    } else {
+                        Object[] items = new Object[mSize];
+                        int j = 0;
+                        boolean hasWeak = false;
+                        for (int i = 0; i < mEnd; i++) {
+                            Slot<T> slot = mSlots[i];
+                            if (slot != null) {
+                                hasWeak |= slot.mStrong == null;
+                                items[j++] = slot.mStrong != null ? slot.mStrong : slot;
+                            }
+                        }
+                        retval = new Snapshot(items, hasWeak);
+                    }
+                    mSnapshot = retval;
+                }
+            }
+        }
+        return retval;
+    }
+
+    private void removeSlot(Slot<T> slot) {
+        mSlots[slot.mIndex] = null;
+        mSize--;
+        mSnapshot = null;
+        if (mSize == 0) {
+            mEnd = 0;
+        } else if (mEnd - mSize > mSize) {
+            compact();
+        }
+    }
+
+    /**
+     * drops the slots of weak listeners that have been garbage collected
+     */
+    @SuppressWarnings("unchecked")
+    private void expungeCollected() {
+        Reference<? extends T> ref;
+        while ((ref = mCollected.poll()) != null) {
+            Slot<T> slot = (Slot<T>) ref;
+            // the slot may already have been removed, or reused by a compaction
+            if (slot.mIndex < mEnd && mSlots[slot.mIndex] == slot) {
+                removeSlot(slot);
+            }
+        }
+    }
+
+    private void compact() {
+        int j = 0;
+        for (int i = 0; i < mEnd; i++) {
+            Slot<T> slot = mSlots[i];
+            if (slot != null) {
+                slot.mIndex = j;
+                mSlots[j++] = slot;
+            }
+        }
+        Arrays.fill(mSlots, j, mEnd, null);
+        mEnd = j;
+    }
+
+    private void grow() {
+        if (mSize < mEnd) {
+            compact();
+            if (mEnd < mSlots.length) {
+                return;
+            }
+        }
+        mSlots = Arrays.copyOf(mSlots, Math.max(8, mSlots.length * 2));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Slot<T>[] newArray(int size) {
+        return (Slot<T>[]) (size == 0 ? EMPTY : new Slot<?>[size]);
+    }
+
+    /**
+     * iterates a snapshot that only has strong listeners
+     */
+    private static final class SnapshotIterator<T> implements Iterator<T> {
+        private final Object[] mSnapshot;
+        private int mPos;
+
+        SnapshotIterator(Object[] snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mPos < mSnapshot.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (mPos >= mSnapshot.length) {
+                throw new NoSuchElementException();
+            }
+            return (T) mSnapshot[mPos++];
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class WeakSnapshotIterator<T> implements Iterator<T> {
+        private final Object[] mSnapshot;
+        private int mPos;
+        private T mNext;
+
+        WeakSnapshotIterator(Object[] snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean hasNext() {
+            // skips weak listeners collected since the snapshot was taken
+            while (mNext == null && mPos < mSnapshot.length) {
+                Object next = mSnapshot[mPos++];
+                mNext = next instanceof Slot ? ((Slot<T>) next).get() : (T) next;
+            }
+            return mNext != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T retval = mNext;
+            mNext = null;
+            return retval;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.devsmart;
+
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Unbounded lock-free queue for many producers and a single consumer. {@link #offer(Object)}
+ * is one atomic swap and may be called from any thread; {@link #poll()} and
+ * {@link #isEmpty()} must only be called by one thread at a time, such as the thread
+ * currently draining a {@link TaskQueue}.
+ * <p>
+ * The queue is a linked list: producers swap themselves in as the tail and then link the
+ * previous tail to their node. Until that link is written, the new item is not yet visible
+ * to {@link #poll()}; callers that hand off the consumer role must therefore offer before
+ * they try to take the role, never after. Items must not be null, so that null from
+ * {@link #poll()} always means no item is visible.
+ */
+final class MpscQueue<T> {
+
+    private static final class Node<T> {
+        T item;
+        volatile Node<T> next;
+
+        Node(T item) {
+            this.item = item;
+        }
+    }
+
+    /**
+     * consumer side; the head node is a stub whose item was already taken
+     */
+    private Node<T> mHead;
+    private final AtomicReference<Node<T>> mTail;
+
+    MpscQueue() {
+        mHead = new Node<T>(null);
+        mTail = new AtomicReference<Node<T>>(mHead);
+    }
+
+    void offer(T item) {
+        checkNotNull(item);
+        Node<T> node = new Node<T>(item);
+        mTail.getAndSet(node).next = node;
+    }
+
+    /**
+     * @return the oldest item, or null if the queue is empty
+     */
+    T poll() {
+        Node<T> next = mHead.next;
+        if (next == null) {
+            return null;
+        }
+        T retval = next.item;
+        next.item = null;
+        mHead = next;
+        return retval;
+    }
+
+    /**
+     * @return true if the queue is empty, apart from items whose producers are still linking
+     * them in
+     */
+    boolean isEmpty() {
+        return mHead.next == null;
+    }
+}
@@ -1,55 +1,410 @@
 package com.devsmart;
 
+import com.google.common.collect.MapMaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A pool of reusable objects. {@link #borrow()} and {@link #release(Object)} are thread safe
+ * and never block: free objects are kept on a lock-free stack of at most {@code poolSize}
+ * objects, and optionally in a small per-thread cache in front of it, so threads that
+ * borrow and release on every request mostly never touch shared state.
+ * <p>
+ * Objects released when the pool is full are dropped. Releasing an object that is already
+ * free is a bug; it is detected cheaply while the object is in the releasing thread's cache,
+ * and always when {@link #setDebug(boolean) debug mode} is on.
+ * <p>
+ * For objects that are expensive to create, the pool can be filled ahead of time with
+ * {@link #prewarm(int)} and shrunk again when load drops with
+ * {@link #startIdleEviction(long, TimeUnit, int)}. A creator implementing
+ * {@link ValidatingCreator} is asked to validate pooled objects before they are handed out
+ * and to destroy the ones the pool drops.
+ */
 public class ObjectPool<T> {
 
+    private static final Logger logger = LoggerFactory.getLogger(ObjectPool.class);
+
     public interface PooledCreator<Q> {
         Q create();
     }
 
-    private PooledCreator<T> mCreator;
-    private Object[] mObjects;
-    private int mFreeIndex;
+    /**
+     * a {@link PooledCreator} whose objects must be reset before they are reused, for
+     * example to clear a buffer. {@link #reset(Object)} is called on every release.
+     */
+    public interface ResettingCreator<Q> extends PooledCreator<Q> {
+        void reset(Q obj);
+    }
+
+    /**
+     * a {@link PooledCreator} for objects that can become unusable while pooled, such as
+     * connections, or that hold resources that must be released when the pool drops them.
+     */
+    public interface ValidatingCreator<Q> extends PooledCreator<Q> {
+
+        /**
+         * called before a pooled object is handed out by {@link #borrow()}
+         *
+         * @return false to destroy {@code obj} and try another one
+         */
+        boolean validate(Q obj);
+
+        /**
+         * called for objects the pool drops: when they fail validation, are evicted or are
+         * released to a full pool
+         */
+        void destroy(Q obj);
+    }
+
+    private static final class Node {
+        final Object item;
+        final long releaseTime;
+        Node next;
+
+        Node(Object item, long releaseTime) {
+            this.item = item;
+            this.releaseTime = releaseTime;
+        }
+    }
+
+    private static final class ThreadCache {
+        final Object[] items;
+        int size;
+
+        ThreadCache(int capacity) {
+            items = new Object[capacity];
+        }
+    }
+
+    private final PooledCreator<T> mCreator;
+    private final ResettingCreator<T> mResetter;
+    private final ValidatingCreator<T> mValidator;
+    private final int mPoolSize;
+    private final int mThreadCacheSize;
+    private final AtomicReference<Node> mHead = new AtomicReference<Node>();
+    private final AtomicInteger mFreeCount = new AtomicInteger();
+    private final ThreadLocal<ThreadCache> mThreadCache;
+    private volatile ConcurrentMap<Object, Boolean> mFreeSet;
+    private ScheduledFuture<?> mEvictionTask;
+
+    private final StripedCounter mBorrows = new StripedCounter();
+    private final StripedCounter mReleases = new StripedCounter();
+    private final AtomicLong mCreated = new AtomicLong();
+    private final AtomicLong mDestroyed = new AtomicLong();
 
     public ObjectPool(int poolSize, PooledCreator<T> creator) {
+        this(poolSize, 0, creator);
+    }
+
+    /**
+     * @param poolSize        the maximum number of free objects on the shared stack
+     * @param threadCacheSize the number of free objects each thread may keep for itself in
+     *                        addition to the shared ones, 0 for none
+     */
+    public ObjectPool(int poolSize, final int threadCacheSize, PooledCreator<T> creator) {
+        checkArgument(poolSize >= 0 && threadCacheSize >= 0);
         mCreator = creator;
-        mObjects = new Object[poolSize];
-        mFreeIndex = -1;
+        mResetter = creator instanceof ResettingCreator ? (ResettingCreator<T>) creator : null;
+        mValidator = creator instanceof ValidatingCreator ? (ValidatingCreator<T>) creator : null;
+        mPoolSize = poolSize;
+        mThreadCacheSize = threadCacheSize;
+        mThreadCache = threadCacheSize == 0 ? null : new ThreadLocal<ThreadCache>() {
+            @Override
+            protected ThreadCache initialValue() {
+                return new ThreadCache(threadCacheSize);
+            }
+        };
     }
 
-    public synchronized T borrow() {
-        if (mFreeIndex < 0) {
-            return mCreator.create();
-        } else {
-            T retval = (T) mObjects[mFreeIndex];
-            mObjects[mFreeIndex] = null;
-            mFreeIndex--;
-            return retval;
+    /**
+     * In debug mode every free object is kept in an identity set, so releasing an object
+     * twice is always detected and logged. This costs a concurrent map update per borrow
+     * and release.
+     */
+    public void setDebug(boolean debug) {
+        mFreeSet = debug ? new MapMaker().weakKeys().<Object, Boolean>makeMap() : null;
+    }
+
+    /**
+     * creates {@code count} objects and adds them to the shared stack, up to
+     * {@code poolSize}, so the first borrows do not pay for creating them.
+     *
+     * @return this pool
+     */
+    public ObjectPool<T> prewarm(int count) {
+        for (int i = 0; i < count && reserve(); i++) {
+            T obj = create();
+            final ConcurrentMap<Object, Boolean> freeSet = mFreeSet;
+            if (freeSet != null) {
+                freeSet.put(obj, Boolean.TRUE);
+            }
+            push(obj);
         }
+        return this;
+    }
+
+    private T create() {
+        mCreated.incrementAndGet();
+        return mCreator.create();
     }
 
-    public synchronized void release(T obj) {
+    private void destroy(T obj) {
+        mDestroyed.incrementAndGet();
+        if (mValidator != null) {
+            try {
+                mValidator.destroy(obj);
+            } catch (RuntimeException e) {
+                logger.warn("error destroying pooled object", e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public T borrow() {
+        mBorrows.increment();
+        while (true) {
+            T retval = null;
+            if (mThreadCache != null) {
+                ThreadCache cache = mThreadCache.get();
+                if (cache.size > 0) {
+                    retval = (T) cache.items[--cache.size];
+                    cache.items[cache.size] = null;
+                }
+            }
+            if (retval == null) {
+                retval = (T) pop();
+            }
+            if (retval == null) {
+                return create();
+            }
+
+            final ConcurrentMap<Object, Boolean> freeSet = mFreeSet;
+            if (freeSet != null) {
+                freeSet.remove(retval);
+            }
+            if (mValidator == null || mValidator.validate(retval)) {
+                return retval;
+            }
+            destroy(retval);
+        }
+    }
+
+    public void release(T obj) {
         if (obj == null) {
             return;
         }
 
-        if (mFreeIndex >= mObjects.length - 1) {
+        final ConcurrentMap<Object, Boolean> freeSet = mFreeSet;
+        if (freeSet != null && freeSet.putIfAbsent(obj, Boolean.TRUE) != null) {
+            logger.warn("object released twice: {}", obj, new Throwable("released here"));
             return;
         }
 
-        if(isInFreeList(obj)){
-            return;
+        if (mThreadCache != null) {
+            ThreadCache cache = mThreadCache.get();
+            for (int i = 0; i < cache.size; i++) {
+                if (cache.items[i] == obj) {
+                    return;
+                }
+            }
+            mReleases.increment();
+            if (cache.size < mThreadCacheSize) {
+                reset(obj);
+                cache.items[cache.size++] = obj;
+                return;
+            }
+        } else {
+            mReleases.increment();
         }
 
-        mObjects[++mFreeIndex] = obj;
+        if (reserve()) {
+            reset(obj);
+            push(obj);
+        } else {
+            if (freeSet != null) {
+                freeSet.remove(obj);
+            }
+            destroy(obj);
+        }
     }
 
-    public synchronized boolean isInFreeList(T obj) {
-        for(int i=0;i<mFreeIndex+1;i++){
-            if(obj == mObjects[i]) {
-                return true;
+    private void reset(T obj) {
+        if (mResetter != null) {
+            mResetter.reset(obj);
+        }
+    }
+
+    /**
+     * @return false if the shared stack is full
+     */
+    private boolean reserve() {
+        int count;
+        do {
+            count = mFreeCount.get();
+            if (count >= mPoolSize) {
+                return false;
+            }
+        } while (!mFreeCount.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    private void push(Object obj) {
+        Node node = new Node(obj, System.nanoTime());
+        do {
+            node.next = mHead.get();
+        } while (!mHead.compareAndSet(node.next, node));
+    }
+
+    private Object pop() {
+        Node head;
+        do {
+            head = mHead.get();
+            if (head == null) {
+                return null;
+            }
+        } while (!mHead.compareAndSet(head, head.next));
+        mFreeCount.decrementAndGet();
+        return head.item;
+    }
+
+    /**
+     * Periodically destroys objects that have been free on the shared stack for longer than
+     * {@code idleTime}, keeping at least {@code minIdle}. Objects in per-thread caches are
+     * not evicted. Eviction runs every {@code idleTime} on {@link ThreadUtils#CPUThreads}.
+     */
+    public void startIdleEviction(long idleTime, TimeUnit unit, int minIdle) {
+        startIdleEviction(idleTime, unit, minIdle, ThreadUtils.CPUThreads);
+    }
+
+    public synchronized void startIdleEviction(long idleTime, TimeUnit unit, final int minIdle,
+                                               ScheduledExecutorService scheduler) {
+        checkArgument(idleTime > 0 && minIdle >= 0);
+        stopIdleEviction();
+        final long idleNanos = unit.toNanos(idleTime);
+        mEvictionTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle(idleNanos, minIdle);
+            }
+        }, idleTime, idleTime, unit);
+    }
+
+    public synchronized void stopIdleEviction() {
+        if (mEvictionTask != null) {
+            mEvictionTask.cancel(false);
+            mEvictionTask = null;
+        }
+    }
+
+    /**
+     * destroys the objects that have been free on the shared stack for longer than
+     * {@code idleNanos}, keeping at least {@code minIdle}.
+     *
+     * @return the number of objects destroyed
+     */
+    @SuppressWarnings("unchecked")
+    int evictIdle(long idleNanos, int minIdle) {
+        // take the whole stack; borrowers that find it empty meanwhile create new objects
+        Node node = mHead.getAndSet(null);
+        final long now = System.nanoTime();
+
+        // the stack is newest first: keep the recent ones and at least minIdle
+        Node keep = null;
+        Node keepTail = null;
+        int kept = 0;
+        int evicted = 0;
+        while (node != null) {
+            final Node next = node.next;
+            if (kept < minIdle || now - node.releaseTime < idleNanos) {
+                // a new node: a concurrent pop may still hold the old one and its next
+                final Node copy = new Node(node.item, node.releaseTime);
+                if (keepTail == null) {
+                    keep = copy;
+                } else {
+                    keepTail.next = copy;
+                }
+                keepTail = copy;
+                kept++;
+            } else {
+                mFreeCount.decrementAndGet();
+                final ConcurrentMap<Object, Boolean> freeSet = mFreeSet;
+                if (freeSet != null) {
+                    freeSet.remove(node.item);
+                }
+                destroy((T) node.item);
+                evicted++;
             }
+            node = next;
         }
 
+        // put the kept objects back underneath anything released meanwhile
+        if (keep != null) {
+            Node head;
+            do {
+                head = mHead.get();
+                keepTail.next = head;
+            } while (!mHead.compareAndSet(head, keep));
+        }
+        return evicted;
+    }
+
+    /**
+     * the number of objects borrowed and not yet released
+     */
+    public long getBorrowedCount() {
+        return mBorrows.sum() - mReleases.sum();
+    }
+
+    /**
+     * the number of free objects on the shared stack, not counting per-thread caches
+     */
+    public int getIdleCount() {
+        return mFreeCount.get();
+    }
+
+    /**
+     * the number of objects created by the pool
+     */
+    public long getCreatedCount() {
+        return mCreated.get();
+    }
+
+    /**
+     * the number of objects the pool has dropped: evicted, failed validation or released
+     * to a full pool
+     */
+    public long getDestroyedCount() {
+        return mDestroyed.get();
+    }
+
+    /**
+     * @return true if {@code obj} is free in the shared stack or in the calling thread's
+     * cache. This walks the whole stack and is meant for tests and assertions.
+     */
+    public boolean isInFreeList(T obj) {
+        if (mThreadCache != null) {
+            ThreadCache cache = mThreadCache.get();
+            for (int i = 0; i < cache.size; i++) {
+                if (cache.items[i] == obj) {
+                    return true;
+                }
+            }
+        }
+        for (Node node = mHead.get(); node != null; node = node.next) {
+            if (node.item == obj) {
+                return true;
+            }
+        }
         return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,357 @@
+package com.devsmart;
+
+
+import java.io.Closeable;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A table of primitive columns stored outside of the Java heap. It offers the same
+ * typed accessors as {@link ArrayTable} ({@code getInt/setInt}, {@code getLong/setLong}, ...)
+ * but keeps the data in direct {@link ByteBuffer}s, so large numeric tables neither inflate
+ * the heap nor lengthen GC pauses.
+ * <p>
+ * Each column is split into chunks of a fixed power-of-two number of rows. Growing the table
+ * only allocates new chunks; existing data is never copied. Memory is released explicitly
+ * with {@link #close()}, after which the table must not be used.
+ * <p>
+ * Supported column types are {@code int}, {@code long}, {@code float}, {@code double} and
+ * {@code boolean}.
+ */
+public class OffHeapTable implements Closeable {
+
+    private static final int DEFAULT_INITIAL_SIZE = 16;
+
+    /**
+     * The default number of rows per chunk.
+     */
+    public static final int DEFAULT_CHUNK_ROWS = 1 << 16;
+
+    /**
+     * Chunks of the widest type must stay below 2GB, the limit of a ByteBuffer.
+     */
+    private static final int MAX_CHUNK_ROWS = 1 << 27;
+
+    private static final int MAX_ROWS = Integer.MAX_VALUE;
+
+    private final Class<?>[] mColumnTypes;
+    private final String[] mColumnNames;
+    private final int[] mWidthShift;
+    private final int mChunkShift;
+    private final int mChunkMask;
+    private final boolean mGrowable;
+    private ByteBuffer[][] mChunks;
+    private int mRows;
+    private int mCapacity;
+
+    public static OffHeapTable createWithColumnTypes(int initialSize, int chunkRows, Class<?>... types) {
+        checkArgument(initialSize >= 0);
+        checkArgument(chunkRows > 0 && chunkRows <= MAX_CHUNK_ROWS && Integer.bitCount(chunkRows) == 1,
+                "chunkRows must be a power of two no larger than " + MAX_CHUNK_ROWS);
+
+        Class<?>[] columnTypes = new Class<?>[types.length];
+        for (int i = 0; i < types.length; i++) {
+            columnTypes[i] = collateColumnTypes(types[i]);
+        }
+
+        OffHeapTable retval = new OffHeapTable(columnTypes, new String[types.length],
+                Integer.numberOfTrailingZeros(chunkRows), new ByteBuffer[types.length][0], 0, 0, true);
+        retval.ensureCapacity(initialSize);
+        return retval;
+    }
+
+    public static OffHeapTable createWithColumnTypes(int initialSize, Class<?>... types) {
+        return createWithColumnTypes(initialSize, DEFAULT_CHUNK_ROWS, types);
+    }
+
+    public static OffHeapTable createWithColumnTypes(Class<?>... types) {
+        return createWithColumnTypes(DEFAULT_INITIAL_SIZE, DEFAULT_CHUNK_ROWS, types);
+    }
+
+    /**
+     * creates an off-heap copy of {@code table}. All columns of {@code table} must be primitive.
+     */
+    public static OffHeapTable copyOf(ArrayTable table) {
+        Class<?>[] types = new Class<?>[table.columns()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = table.getColumnType(i);
+        }
+
+        OffHeapTable retval = createWithColumnTypes(table.rows(), types);
+        for (int i = 0; i < types.length; i++) {
+            retval.mColumnNames[i] = table.getColumnName(i);
+            retval.putColumn(i, table.getColumn(i), table.rows());
+        }
+        retval.mRows = table.rows();
+        return retval;
+    }
+
+    /**
+     * wraps existing chunks, for example regions of a memory-mapped file. The chunks
+     * are released by {@link #close()} like allocated ones.
+     */
+    OffHeapTable(Class<?>[] columnTypes, String[] columnNames, int chunkShift,
+                 ByteBuffer[][] chunks, int rows, int capacity, boolean growable) {
+        mColumnTypes = columnTypes;
+        mColumnNames = columnNames;
+        mChunkShift = chunkShift;
+        mChunkMask = (1 << chunkShift) - 1;
+        mChunks = chunks;
+        mRows = rows;
+        mCapacity = capacity;
+        mGrowable = growable;
+
+        mWidthShift = new int[columnTypes.length];
+        for (int i = 0; i < columnTypes.length; i++) {
+            mWidthShift[i] = widthShift(columnTypes[i]);
+        }
+    }
+
+    private static Class<?> collateColumnTypes(Class<?> input) {
+        if (int.class == input || Integer.class == input) {
+            return int.class;
+        } else if (long.class == input || Long.class == input) {
+            return long.class;
+        } else if (float.class == input || Float.class == input) {
+            return float.class;
+        } else if (double.class == input || Double.class == input) {
+            return double.class;
+        } else if (boolean.class == input || Boolean.class == input) {
+            return boolean.class;
+        } else {
+            throw new IllegalArgumentException("unsupported off-heap column type: " + input);
+        }
+    }
+
+    /**
+     * @return log2 of the number of bytes used to store one value of {@code type}
+     */
+    static int widthShift(Class<?> type) {
+        if (type == int.class || type == float.class) {
+            return 2;
+        } else if (type == long.class || type == double.class) {
+            return 3;
+        } else if (type == boolean.class) {
+            return 0;
+        } else {
+            throw new IllegalArgumentException("unsupported off-heap column type: " + type);
+        }
+    }
+
+    public int columns() {
+        return mColumnTypes.length;
+    }
+
+    public int rows() {
+        return mRows;
+    }
+
+    /**
+     * the total number of rows currently allocated.
+     */
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public Class<?> getColumnType(int column) {
+        return mColumnTypes[column];
+    }
+
+    public String getColumnName(int column) {
+        return mColumnNames[column];
+    }
+
+    public void setColumnName(int column, String name) {
+        mColumnNames[column] = name;
+    }
+
+    /**
+     * the number of bytes of off-heap memory held by this table.
+     */
+    public long allocatedBytes() {
+        long retval = 0;
+        for (int i = 0; i < mColumnTypes.length; i++) {
+            retval += (long) mCapacity << mWidthShift[i];
+        }
+        return retval;
+    }
+
+    /**
+     * Increases the capacity of this table, if necessary, to ensure that it can hold
+     * at least {@code minCapacity} rows. Only new chunks are allocated; existing rows
+     * are not copied.
+     */
+    public void ensureCapacity(int minCapacity) {
+        checkState(mChunks != null, "table is closed");
+        if (minCapacity <= mCapacity) {
+            return;
+        }
+        checkState(mGrowable, "table can not grow");
+
+        final int chunkRows = 1 << mChunkShift;
+        final int numChunks = (int) (((long) minCapacity + chunkRows - 1) >>> mChunkShift);
+        for (int i = 0; i < mColumnTypes.length; i++) {
+            ByteBuffer[] chunks = Arrays.copyOf(mChunks[i], numChunks);
+            for (int c = mChunks[i].length; c < numChunks; c++) {
+                chunks[c] = DirectBuffers.allocate(chunkRows << mWidthShift[i]);
+            }
+            mChunks[i] = chunks;
+        }
+        mCapacity = (int) Math.min(MAX_ROWS, (long) numChunks << mChunkShift);
+    }
+
+    /**
+     * adds a new row to the bottom of the table. The cells of the new row must be filled
+     * in with the typed setters and may hold values from rows removed by {@link #clear()}.
+     *
+     * @return the index of the new row
+     */
+    public int appendRow() {
+        ensureCapacity(mRows + 1);
+        return mRows++;
+    }
+
+    public void clear() {
+        mRows = 0;
+    }
+
+    public int getInt(int row, int column) {
+        return mChunks[column][row >>> mChunkShift].getInt((row & mChunkMask) << 2);
+    }
+
+    public void setInt(int row, int column, int value) {
+        mChunks[column][row >>> mChunkShift].putInt((row & mChunkMask) << 2, value);
+    }
+
+    public long getLong(int row, int column) {
+        return mChunks[column][row >>> mChunkShift].getLong((row & mChunkMask) << 3);
+    }
+
+    public void setLong(int row, int column, long value) {
+        mChunks[column][row >>> mChunkShift].putLong((row & mChunkMask) << 3, value);
+    }
+
+    public float getFloat(int row, int column) {
+        return mChunks[column][row >>> mChunkShift].getFloat((row & mChunkMask) << 2);
+    }
+
+    public void setFloat(int row, int column, float value) {
+        mChunks[column][row >>> mChunkShift].putFloat((row & mChunkMask) << 2, value);
+    }
+
+    public double getDouble(int row, int column) {
+        return mChunks[column][row >>> mChunkShift].getDouble((row & mChunkMask) << 3);
+    }
+
+    public void setDouble(int row, int column, double value) {
+        mChunks[column][row >>> mChunkShift].putDouble((row & mChunkMask) << 3, value);
+    }
+
+    public boolean getBoolean(int row, int column) {
+        return mChunks[column][row >>> mChunkShift].get(row & mChunkMask) != 0;
+    }
+
+    public void setBoolean(int row, int column, boolean value) {
+        mChunks[column][row >>> mChunkShift].put(row & mChunkMask, value ? (byte) 1 : (byte) 0);
+    }
+
+    /**
+     * copies this table back onto the Java heap.
+     */
+    public ArrayTable toArrayTable() {
+        checkState(mChunks != null, "table is closed");
+        Object[] columns = new Object[mColumnTypes.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = getColumn(i);
+        }
+        ArrayTable retval = ArrayTable.createWithColumns(columns);
+        for (int i = 0; i < columns.length; i++) {
+            retval.setColumnName(i, mColumnNames[i]);
+        }
+        return retval;
+    }
+
+    /**
+     * @return a heap copy of the values of {@code column}
+     */
+    public Object getColumn(int column) {
+        final Class<?> type = mColumnTypes[column];
+        final ByteBuffer[] chunks = mChunks[column];
+        final int chunkRows = 1 << mChunkShift;
+
+        if (type == boolean.class) {
+            boolean[] retval = new boolean[mRows];
+            for (int i = 0; i < mRows; i++) {
+                retval[i] = getBoolean(i, column);
+            }
+            return retval;
+        }
+
+        Object retval = Array.newInstance(type, mRows);
+        for (int start = 0, c = 0; start < mRows; start += chunkRows, c++) {
+            final int len = Math.min(chunkRows, mRows - start);
+            ByteBuffer chunk = chunks[c].duplicate().order(chunks[c].order());
+            if (type == int.class) {
+                chunk.asIntBuffer().get((int[]) retval, start, len);
+            } else if (type == long.class) {
+                chunk.asLongBuffer().get((long[]) retval, start, len);
+            } else if (type == float.class) {
+                chunk.asFloatBuffer().get((float[]) retval, start, len);
+            } else {
+                chunk.asDoubleBuffer().get((double[]) retval, start, len);
+            }
+        }
+        return retval;
+    }
+
+    private void putColumn(int column, Object values, int rows) {
+        final Class<?> type = mColumnTypes[column];
+        final ByteBuffer[] chunks = mChunks[column];
+        final int chunkRows = 1 << mChunkShift;
+
+        if (type == boolean.class) {
+            boolean[] array = (boolean[]) values;
+            for (int i = 0; i < rows; i++) {
+                setBoolean(i, column, array[i]);
+            }
+            return;
+        }
+
+        for (int start = 0, c = 0; start < rows; start += chunkRows, c++) {
+            final int len = Math.min(chunkRows, rows - start);
+            ByteBuffer chunk = chunks[c].duplicate().order(chunks[c].order());
+            if (type == int.class) {
+                chunk.asIntBuffer().put((int[]) values, start, len);
+            } else if (type == long.class) {
+                chunk.asLongBuffer().put((long[]) values, start, len);
+            } else if (type == float.class) {
+                chunk.asFloatBuffer().put((float[]) values, start, len);
+            } else {
+                chunk.asDoubleBuffer().put((double[]) values, start, len);
+            }
+        }
+    }
+
+    /**
+     * releases the off-heap memory of this table. The table must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        ByteBuffer[][] chunks = mChunks;
+        if (chunks == null) {
+            return;
+        }
+        mChunks = null;
+        mRows = 0;
+        mCapacity = 0;
+        for (ByteBuffer[] column : chunks) {
+            for (ByteBuffer chunk : column) {
+                DirectBuffers.free(chunk);
+            }
+        }
+    }
+}
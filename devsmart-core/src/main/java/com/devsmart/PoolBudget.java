@@ -0,0 +1,104 @@
+package com.devsmart;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An upper bound on the amount of memory a pool may hold. Units are chosen by the pool.
+ * <p>
+ * Threads are spread over stripes by thread id. A reserve smaller than a chunk, 1/64 of
+ * the max size split among the stripes, takes a whole chunk from the shared total and
+ * keeps the rest as a credit of its stripe, so most reserves and releases of small items
+ * only touch that credit. A stripe keeps at most two chunks of credit, so the stripes
+ * together hold back at most 1/32 of the max size, and a reserve may fail that much early.
+ */
+final class PoolBudget {
+
+    /**
+     * 8 longs: one cache line per stripe
+     */
+    private static final int STRIDE_SHIFT = 3;
+
+    private final long mMaxSize;
+    private final AtomicLong mSize = new AtomicLong();
+    private final long mChunk;
+    private final int mStripeMask;
+
+    /**
+     * the amount each stripe has reserved from {@link #mSize} but not used yet
+     */
+    private final AtomicLongArray mCredits;
+
+    PoolBudget(long maxSize) {
+        mMaxSize = maxSize;
+
+        int numStripes = 1;
+        while (numStripes < Runtime.getRuntime().availableProcessors()) {
+            numStripes <<= 1;
+        }
+        mStripeMask = numStripes - 1;
+        mChunk = Math.max(1, maxSize / (numStripes * 64L));
+        // one spare line so the first stripe does not share a line with the array header
+        mCredits = new AtomicLongArray((numStripes + 1) << STRIDE_SHIFT);
+    }
+
+    private int creditIndex() {
+        return (((int) Thread.currentThread().getId() & mStripeMask) + 1) << STRIDE_SHIFT;
+    }
+
+    long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return the amount in use, not counting unused credit. Exact when no reserve or
+     * release is in progress.
+     */
+    long getSize() {
+        long credit = 0;
+        for (int i = 0; i <= mStripeMask; i++) {
+            credit += mCredits.get((i + 1) << STRIDE_SHIFT);
+        }
+        return mSize.get() - credit;
+    }
+
+    /**
+     * @return true if {@code amount} was reserved, false if it would reach the max size
+     */
+    boolean tryReserve(long amount) {
+        final int index = creditIndex();
+        long credit;
+        while ((credit = mCredits.get(index)) >= amount) {
+            if (mCredits.compareAndSet(index, credit, credit - amount)) {
+                return true;
+            }
+        }
+
+        // take a whole chunk if there is room, so the next reserves stay local
+        if (amount < mChunk && reserveShared(mChunk)) {
+            mCredits.addAndGet(index, mChunk - amount);
+            return true;
+        }
+        return reserveShared(amount);
+    }
+
+    private boolean reserveShared(long amount) {
+        long size;
+        do {
+            size = mSize.get();
+            if (size + amount >= mMaxSize) {
+                return false;
+            }
+        } while (!mSize.compareAndSet(size, size + amount));
+        return true;
+    }
+
+    void release(long amount) {
+        final int index = creditIndex();
+        final long credit = mCredits.addAndGet(index, amount);
+        if (credit > 2 * mChunk && mCredits.compareAndSet(index, credit, mChunk)) {
+            mSize.addAndGet(mChunk - credit);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.devsmart;
+
+
+/**
+ * LSD radix sort of a row permutation by primitive keys. Keys are first mapped to
+ * integers whose unsigned order matches the order of the original values, then sorted
+ * 8 bits at a time. Every pass is stable, so sorting by the least significant key
+ * first and the most significant key last produces a multi-key ordering.
+ */
+final class RadixSort {
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int MASK = RADIX - 1;
+
+    private RadixSort() {
+    }
+
+    static int intKey(int value, boolean descending) {
+        int key = value ^ Integer.MIN_VALUE;
+        return descending ? ~key : key;
+    }
+
+    static long longKey(long value, boolean descending) {
+        long key = value ^ Long.MIN_VALUE;
+        return descending ? ~key : key;
+    }
+
+    /**
+     * same ordering as {@link Float#compare(float, float)}: -0.0 sorts before 0.0 and
+     * NaN sorts after positive infinity.
+     */
+    static int floatKey(float value, boolean descending) {
+        int bits = Float.floatToIntBits(value);
+        int key = bits ^ ((bits >> 31) | Integer.MIN_VALUE);
+        return descending ? ~key : key;
+    }
+
+    /**
+     * same ordering as {@link Double#compare(double, double)}: -0.0 sorts before 0.0 and
+     * NaN sorts after positive infinity.
+     */
+    static long doubleKey(double value, boolean descending) {
+        long bits = Double.doubleToLongBits(value);
+        long key = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+        return descending ? ~key : key;
+    }
+
+    /**
+     * stable sort of {@code order[0, n)} by the unsigned value of {@code keys}, where
+     * {@code keys[i]} is the key of {@code order[i]}. The content of {@code keys} is
+     * undefined afterwards.
+     */
+    static void sort(int[] order, int[] keys, int n) {
+        final int passes = 32 / RADIX_BITS;
+        final int[][] counts = new int[passes][RADIX];
+        for (int i = 0; i < n; i++) {
+            final int key = keys[i];
+            for (int p = 0; p < passes; p++) {
+                counts[p][(key >>> (p * RADIX_BITS)) & MASK]++;
+            }
+        }
+
+        int[] srcKeys = keys;
+        int[] srcOrder = order;
+        int[] dstKeys = null;
+        int[] dstOrder = null;
+
+        for (int p = 0; p < passes; p++) {
+            final int shift = p * RADIX_BITS;
+            final int[] count = counts[p];
+            if (!toOffsets(count, n)) {
+                // every key has the same digit in this pass
+                continue;
+            }
+
+            if (dstKeys == null) {
+                dstKeys = new int[n];
+                dstOrder = new int[n];
+            }
+
+            for (int i = 0; i < n; i++) {
+                final int key = srcKeys[i];
+                final int pos = count[(key >>> shift) & MASK]++;
+                dstKeys[pos] = key;
+                dstOrder[pos] = srcOrder[i];
+            }
+
+            int[] tmp = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = tmp;
+            tmp = srcOrder;
+            srcOrder = dstOrder;
+            dstOrder = tmp;
+        }
+
+        if (srcOrder != order) {
+            System.arraycopy(srcOrder, 0, order, 0, n);
+        }
+    }
+
+    /**
+     * stable sort of {@code order[0, n)} by the unsigned value of {@code keys}, where
+     * {@code keys[i]} is the key of {@code order[i]}. The content of {@code keys} is
+     * undefined afterwards.
+     */
+    static void sort(int[] order, long[] keys, int n) {
+        final int passes = 64 / RADIX_BITS;
+        final int[][] counts = new int[passes][RADIX];
+        for (int i = 0; i < n; i++) {
+            final long key = keys[i];
+            for (int p = 0; p < passes; p++) {
+                counts[p][(int) (key >>> (p * RADIX_BITS)) & MASK]++;
+            }
+        }
+
+        long[] srcKeys = keys;
+        int[] srcOrder = order;
+        long[] dstKeys = null;
+        int[] dstOrder = null;
+
+        for (int p = 0; p < passes; p++) {
+            final int shift = p * RADIX_BITS;
+            final int[] count = counts[p];
+            if (!toOffsets(count, n)) {
+                // every key has the same digit in this pass
+                continue;
+            }
+
+            if (dstKeys == null) {
+                dstKeys = new long[n];
+                dstOrder = new int[n];
+            }
+
+            for (int i = 0; i < n; i++) {
+                final long key = srcKeys[i];
+                final int pos = count[(int) (key >>> shift) & MASK]++;
+                dstKeys[pos] = key;
+                dstOrder[pos] = srcOrder[i];
+            }
+
+            long[] tmpKeys = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = tmpKeys;
+            int[] tmp = srcOrder;
+            srcOrder = dstOrder;
+            dstOrder = tmp;
+        }
+
+        if (srcOrder != order) {
+            System.arraycopy(srcOrder, 0, order, 0, n);
+        }
+    }
+
+    /**
+     * converts a digit histogram into starting offsets.
+     *
+     * @return false if all {@code n} keys fall into a single bucket and the pass can be skipped
+     */
+    private static boolean toOffsets(int[] count, int n) {
+        int sum = 0;
+        for (int d = 0; d < RADIX; d++) {
+            final int c = count[d];
+            if (c == n) {
+                return false;
+            }
+            count[d] = sum;
+            sum += c;
+        }
+        return true;
+    }
+}
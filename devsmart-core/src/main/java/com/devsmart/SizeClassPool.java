@@ -0,0 +1,329 @@
+package com.devsmart;
+
+
+import com.google.common.collect.MapMaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pool of arrays (or anything with a length) sorted into power-of-two size classes. Class
+ * {@code k} holds items whose length is in {@code [2^k, 2^(k+1))}, so any item of class
+ * {@code ceil(log2(n))} can serve a request for {@code n}.
+ * <p>
+ * Every size class is split into stripes, each a small stack with its own lock. A thread
+ * pushes to and pops from the stripe picked by its thread id, and only looks at the other
+ * stripes when its own is empty, so threads rarely contend for the same lock. Stripes take
+ * the place of thread-local caches: they need no cleanup when a thread ends, and an item
+ * freed by one thread can be found by another. The memory held by all stripes is bounded
+ * by a {@link PoolBudget}, which is striped the same way.
+ * <p>
+ * Hits, misses and rejected frees are counted per stripe as well, in separate cache lines,
+ * so the statistics do not add contention either.
+ * <p>
+ * Every pooled item is also kept in a concurrent set, so an item that is freed twice, from
+ * any thread, is rejected as a {@link #DUPLICATE} instead of being handed out to two
+ * callers. This set is the one structure shared by all threads on every free and hit;
+ * updates of different items only contend when they hash to the same bucket.
+ */
+abstract class SizeClassPool<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SizeClassPool.class);
+
+    static final int NUM_CLASSES = 32;
+
+    /**
+     * Number of most recently pooled items of a stripe that are looked at for one that is
+     * long enough.
+     */
+    private static final int SEARCH_DEPTH = 16;
+
+    private static final class Stripe {
+        Object[] items = new Object[8];
+        int[] lengths = new int[8];
+        int size;
+
+        /**
+         * read without the lock to skip empty stripes
+         */
+        volatile int sizeHint;
+    }
+
+    /**
+     * counters, indices into the counter block of each stripe
+     */
+    static final int HITS = 0;
+    static final int MISSES = 1;
+    static final int OVERSIZE = 2;
+    static final int OVERSIZE_UNITS = 3;
+    static final int FULL = 4;
+    static final int DUPLICATE = 5;
+
+    /**
+     * 8 longs: one cache line per stripe
+     */
+    private static final int COUNTER_STRIDE_SHIFT = 3;
+
+    private final String mName;
+    private final PoolBudget mBudget;
+    private final int mUnitShift;
+    private final int mStripeMask;
+    private final Stripe[][] mStripes;
+    private final AtomicLongArray mCounters;
+
+    /**
+     * the items in the pool, to reject double frees
+     */
+    private final Set<Object> mPooled;
+    private volatile LeakTracker mLeakTracker;
+
+    /**
+     * a pool of arrays, or of items whose {@code equals} is identity
+     */
+    SizeClassPool(String name, PoolBudget budget, int unitShift) {
+        this(name, budget, unitShift, false);
+    }
+
+    /**
+     * @param name            used in log messages
+     * @param budget          the budget charged for pooled items
+     * @param unitShift       an item of length {@code n} is charged {@code n << unitShift}
+     * @param equalsByContent true if the items override {@code equals}, like buffers do. Such
+     *                        pools track their items in a slower identity map.
+     */
+    SizeClassPool(String name, PoolBudget budget, int unitShift, boolean equalsByContent) {
+        mName = name;
+        mBudget = budget;
+        mUnitShift = unitShift;
+
+        int numStripes = 1;
+        while (numStripes < Runtime.getRuntime().availableProcessors()) {
+            numStripes <<= 1;
+        }
+        mStripeMask = numStripes - 1;
+        mStripes = new Stripe[NUM_CLASSES][numStripes];
+        for (Stripe[] stripes : mStripes) {
+            for (int i = 0; i < numStripes; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+        // one spare block so the first stripe does not share a line with the array header
+        mCounters = new AtomicLongArray((numStripes + 1) << COUNTER_STRIDE_SHIFT);
+        if (equalsByContent) {
+            // weak keys are compared by identity; the stripes hold the items strongly
+            mPooled = Collections.newSetFromMap(new MapMaker()
+                    .concurrencyLevel(numStripes)
+                    .weakKeys()
+                    .<Object, Boolean>makeMap());
+        } else {
+            mPooled = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>(16, 0.75f, numStripes));
+        }
+    }
+
+    /**
+     * creates a new item of exactly {@code length}
+     */
+    abstract T create(int length);
+
+    abstract int lengthOf(T item);
+
+    /**
+     * @return the size class whose items all have a length of at least {@code length}
+     */
+    static int ceilClass(int length) {
+        return length <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+
+    /**
+     * @return the size class an item of {@code length} is stored in
+     */
+    static int floorClass(int length) {
+        return 31 - Integer.numberOfLeadingZeros(length);
+    }
+
+    /**
+     * @return the length to allocate when the pool has no item for a request of
+     * {@code length}: rounded up to a power of two so the new item can serve any request
+     * of its size class once it is released
+     */
+    static int allocationLength(int length) {
+        return length <= 1 ? 1 : length > (1 << 30) ? length : 1 << ceilClass(length);
+    }
+
+    private int stripeIndex() {
+        return (int) Thread.currentThread().getId() & mStripeMask;
+    }
+
+    private void count(int stripe, int counter, long delta) {
+        mCounters.addAndGet(((stripe + 1) << COUNTER_STRIDE_SHIFT) + counter, delta);
+    }
+
+    /**
+     * @return the sum of {@code counter} over all stripes
+     */
+    long getCount(int counter) {
+        long retval = 0;
+        for (int i = 0; i <= mStripeMask; i++) {
+            retval += mCounters.get(((i + 1) << COUNTER_STRIDE_SHIFT) + counter);
+        }
+        return retval;
+    }
+
+    /**
+     * the number of units wasted by handing out items longer than requested
+     */
+    long getOversizeUnits() {
+        return getCount(OVERSIZE_UNITS) << mUnitShift;
+    }
+
+    /**
+     * @return a pooled item with a length of at least {@code length}, or a new one
+     */
+    T alloc(int length) {
+        final int stripe = stripeIndex();
+        T retval = poll(length);
+        if (retval != null) {
+            count(stripe, HITS, 1);
+        } else {
+            count(stripe, MISSES, 1);
+            retval = create(allocationLength(length));
+        }
+        final int itemLength = lengthOf(retval);
+        if (itemLength > length) {
+            count(stripe, OVERSIZE, 1);
+            count(stripe, OVERSIZE_UNITS, itemLength - length);
+        }
+
+        final LeakTracker tracker = mLeakTracker;
+        if (tracker != null) {
+            tracker.track(retval);
+        }
+        return retval;
+    }
+
+    /**
+     * returns {@code item} to the pool.
+     *
+     * @return {@link #POOLED}, {@link #FULL} if the budget is used up or {@link #DUPLICATE}
+     * if the item is already in the pool
+     */
+    int free(T item) {
+        final LeakTracker tracker = mLeakTracker;
+        if (tracker != null && !tracker.untrack(item)) {
+            logger.warn("{} freed that was not allocated by the pool or was freed twice", mName,
+                    new Throwable("freed here"));
+        }
+
+        final int retval = offer(item, lengthOf(item));
+        if (retval != POOLED) {
+            count(stripeIndex(), retval, 1);
+        }
+        return retval;
+    }
+
+    /**
+     * turns recording of allocation stacks on or off, see {@link LeakTracker}
+     */
+    void setLeakTracking(boolean enabled) {
+        mLeakTracker = enabled ? new LeakTracker(mName) : null;
+    }
+
+    LeakTracker getLeakTracker() {
+        return mLeakTracker;
+    }
+
+    /**
+     * @return a pooled item with a length of at least {@code length}, or null
+     */
+    @SuppressWarnings("unchecked")
+    private T poll(int length) {
+        final int home = stripeIndex();
+        final int sizeClass = ceilClass(length);
+        if (sizeClass < NUM_CLASSES) {
+            final Stripe[] stripes = mStripes[sizeClass];
+            for (int i = 0; i <= mStripeMask; i++) {
+                final Stripe stripe = stripes[(home + i) & mStripeMask];
+                if (stripe.sizeHint > 0) {
+                    Object item = pop(stripe, 0);
+                    if (item != null) {
+                        return (T) item;
+                    }
+                }
+            }
+        }
+
+        // items of the class below may still be long enough, for example an array
+        // that was created outside of the pool with exactly the requested length
+        if (length > 1 && floorClass(length) != sizeClass) {
+            final Stripe stripe = mStripes[floorClass(length)][home];
+            if (stripe.sizeHint > 0) {
+                return (T) pop(stripe, length);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * pops the most recently pushed item of {@code stripe} with a length of at least
+     * {@code minLength}, looking at the top {@link #SEARCH_DEPTH} items only.
+     */
+    private Object pop(Stripe stripe, int minLength) {
+        synchronized (stripe) {
+            final int bottom = Math.max(0, stripe.size - SEARCH_DEPTH);
+            for (int i = stripe.size - 1; i >= bottom; i--) {
+                final int length = stripe.lengths[i];
+                if (length >= minLength) {
+                    final Object item = stripe.items[i];
+                    final int top = --stripe.size;
+                    stripe.items[i] = stripe.items[top];
+                    stripe.lengths[i] = stripe.lengths[top];
+                    stripe.items[top] = null;
+                    stripe.sizeHint = top;
+                    mBudget.release((long) length << mUnitShift);
+                    mPooled.remove(item);
+                    return item;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * result of {@link #offer(Object, int)} and {@link #free(Object)} when the item was
+     * pooled; otherwise the counter of the reason, {@link #FULL} or {@link #DUPLICATE}
+     */
+    static final int POOLED = -1;
+
+    /**
+     * adds {@code item} of {@code length} to the pool.
+     */
+    private int offer(T item, int length) {
+        if (length <= 0) {
+            return FULL;
+        }
+        if (!mPooled.add(item)) {
+            return DUPLICATE;
+        }
+        final Stripe stripe = mStripes[floorClass(length)][stripeIndex()];
+        synchronized (stripe) {
+            if (!mBudget.tryReserve((long) length << mUnitShift)) {
+                mPooled.remove(item);
+                return FULL;
+            }
+
+            if (stripe.size == stripe.items.length) {
+                stripe.items = Arrays.copyOf(stripe.items, stripe.size * 2);
+                stripe.lengths = Arrays.copyOf(stripe.lengths, stripe.size * 2);
+            }
+            stripe.items[stripe.size] = item;
+            stripe.lengths[stripe.size] = length;
+            stripe.sizeHint = ++stripe.size;
+        }
+        return POOLED;
+    }
+}
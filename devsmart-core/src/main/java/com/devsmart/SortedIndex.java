@@ -0,0 +1,208 @@
+package com.devsmart;
+
+
+import com.google.common.collect.Ordering;
+
+import java.util.Comparator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A sorted permutation of the rows of an {@link ArrayTable}, created with
+ * {@link ArrayTable#createSortedIndex(int)}. It gives range and point lookups on a column
+ * by binary search without sorting the table itself; rows with equal keys keep their
+ * table order. For example, to visit the rows with {@code lo <= key < hi}:
+ * <pre>
+ *     for (int i = index.lowerBound(lo), end = index.lowerBound(hi); i < end; i++) {
+ *         int row = index.row(i);
+ *         ...
+ *     }
+ * </pre>
+ * Indexes can be created on int, long, float and double columns, and on columns of a
+ * {@link Comparable} type, which are ordered by their natural ordering with nulls first.
+ * <p>
+ * The index is rebuilt on first use after rows were added, removed or moved (including
+ * {@code sort()} and {@code shuffle()}) or a cell of the indexed column was set. Writes made
+ * directly to an array passed to {@link ArrayTable#createWithColumns(Object...)} are not detected.
+ * <p>
+ * Not thread safe; lookups may rebuild the index.
+ */
+public class SortedIndex {
+
+    private final ArrayTable mTable;
+    private final int mColumn;
+    private final Class<?> mType;
+    private final ArrayTable.RowComparator mComparator;
+
+    /**
+     * the ordering of Object columns
+     */
+    private final Comparator<Object> mOrdering = naturalNullsFirst();
+    private long mVersion = -1;
+    private int[] mOrder;
+
+    SortedIndex(ArrayTable table, int column) {
+        mTable = table;
+        mColumn = column;
+        mType = table.getColumnType(column);
+        ArrayTable.ChainedRowComparator.Builder builder = new ArrayTable.ChainedRowComparator.Builder(table);
+        if (mType.isPrimitive()) {
+            checkArgument(mType == int.class || mType == long.class || mType == float.class || mType == double.class,
+                    "sorted indexes do not support %s columns", mType);
+            builder.byColumnAsc(column);
+        } else {
+            checkArgument(Comparable.class.isAssignableFrom(mType),
+                    "sorted indexes require a Comparable column type, not %s", mType.getName());
+            builder.add(new ArrayTable.ObjRowComparator<Object>(column, mOrdering));
+        }
+        mComparator = builder.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparator<Object> naturalNullsFirst() {
+        return (Comparator<Object>) (Comparator<?>) Ordering.natural().nullsFirst();
+    }
+
+    public ArrayTable getTable() {
+        return mTable;
+    }
+
+    public int getColumn() {
+        return mColumn;
+    }
+
+    private void ensureCurrent() {
+        final long version = mTable.version(mColumn);
+        if (version != mVersion) {
+            mOrder = mTable.sortedOrder(mComparator);
+            mVersion = version;
+        }
+    }
+
+    public int size() {
+        ensureCurrent();
+        return mOrder.length;
+    }
+
+    /**
+     * @return the table row at sorted position {@code pos}
+     */
+    public int row(int pos) {
+        ensureCurrent();
+        return mOrder[pos];
+    }
+
+    /**
+     * @return the first position whose key is not less than {@code key}, or {@link #size()}
+     */
+    public int lowerBound(long key) {
+        return search(key, false);
+    }
+
+    /**
+     * @return the first position whose key is greater than {@code key}, or {@link #size()}
+     */
+    public int upperBound(long key) {
+        return search(key, true);
+    }
+
+    public int lowerBound(double key) {
+        return search(key, false);
+    }
+
+    public int upperBound(double key) {
+        return search(key, true);
+    }
+
+    /**
+     * bounds for Object columns, which are ordered by their natural ordering; null is less
+     * than any other key
+     */
+    public int lowerBound(Comparable<?> key) {
+        return search(key, false);
+    }
+
+    public int upperBound(Comparable<?> key) {
+        return search(key, true);
+    }
+
+    /**
+     * @return the first row whose key equals {@code key}, or -1 if there is none
+     */
+    public int find(long key) {
+        final int pos = lowerBound(key);
+        return pos < mOrder.length && compareKey(mOrder[pos], key) == 0 ? mOrder[pos] : -1;
+    }
+
+    private int compareKey(int row, long key) {
+        if (mType == int.class) {
+            return Long.compare(mTable.getInt(row, mColumn), key);
+        } else if (mType == long.class) {
+            return Long.compare(mTable.getLong(row, mColumn), key);
+        } else {
+            throw new IllegalStateException("column is not an int or long column");
+        }
+    }
+
+    private int compareKey(int row, double key) {
+        if (mType == float.class) {
+            return Double.compare(mTable.getFloat(row, mColumn), key);
+        } else if (mType == double.class) {
+            return Double.compare(mTable.getDouble(row, mColumn), key);
+        } else {
+            throw new IllegalStateException("column is not a float or double column");
+        }
+    }
+
+    private int compareKey(int row, Object key) {
+        return mOrdering.compare(mTable.getObject(row, mColumn), key);
+    }
+
+    private int search(long key, boolean upper) {
+        ensureCurrent();
+        int low = 0;
+        int high = mOrder.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final int c = compareKey(mOrder[mid], key);
+            if (c < 0 || (upper && c == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int search(double key, boolean upper) {
+        ensureCurrent();
+        int low = 0;
+        int high = mOrder.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final int c = compareKey(mOrder[mid], key);
+            if (c < 0 || (upper && c == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int search(Object key, boolean upper) {
+        ensureCurrent();
+        int low = 0;
+        int high = mOrder.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final int c = compareKey(mOrder[mid], key);
+            if (c < 0 || (upper && c == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
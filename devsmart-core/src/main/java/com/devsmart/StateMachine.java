@@ -4,10 +4,15 @@ package com.devsmart;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
-
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A state machine over enum states and inputs. Transitions are kept in a table indexed by
+ * the ordinals of the start state and the input, so {@link #input(Enum, Object)} is an array
+ * lookup and a compare-and-set of the current state; it takes no lock and does not allocate.
+ * Concurrent inputs each see a distinct state change, but their listeners may be notified
+ * in a different order.
+ */
 public class StateMachine<S extends Enum<?>, I extends Enum<?>> {
 
     private static final Logger sLogger = LoggerFactory.getLogger(StateMachine.class);
@@ -16,53 +21,83 @@ public class StateMachine<S extends Enum<?>, I extends Enum<?>> {
         void onStateChanged(StateMachine<S, I> stateMachine, S lastState, S newState, I input, Object data);
     }
 
-    private class Transition {
-        public final S startState;
-        public final I input;
+    private static final Object[] NO_TRANSITIONS = new Object[0];
+
+    /**
+     * the end state of every transition, at {@code startState.ordinal() * mInputCount +
+     * input.ordinal()}; null until the first {@link #configure(Enum, Enum, Enum)}. Guarded
+     * by {@code this}.
+     */
+    private Object[] mTable;
+
+    /**
+     * a copy of {@link #mTable} that is never modified, so {@link #input(Enum, Object)} can
+     * read it without a lock, or null if the table changed since. Copied at most once per
+     * batch of changes, on the first lookup after them.
+     */
+    private volatile Object[] mTransitions = NO_TRANSITIONS;
+    private int mInputCount;
+    private final int mStateCount;
+    private final ListenerRegistry<StateChangeListener<S, I>> mListeners = new ListenerRegistry<StateChangeListener<S, I>>();
+    private final AtomicReference<S> mState;
 
-        private Transition(S startState, I input) {
-            this.startState = startState;
-            this.input = input;
-        }
+    public StateMachine(S init) {
+        mState = new AtomicReference<S>(init);
+        mStateCount = init.getDeclaringClass().getEnumConstants().length;
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            Transition other = (Transition)o;
-            return startState == other.startState && input == other.input;
+    public synchronized void configure(S startState, I input, S endState) {
+        if(mTable == null) {
+            mInputCount = input.getDeclaringClass().getEnumConstants().length;
+            mTable = new Object[mStateCount * mInputCount];
         }
+        mTable[startState.ordinal() * mInputCount + input.ordinal()] = endState;
+        mTransitions = null;
+    }
 
-        @Override
-        public int hashCode() {
-            return startState.hashCode() ^ input.hashCode();
+    private Object[] transitions() {
+        Object[] retval = mTransitions;
+        if(retval == null) {
+            synchronized (this) {
+                retval = mTransitions;
+                if(retval == null) {
+                    retval = mTable.clone();
+                    mTransitions = retval;
+                }
+            }
         }
+        return retval;
     }
 
-
-    private HashMap<Transition, S> mTransisition = new HashMap<Transition, S>();
-    private Set<StateChangeListener<S, I>> mListeners = new CopyOnWriteArraySet<StateChangeListener<S, I>>();
-    private S mState;
-
-    public StateMachine(S init) {
-        mState = init;
+    /**
+     * @return the state {@code input} leads to from {@code state}, or null if there is no
+     * such transition
+     */
+    public S getTransition(S state, I input) {
+        return lookup(transitions(), state, input);
     }
 
-    public void configure(S startState, I input, S endState) {
-        mTransisition.put(new Transition(startState, input), endState);
+    @SuppressWarnings("unchecked")
+    private S lookup(Object[] transitions, S state, I input) {
+        if(transitions.length == 0) {
+            return null;
+        }
+        return (S) transitions[state.ordinal() * mInputCount + input.ordinal()];
     }
 
     public void input(I input, Object data){
-        Transition arc = new Transition(mState, input);
-        S nextState = mTransisition.get(arc);
-        if(nextState != null) {
-            S oldState;
-            synchronized (this) {
-                oldState = mState;
-                mState = nextState;
+        final Object[] transitions = transitions();
+        S oldState;
+        S nextState;
+        do {
+            oldState = mState.get();
+            nextState = lookup(transitions, oldState, input);
+            if(nextState == null) {
+                sLogger.debug("no possible transition from: {} with input: {}", oldState, input);
+                return;
             }
-            notifyStateChanged(oldState, mState, input, data);
-        } else {
-            sLogger.debug("no possible transition from: {} with input: {}", mState, input);
-        }
+        } while(!mState.compareAndSet(oldState, nextState));
+        notifyStateChanged(oldState, nextState, input, data);
     }
 
     private void notifyStateChanged(S oldState, S newState, I input, Object data) {
@@ -75,11 +110,18 @@ public class StateMachine<S extends Enum<?>, I extends Enum<?>> {
         mListeners.add(listener);
     }
 
+    /**
+     * adds {@code listener} without keeping it from being garbage collected
+     */
+    public void addWeakListener(StateChangeListener<S, I> listener){
+        mListeners.addWeak(listener);
+    }
+
     public void removeListener(StateChangeListener<S, I> listener){
         mListeners.remove(listener);
     }
 
-    public synchronized S getState() {
-        return mState;
+    public S getState() {
+        return mState.get();
     }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package com.devsmart;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for hot paths. Threads add to one of several cells picked by thread id, each
+ * on its own cache line, so concurrent increments rarely contend; {@link #sum()} adds up the
+ * cells.
+ */
+final class StripedCounter {
+
+    /**
+     * 8 longs: one cache line per cell
+     */
+    private static final int STRIDE_SHIFT = 3;
+
+    private final AtomicLongArray mCells;
+    private final int mMask;
+
+    StripedCounter() {
+        int cells = 1;
+        while (cells < Runtime.getRuntime().availableProcessors()) {
+            cells <<= 1;
+        }
+        mMask = cells - 1;
+        // one spare cell so the first does not share a line with the array header
+        mCells = new AtomicLongArray((cells + 1) << STRIDE_SHIFT);
+    }
+
+    void add(long delta) {
+        final int cell = ((int) Thread.currentThread().getId() & mMask) + 1;
+        mCells.addAndGet(cell << STRIDE_SHIFT, delta);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    long sum() {
+        long retval = 0;
+        for (int i = 1; i <= mMask + 1; i++) {
+            retval += mCells.get(i << STRIDE_SHIFT);
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,270 @@
+package com.devsmart;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Columnar on-disk table format. All values are little-endian.
+ * <pre>
+ * header:
+ *   int    magic "DSAT"
+ *   int    version
+ *   int    header length in bytes
+ *   int    number of columns
+ *   int    number of rows
+ *   per column:
+ *     int    type (see TYPE_* constants)
+ *     long   file offset of the column data
+ *     int    name length in bytes, -1 if the column has no name
+ *     byte[] name, UTF-8
+ * column data:
+ *   one contiguous block of rows values per column, each starting on a
+ *   {@link #ALIGNMENT} byte boundary. Booleans are stored as one byte.
+ * </pre>
+ * Because column blocks hold raw values, a saved table can be memory-mapped and read
+ * without parsing or copying.
+ */
+final class TableFile {
+
+    static final int MAGIC = 0x54415344;
+    static final int VERSION = 1;
+    static final int ALIGNMENT = 64;
+
+    private static final int TYPE_INT = 1;
+    private static final int TYPE_LONG = 2;
+    private static final int TYPE_FLOAT = 3;
+    private static final int TYPE_DOUBLE = 4;
+    private static final int TYPE_BOOLEAN = 5;
+
+    /**
+     * Rows per mapped region. Each region is its own mapping, so this is kept large to
+     * stay well below the OS limit on the number of mappings.
+     */
+    private static final int MAP_CHUNK_ROWS = 1 << 24;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private TableFile() {
+    }
+
+    private static int typeCode(Class<?> type) {
+        if (type == int.class) {
+            return TYPE_INT;
+        } else if (type == long.class) {
+            return TYPE_LONG;
+        } else if (type == float.class) {
+            return TYPE_FLOAT;
+        } else if (type == double.class) {
+            return TYPE_DOUBLE;
+        } else if (type == boolean.class) {
+            return TYPE_BOOLEAN;
+        } else {
+            throw new IllegalArgumentException("column type can not be saved: " + type);
+        }
+    }
+
+    private static Class<?> typeFromCode(int code) throws IOException {
+        switch (code) {
+            case TYPE_INT:
+                return int.class;
+            case TYPE_LONG:
+                return long.class;
+            case TYPE_FLOAT:
+                return float.class;
+            case TYPE_DOUBLE:
+                return double.class;
+            case TYPE_BOOLEAN:
+                return boolean.class;
+            default:
+                throw new IOException("unknown column type: " + code);
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) & ~(long) (ALIGNMENT - 1);
+    }
+
+    /**
+     * writes the first {@code rows} values of each column array to {@code file}.
+     */
+    static void save(File file, Class<?>[] types, String[] names, Object[] columns, int rows) throws IOException {
+        final int numColumns = types.length;
+        byte[][] nameBytes = new byte[numColumns][];
+        int headerLength = 5 * 4;
+        for (int i = 0; i < numColumns; i++) {
+            typeCode(types[i]); // fail before creating the file
+            nameBytes[i] = names[i] != null ? names[i].getBytes(UTF8) : null;
+            headerLength += 4 + 8 + 4 + (nameBytes[i] != null ? nameBytes[i].length : 0);
+        }
+
+        long[] offsets = new long[numColumns];
+        long offset = align(headerLength);
+        for (int i = 0; i < numColumns; i++) {
+            offsets[i] = offset;
+            offset = align(offset + ((long) rows << OffHeapTable.widthShift(types[i])));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(headerLength);
+        header.putInt(numColumns);
+        header.putInt(rows);
+        for (int i = 0; i < numColumns; i++) {
+            header.putInt(typeCode(types[i]));
+            header.putLong(offsets[i]);
+            if (nameBytes[i] == null) {
+                header.putInt(-1);
+            } else {
+                header.putInt(nameBytes[i].length);
+                header.put(nameBytes[i]);
+            }
+        }
+        header.flip();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            writeFully(channel, header, 0);
+
+            ByteBuffer buffer = ArrayAllocator.getDefault().allocDirect(IOUtils.DEFAULT_BUFFER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                for (int i = 0; i < numColumns; i++) {
+                    writeColumn(channel, buffer, types[i], columns[i], rows, offsets[i]);
+                }
+            } finally {
+                ArrayAllocator.getDefault().free(buffer);
+            }
+            raf.setLength(offset);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeColumn(FileChannel channel, ByteBuffer buffer, Class<?> type,
+                                    Object column, int rows, long position) throws IOException {
+        final int shift = OffHeapTable.widthShift(type);
+        final int step = buffer.capacity() >> shift;
+
+        for (int start = 0; start < rows; start += step) {
+            final int len = Math.min(step, rows - start);
+            buffer.clear();
+            if (type == int.class) {
+                buffer.asIntBuffer().put((int[]) column, start, len);
+            } else if (type == long.class) {
+                buffer.asLongBuffer().put((long[]) column, start, len);
+            } else if (type == float.class) {
+                buffer.asFloatBuffer().put((float[]) column, start, len);
+            } else if (type == double.class) {
+                buffer.asDoubleBuffer().put((double[]) column, start, len);
+            } else {
+                final boolean[] values = (boolean[]) column;
+                for (int i = 0; i < len; i++) {
+                    buffer.put(i, values[start + i] ? (byte) 1 : (byte) 0);
+                }
+            }
+            buffer.limit(len << shift);
+            position += writeFully(channel, buffer, position);
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    /**
+     * memory-maps a file written by {@link #save(File, Class[], String[], Object[], int)}.
+     * The returned table reads directly from the mapping and can not be modified.
+     */
+    static OffHeapTable mapReadOnly(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            final long fileLength = channel.size();
+
+            ByteBuffer fixed = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, fixed, 0);
+            if (fixed.getInt(0) != MAGIC) {
+                throw new IOException("not a table file: " + file);
+            }
+            if (fixed.getInt(4) != VERSION) {
+                throw new IOException("unsupported table file version: " + fixed.getInt(4));
+            }
+            final int headerLength = fixed.getInt(8);
+            if (headerLength < 20 || headerLength > fileLength) {
+                throw new IOException("corrupt table file header");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            header.position(12);
+            final int numColumns = header.getInt();
+            final int rows = header.getInt();
+            // every column takes at least its type, offset and name length
+            if (numColumns < 0 || numColumns > header.remaining() / (4 + 8 + 4) || rows < 0) {
+                throw new IOException("corrupt table file");
+            }
+
+            Class<?>[] types = new Class<?>[numColumns];
+            String[] names = new String[numColumns];
+            long[] offsets = new long[numColumns];
+            for (int i = 0; i < numColumns; i++) {
+                types[i] = typeFromCode(header.getInt());
+                offsets[i] = header.getLong();
+                final int nameLength = header.getInt();
+                if (offsets[i] < 0 || nameLength < -1 || nameLength > header.remaining()) {
+                    throw new IOException("corrupt table file");
+                }
+                if (nameLength >= 0) {
+                    byte[] name = new byte[nameLength];
+                    header.get(name);
+                    names[i] = new String(name, UTF8);
+                }
+                if (offsets[i] + ((long) rows << OffHeapTable.widthShift(types[i])) > fileLength) {
+                    throw new IOException("table file is truncated");
+                }
+            }
+
+            final int chunkShift = Integer.numberOfTrailingZeros(MAP_CHUNK_ROWS);
+            final int numChunks = (int) (((long) rows + MAP_CHUNK_ROWS - 1) >>> chunkShift);
+            ByteBuffer[][] chunks = new ByteBuffer[numColumns][numChunks];
+            for (int i = 0; i < numColumns; i++) {
+                final int shift = OffHeapTable.widthShift(types[i]);
+                for (int c = 0; c < numChunks; c++) {
+                    final long start = (long) c << chunkShift;
+                    final long len = Math.min(MAP_CHUNK_ROWS, rows - start);
+                    chunks[i][c] = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i] + (start << shift), len << shift)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+
+            // mappings stay valid after the channel is closed
+            return new OffHeapTable(types, names, chunkShift, chunks, rows, rows, false);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            int r = channel.read(buffer, position + read);
+            if (r < 0) {
+                throw new IOException("unexpected end of table file");
+            }
+            read += r;
+        }
+    }
+}
@@ -4,61 +4,646 @@ package com.devsmart;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * TaskQueue are useful when you need to run a number of tasks (Runnable) sequentially. TaskQueue
  * tasks run on the given ExecutorService, but are guaranteed to run in series, even if the ExecutorService
  * is allowed to run with multiple threads. This is commonly used in conjunction with {@link ThreadUtils#CPUThreads}.
+ * <p>
+ * Tasks are queued on a lock-free queue. Only one executor submission is outstanding at a
+ * time, and it runs queued tasks back to back until the queue is empty or the batch limits
+ * are reached, then yields the executor thread by submitting itself again. Raising the
+ * limits improves throughput of busy queues; lowering them lets other work on a shared
+ * executor run sooner.
+ * <p>
+ * A queue built with a {@link Builder#capacity(int, OverflowPolicy) capacity} holds at most
+ * that many tasks waiting to run; what happens to further tasks is set by its
+ * {@link OverflowPolicy}. Tasks submitted with {@link #executeCoalesced(Object, Runnable)}
+ * replace a waiting task with the same key instead of queueing behind it, which bounds
+ * queues of "refresh" style work without losing the latest request.
  */
 public class TaskQueue {
 
     static Logger logger = LoggerFactory.getLogger(TaskQueue.class);
 
-    class Task implements Runnable {
+    public static final int DEFAULT_MAX_BATCH = 256;
+    public static final long DEFAULT_MAX_BATCH_TIME_MS = 1;
+
+    /**
+     * what {@link #execute(Runnable)} does when the queue is at capacity
+     */
+    public enum OverflowPolicy {
+        /**
+         * wait until a task has been taken off the queue. Tasks of the queue itself must not
+         * submit to it with this policy, since the queue cannot make room while they wait.
+         */
+        BLOCK,
+
+        /**
+         * throw {@link RejectedExecutionException}
+         */
+        REJECT,
+
+        /**
+         * discard the oldest waiting task to make room. A discarded {@link Future} is
+         * cancelled.
+         */
+        DROP_OLDEST
+    }
+
+    public static class Builder {
+
+        private final Executor mService;
+        private int mMaxBatch = DEFAULT_MAX_BATCH;
+        private long mMaxBatchNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_BATCH_TIME_MS);
+        private int mCapacity = Integer.MAX_VALUE;
+        private OverflowPolicy mPolicy = OverflowPolicy.REJECT;
+
+        public Builder(Executor service) {
+            mService = service;
+        }
+
+        /**
+         * @param maxBatch     the maximum number of tasks run per executor submission
+         * @param maxBatchTime once a batch has run this long, the rest of the queue is left
+         *                     for the next submission
+         */
+        public Builder batch(int maxBatch, long maxBatchTime, TimeUnit unit) {
+            checkArgument(maxBatch > 0 && maxBatchTime > 0);
+            mMaxBatch = maxBatch;
+            mMaxBatchNanos = unit.toNanos(maxBatchTime);
+            return this;
+        }
+
+        /**
+         * @param capacity the maximum number of tasks waiting to run, not counting the one
+         *                 that is running
+         */
+        public Builder capacity(int capacity, OverflowPolicy policy) {
+            checkArgument(capacity > 0);
+            mCapacity = capacity;
+            mPolicy = policy;
+            return this;
+        }
+
+        public TaskQueue build() {
+            return new TaskQueue(this);
+        }
+    }
+
+    /**
+     * a queued task. The runnable is taken with {@code getAndSet(null)} by whoever runs or
+     * drops it; until then, a coalesced submission may swap in a newer one.
+     */
+    private static final class Entry extends AtomicReference<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        final Object coalesceKey;
+
+        /**
+         * set for sampled entries only, 0 otherwise
+         */
+        long enqueueTime;
 
-        private final Runnable run;
-        public Task(Runnable runnable) {
-            this.run = runnable;
+        Entry(Runnable task, Object coalesceKey) {
+            super(task);
+            this.coalesceKey = coalesceKey;
         }
+    }
+
+    /**
+     * put in the entry of a task whose submission was rejected; the drainer skips it
+     */
+    private static final Runnable REVOKED = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
 
+    /**
+     * queue latency is measured for one in 8 tasks; reading the clock for every task would
+     * cost more than running a small one
+     */
+    private static final int LATENCY_SAMPLE_MASK = 7;
+
+    private final Runnable mDrainer = new Runnable() {
         @Override
         public void run() {
+            drain();
+        }
+    };
+
+    private final Executor mService;
+    private final int mMaxBatch;
+    private final long mMaxBatchNanos;
+    private final int mCapacity;
+    private final boolean mBounded;
+    private final OverflowPolicy mPolicy;
+    private final MpscQueue<Entry> mRunQueue = new MpscQueue<Entry>();
+    private final ConcurrentMap<Object, Entry> mCoalescing = new ConcurrentHashMap<Object, Entry>();
+
+    /**
+     * true while the drainer is submitted or running; whoever sets it owns the consumer side
+     * of {@link #mRunQueue}
+     */
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    /**
+     * the number of tasks waiting to run
+     */
+    private final AtomicInteger mSize = new AtomicInteger();
+    private volatile int mPeakSize;
+
+    /**
+     * threads blocked in {@link #execute(Runnable)} or {@link #awaitIdle(long, TimeUnit)};
+     * the drainer only touches {@link #mLock} when there are some
+     */
+    private final AtomicInteger mWaiters = new AtomicInteger();
+    private final Object mLock = new Object();
+
+    private volatile boolean mShutdown;
+    private volatile boolean mDiscard;
+
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+    private final AtomicLong mSampled = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private volatile long mMaxWaitNanos;
+
+    /**
+     * counts submissions to pick the sampled ones. Incremented without synchronization:
+     * a lost update only shifts which task is sampled.
+     */
+    private int mSubmissions;
+
+    public TaskQueue(Executor service) {
+        this(new Builder(service));
+    }
+
+    /**
+     * kept so that code compiled against earlier versions still links
+     */
+    public TaskQueue(ExecutorService service) {
+        this((Executor) service);
+    }
 
+    /**
+     * @param maxBatch     the maximum number of tasks run per executor submission
+     * @param maxBatchTime once a batch has run this long, the rest of the queue is left for
+     *                     the next submission
+     */
+    public TaskQueue(Executor service, int maxBatch, long maxBatchTime, TimeUnit unit) {
+        this(new Builder(service).batch(maxBatch, maxBatchTime, unit));
+    }
+
+    private TaskQueue(Builder builder) {
+        mService = builder.mService;
+        mMaxBatch = builder.mMaxBatch;
+        mMaxBatchNanos = builder.mMaxBatchNanos;
+        mCapacity = builder.mCapacity;
+        mBounded = mCapacity != Integer.MAX_VALUE;
+        mPolicy = builder.mPolicy;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the queue is shut down, or is full and its
+     *                                    policy is {@link OverflowPolicy#REJECT}
+     */
+    public void execute(Runnable runnable) {
+        enqueue(new Entry(runnable, null));
+    }
+
+    public <V> Future<V> submit(Callable<V> callable) {
+        FutureTask<V> retval = new FutureTask<V>(callable);
+        execute(retval);
+        return retval;
+    }
+
+    public Future<?> submit(Runnable runnable) {
+        FutureTask<Object> retval = new FutureTask<Object>(runnable, null);
+        execute(retval);
+        return retval;
+    }
+
+    /**
+     * Queues {@code runnable}, unless a task submitted with the same {@code key} is still
+     * waiting to run: then {@code runnable} takes its place in the queue instead and the
+     * older task is never run.
+     */
+    public void executeCoalesced(Object key, Runnable runnable) {
+        checkArgument(key != null, "key must not be null");
+        if (mShutdown) {
+            throw new RejectedExecutionException("TaskQueue is shut down");
+        }
+        while (true) {
+            Entry entry = mCoalescing.get(key);
+            if (entry != null) {
+                Runnable waiting = entry.get();
+                if (waiting != null && waiting != REVOKED && entry.compareAndSet(waiting, runnable)) {
+                    mCoalesced.incrementAndGet();
+                    return;
+                }
+                // already taken by the drainer
+                mCoalescing.remove(key, entry);
+            }
+
+            Entry newEntry = new Entry(runnable, key);
+            if (mCoalescing.putIfAbsent(key, newEntry) == null) {
+                try {
+                    enqueue(newEntry);
+                } catch (RejectedExecutionException e) {
+                    mCoalescing.remove(key, newEntry);
+                    throw e;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException if the queue or its executor refused the task, in
+     *                                    which case it will not run
+     */
+    private void enqueue(Entry entry) {
+        final Runnable task = entry.get();
+        if (mShutdown) {
+            throw new RejectedExecutionException("TaskQueue is shut down");
+        }
+        while (tryReserve() < 0) {
+            switch (mPolicy) {
+                case REJECT:
+                    mRejected.incrementAndGet();
+                    throw new RejectedExecutionException("TaskQueue is full");
+
+                case BLOCK:
+                    awaitSpace();
+                    break;
+
+                case DROP_OLDEST:
+                    dropOldest();
+                    break;
+            }
+        }
+
+        if ((mSubmissions++ & LATENCY_SAMPLE_MASK) == 0) {
+            entry.enqueueTime = System.nanoTime();
+        }
+        mRunQueue.offer(entry);
+        if (!mScheduled.get() && mScheduled.compareAndSet(false, true)) {
             try {
-                run.run();
+                mService.execute(mDrainer);
+            } catch (RejectedExecutionException e) {
+                // this thread owns the queue until mScheduled is cleared: take the task back,
+                // and run the tasks other producers queued meanwhile, since no drainer will
+                revoke(entry, task);
+                drain();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * takes the task of a queued entry back. The entry stays in the queue, marked
+     * {@link #REVOKED}, unless a coalesced submission has replaced the task; that one was
+     * accepted and is left for the drainer.
+     */
+    private void revoke(Entry entry, Runnable task) {
+        if (entry.coalesceKey != null) {
+            mCoalescing.remove(entry.coalesceKey, entry);
+        }
+        Runnable waiting = entry.getAndSet(REVOKED);
+        if (waiting != task) {
+            entry.set(waiting);
+        } else {
+            mSize.decrementAndGet();
+            signalWaiters();
+        }
+    }
+
+    /**
+     * @return the queue size including the reserved slot, or -1 if the queue is full
+     */
+    private int tryReserve() {
+        int size;
+        if (mBounded) {
+            do {
+                size = mSize.get();
+                if (size >= mCapacity) {
+                    return -1;
+                }
+            } while (!mSize.compareAndSet(size, size + 1));
+            size++;
+        } else {
+            size = mSize.incrementAndGet();
+        }
+
+        if (size > mPeakSize) {
+            mPeakSize = size;
+        }
+        return size;
+    }
+
+    private void awaitSpace() {
+        mWaiters.incrementAndGet();
+        try {
+            synchronized (mLock) {
+                while (mSize.get() >= mCapacity) {
+                    if (mShutdown) {
+                        throw new RejectedExecutionException("TaskQueue is shut down");
+                    }
+                    mLock.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("interrupted while waiting for space", e);
+        } finally {
+            mWaiters.decrementAndGet();
+        }
+    }
+
+    private void dropOldest() {
+        Entry entry = poll();
+        if (entry == null) {
+            // the queue is full of tasks whose producers are still linking them in
+            Thread.yield();
+            return;
+        }
+        if (entry.get() == REVOKED) {
+            // not counted in mSize any more
+            return;
+        }
+        mSize.decrementAndGet();
+        mDropped.incrementAndGet();
+        discard(entry);
+    }
+
+    /**
+     * with {@link OverflowPolicy#DROP_OLDEST} producers take tasks off the queue too, so
+     * every consumer operation is done under the queue lock
+     */
+    private Entry poll() {
+        if (mPolicy == OverflowPolicy.DROP_OLDEST) {
+            synchronized (mRunQueue) {
+                return mRunQueue.poll();
+            }
+        }
+        return mRunQueue.poll();
+    }
+
+    private boolean isQueueEmpty() {
+        if (mPolicy == OverflowPolicy.DROP_OLDEST) {
+            synchronized (mRunQueue) {
+                return mRunQueue.isEmpty();
+            }
+        }
+        return mRunQueue.isEmpty();
+    }
+
+    private Runnable take(Entry entry) {
+        if (entry.coalesceKey == null) {
+            // nobody else holds a reference to it
+            return entry.get();
+        }
+        Runnable retval = entry.getAndSet(null);
+        mCoalescing.remove(entry.coalesceKey, entry);
+        return retval;
+    }
+
+    private void discard(Entry entry) {
+        Runnable task = take(entry);
+        if (task instanceof Future) {
+            ((Future<?>) task).cancel(false);
+        }
+    }
+
+    private void signalWaiters() {
+        if (mWaiters.get() > 0) {
+            synchronized (mLock) {
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private void drain() {
+        long start = System.nanoTime();
+        long deadline = start + mMaxBatchNanos;
+        int count = 0;
+        int sampled = 0;
+        long waitNanos = 0;
+        long maxWaitNanos = 0;
+        while (true) {
+            Entry entry = poll();
+            if (entry == null) {
+                recordBatch(count, sampled, waitNanos, maxWaitNanos);
+                mScheduled.set(false);
+                signalWaiters();
+                // a task offered after the poll above may have seen mScheduled still set
+                if (isQueueEmpty() || !mScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                count = 0;
+                sampled = 0;
+                waitNanos = 0;
+                maxWaitNanos = 0;
+                continue;
+            }
+            if (entry.get() == REVOKED) {
+                // not counted in mSize any more
+                continue;
+            }
+            mSize.decrementAndGet();
+            signalWaiters();
+
+            if (mDiscard) {
+                discard(entry);
+                continue;
+            }
+
+            if (entry.enqueueTime != 0) {
+                final long wait = start - entry.enqueueTime;
+                sampled++;
+                waitNanos += wait;
+                maxWaitNanos = Math.max(maxWaitNanos, wait);
+            }
+
+            Runnable task = take(entry);
+            try {
+                task.run();
             } catch (Throwable e) {
                 logger.error("", e);
             }
 
-            synchronized (TaskQueue.this){
-                if(!mRunQueue.isEmpty()){
-                    Task nextTask = mRunQueue.removeFirst();
-                    mCurrentTask = mService.submit(nextTask);
-                } else {
-                    mCurrentTask = null;
+            start = System.nanoTime();
+            if (++count >= mMaxBatch || start - deadline >= 0) {
+                recordBatch(count, sampled, waitNanos, maxWaitNanos);
+                if (!isQueueEmpty() && resubmit()) {
+                    return;
                 }
+                count = 0;
+                sampled = 0;
+                waitNanos = 0;
+                maxWaitNanos = 0;
+                deadline = start + mMaxBatchNanos;
             }
         }
     }
 
-    private final ExecutorService mService;
-    private LinkedList<Task> mRunQueue = new LinkedList<Task>();
-    private Future<?> mCurrentTask;
+    /**
+     * statistics are summed up per batch so the drainer does not update shared counters for
+     * every task
+     */
+    private void recordBatch(int count, int sampled, long waitNanos, long maxWaitNanos) {
+        if (count > 0) {
+            mCompleted.addAndGet(count);
+        }
+        if (sampled > 0) {
+            mSampled.addAndGet(sampled);
+            mTotalWaitNanos.addAndGet(waitNanos);
+            if (maxWaitNanos > mMaxWaitNanos) {
+                // only the drainer writes it
+                mMaxWaitNanos = maxWaitNanos;
+            }
+        }
+    }
 
-    public TaskQueue(ExecutorService service) {
-        mService = service;
+    /**
+     * @return false if the executor rejected the drainer, in which case the calling thread
+     * must keep draining
+     */
+    private boolean resubmit() {
+        try {
+            mService.execute(mDrainer);
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.warn("executor rejected TaskQueue, running remaining tasks inline");
+            return false;
+        }
     }
 
-    public synchronized void execute(Runnable runnable) {
-        Task task = new Task(runnable);
-        if(mCurrentTask == null) {
-            mCurrentTask = mService.submit(task);
-        } else {
-            mRunQueue.addLast(task);
+    /**
+     * Stops accepting new tasks. Tasks already queued still run.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        signalWaiters();
+    }
+
+    /**
+     * Stops accepting new tasks and discards the ones that are waiting; queued
+     * {@link Future}s are cancelled. A task that is already running is not interrupted.
+     */
+    public void shutdownNow() {
+        mDiscard = true;
+        shutdown();
+    }
+
+    public boolean isShutdown() {
+        return mShutdown;
+    }
+
+    /**
+     * @return true if no task is queued or running
+     */
+    public boolean isIdle() {
+        return mSize.get() == 0 && !mScheduled.get();
+    }
+
+    /**
+     * Waits until no task is queued or running. Together with {@link #shutdown()}, this
+     * waits for the queue to finish.
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        mWaiters.incrementAndGet();
+        try {
+            synchronized (mLock) {
+                while (!isIdle()) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(mLock, remaining);
+                }
+                return true;
+            }
+        } finally {
+            mWaiters.decrementAndGet();
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * the number of tasks waiting to run
+     */
+    public int getQueueSize() {
+        return mSize.get();
+    }
+
+    /**
+     * the largest number of tasks that were waiting to run at once
+     */
+    public int getPeakQueueSize() {
+        return mPeakSize;
+    }
+
+    public long getCompletedTaskCount() {
+        return mCompleted.get();
+    }
+
+    /**
+     * the number of tasks rejected because the queue was full
+     */
+    public long getRejectedCount() {
+        return mRejected.get();
+    }
+
+    /**
+     * the number of tasks discarded by {@link OverflowPolicy#DROP_OLDEST}
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * the number of tasks replaced by {@link #executeCoalesced(Object, Runnable)}
+     */
+    public long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+
+    /**
+     * the average time tasks waited in the queue before they started, measured on a sample
+     * of the tasks
+     */
+    public long getAverageQueueLatency(TimeUnit unit) {
+        final long sampled = mSampled.get();
+        return sampled == 0 ? 0 : unit.convert(mTotalWaitNanos.get() / sampled, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * the longest time a sampled task waited in the queue before it started
+     */
+    public long getMaxQueueLatency(TimeUnit unit) {
+        return unit.convert(mMaxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+}
@@ -1,13 +1,85 @@
 package com.devsmart;
 
 
+import com.google.common.util.concurrent.ForwardingExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
+/**
+ * Process wide executors: {@link #CPUThreads} for computation and {@link #IOThreads} for
+ * blocking work. How each is backed is chosen by a profile, set with
+ * {@link #setCPUProfile(CPUProfile, int)} and {@link #setIOProfile(IOProfile, int, int)} or
+ * with the system properties below. The executors are created on first use, after which
+ * the profile can no longer be changed.
+ * <pre>
+ *     -Dcom.devsmart.cpuProfile=work_stealing -Dcom.devsmart.cpuThreads=8
+ *     -Dcom.devsmart.ioProfile=virtual
+ *     -Dcom.devsmart.ioProfile=bounded -Dcom.devsmart.ioMaxThreads=64 -Dcom.devsmart.ioQueueSize=1000
+ *     -Dcom.devsmart.instrumentThreads=true
+ * </pre>
+ * When instrumented, both pools are wrapped in an {@link InstrumentedExecutorService} and
+ * registered with JMX as {@code com.devsmart:type=Executor,name=CPUThreads} and
+ * {@code IOThreads}.
+ */
 public class ThreadUtils {
 
+    private static final Logger logger = LoggerFactory.getLogger(ThreadUtils.class);
+
+    public enum CPUProfile {
+        /**
+         * a fixed {@link java.util.concurrent.ScheduledThreadPoolExecutor}; the default
+         */
+        SCHEDULED,
+
+        /**
+         * a {@code ForkJoinPool} in async mode. Idle threads steal queued tasks from busy
+         * ones, which suits many small tasks. Delayed and periodic tasks run on a separate
+         * timer thread. Needs Java 7 or Android API 21; {@link #SCHEDULED} otherwise.
+         */
+        WORK_STEALING
+    }
+
+    public enum IOProfile {
+        /**
+         * a thread per concurrent task, kept for 60 seconds when idle; the default
+         */
+        CACHED,
+
+        /**
+         * at most {@code maxThreads} threads and a queue of {@code queueSize} tasks. When
+         * both are full, the submitting thread runs the task itself, which slows producers
+         * down instead of starting ever more threads.
+         */
+        BOUNDED,
+
+        /**
+         * a virtual thread per task, on JDKs that have them; {@link #BOUNDED} otherwise
+         */
+        VIRTUAL
+    }
+
+    public static final String CPU_PROFILE_PROPERTY = "com.devsmart.cpuProfile";
+    public static final String CPU_THREADS_PROPERTY = "com.devsmart.cpuThreads";
+    public static final String IO_PROFILE_PROPERTY = "com.devsmart.ioProfile";
+    public static final String IO_MAX_THREADS_PROPERTY = "com.devsmart.ioMaxThreads";
+    public static final String IO_QUEUE_SIZE_PROPERTY = "com.devsmart.ioQueueSize";
+    public static final String INSTRUMENT_PROPERTY = "com.devsmart.instrumentThreads";
+
+    public static final int DEFAULT_IO_MAX_THREADS = 64;
+
     public static Thread.UncaughtExceptionHandler CPUUncaughtHandler = null;
     private static final ThreadGroup CPUThreadGroup = new ThreadGroup("CPU Threads");
     private static ThreadFactory CPUThreadPoolFactory = new ThreadFactory() {
@@ -40,7 +112,231 @@ public class ThreadUtils {
         }
     };
 
-    public static final ScheduledExecutorService CPUThreads = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), CPUThreadPoolFactory);
-    public static final ExecutorService IOThreads = Executors.newCachedThreadPool(IOThreadPoolFactory);
+    private static CPUProfile sCPUProfile = enumProperty(CPU_PROFILE_PROPERTY, CPUProfile.SCHEDULED);
+    private static int sCPUThreadCount = intProperty(CPU_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+    private static IOProfile sIOProfile = enumProperty(IO_PROFILE_PROPERTY, IOProfile.CACHED);
+    private static int sIOMaxThreads = intProperty(IO_MAX_THREADS_PROPERTY, DEFAULT_IO_MAX_THREADS);
+    private static int sIOQueueSize = intProperty(IO_QUEUE_SIZE_PROPERTY, Integer.MAX_VALUE);
+    private static boolean sInstrumented = Boolean.getBoolean(INSTRUMENT_PROPERTY);
+
+    private static volatile ScheduledExecutorService sCPUExecutor;
+    private static volatile ExecutorService sIOExecutor;
+
+    public static final ScheduledExecutorService CPUThreads = new ForwardingScheduledExecutorService() {
+        @Override
+        protected ScheduledExecutorService delegate() {
+            ScheduledExecutorService retval = sCPUExecutor;
+            return retval != null ? retval : createCPUExecutor();
+        }
+    };
+
+    public static final ExecutorService IOThreads = new ForwardingExecutorService() {
+        @Override
+        protected ExecutorService delegate() {
+            ExecutorService retval = sIOExecutor;
+            return retval != null ? retval : createIOExecutor();
+        }
+    };
+
+    /**
+     * Sets how {@link #CPUThreads} is backed. Must be called before it is first used.
+     *
+     * @param threads the number of threads
+     */
+    public static synchronized void setCPUProfile(CPUProfile profile, int threads) {
+        checkArgument(threads > 0);
+        checkState(sCPUExecutor == null, "CPUThreads is already in use");
+        sCPUProfile = profile;
+        sCPUThreadCount = threads;
+    }
+
+    /**
+     * Sets how {@link #IOThreads} is backed. Must be called before it is first used.
+     *
+     * @param maxThreads the thread limit for {@link IOProfile#BOUNDED}, and for
+     *                   {@link IOProfile#VIRTUAL} where it falls back to it
+     * @param queueSize  the queue limit for {@link IOProfile#BOUNDED}
+     */
+    public static synchronized void setIOProfile(IOProfile profile, int maxThreads, int queueSize) {
+        checkArgument(maxThreads > 0 && queueSize > 0);
+        checkState(sIOExecutor == null, "IOThreads is already in use");
+        sIOProfile = profile;
+        sIOMaxThreads = maxThreads;
+        sIOQueueSize = queueSize;
+    }
+
+    /**
+     * Measures the tasks run on {@link #CPUThreads} and {@link #IOThreads}, see
+     * {@link #getCPUStats()}. Must be called before they are first used.
+     */
+    public static synchronized void setInstrumented(boolean instrumented) {
+        checkState(sCPUExecutor == null && sIOExecutor == null, "ThreadUtils executors are already in use");
+        sInstrumented = instrumented;
+    }
+
+    /**
+     * @return the statistics of {@link #CPUThreads}, or null if it is not instrumented or has not
+     * been used yet
+     */
+    public static InstrumentedExecutorService getCPUStats() {
+        ScheduledExecutorService executor = sCPUExecutor;
+        return executor instanceof InstrumentedExecutorService ? (InstrumentedExecutorService) executor : null;
+    }
+
+    /**
+     * @return the statistics of {@link #IOThreads}, or null if it is not instrumented or has not
+     * been used yet
+     */
+    public static InstrumentedExecutorService getIOStats() {
+        ExecutorService executor = sIOExecutor;
+        return executor instanceof InstrumentedExecutorService ? (InstrumentedExecutorService) executor : null;
+    }
+
+    private static void registerStats(InstrumentedExecutorService executor) {
+        try {
+            JmxUtils.register(executor, "Executor", executor.getName());
+        } catch (RuntimeException e) {
+            logger.warn("could not register {} with JMX", executor.getName(), e);
+        } catch (LinkageError e) {
+            // no JMX, as on Android
+        }
+    }
+
+    private static synchronized ScheduledExecutorService createCPUExecutor() {
+        if (sCPUExecutor == null) {
+            ScheduledExecutorService executor = null;
+            if (sCPUProfile == CPUProfile.WORK_STEALING) {
+                executor = createWorkStealingExecutor(sCPUThreadCount);
+                if (executor == null) {
+                    logger.info("ForkJoinPool is not available, using a scheduled CPU pool");
+                }
+            }
+            if (executor == null) {
+                executor = Executors.newScheduledThreadPool(sCPUThreadCount, CPUThreadPoolFactory);
+            }
+            if (sInstrumented) {
+                InstrumentedScheduledExecutorService instrumented = new InstrumentedScheduledExecutorService("CPUThreads", executor);
+                registerStats(instrumented);
+                executor = instrumented;
+            }
+            sCPUExecutor = executor;
+        }
+        return sCPUExecutor;
+    }
+
+    private static synchronized ExecutorService createIOExecutor() {
+        if (sIOExecutor == null) {
+            ExecutorService executor = null;
+            if (sIOProfile == IOProfile.VIRTUAL) {
+                executor = createVirtualThreadExecutor();
+                if (executor == null) {
+                    logger.info("virtual threads are not available, using a bounded IO pool");
+                }
+            }
+            if (executor == null && sIOProfile != IOProfile.CACHED) {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(sIOMaxThreads, sIOMaxThreads,
+                        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(sIOQueueSize),
+                        IOThreadPoolFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+                pool.allowCoreThreadTimeOut(true);
+                executor = pool;
+            }
+            if (executor == null) {
+                executor = Executors.newCachedThreadPool(IOThreadPoolFactory);
+            }
+            if (sInstrumented) {
+                InstrumentedExecutorService instrumented = new InstrumentedExecutorService("IOThreads", executor);
+                registerStats(instrumented);
+                executor = instrumented;
+            }
+            sIOExecutor = executor;
+        }
+        return sIOExecutor;
+    }
+
+    /**
+     * a {@link WorkStealingExecutor}, loaded by reflection so that this class does not link
+     * against ForkJoinPool, which Java 6 and Android before API 21 lack
+     *
+     * @return null if ForkJoinPool is not available
+     */
+    static ScheduledExecutorService createWorkStealingExecutor(int threads) {
+        Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                if (CPUUncaughtHandler != null) {
+                    CPUUncaughtHandler.uncaughtException(t, e);
+                } else {
+                    logger.error("uncaught exception in {}", t.getName(), e);
+                }
+            }
+        };
+        try {
+            Method create = Class.forName("com.devsmart.WorkStealingExecutor").getDeclaredMethod("create",
+                    int.class, String.class, ThreadFactory.class, Thread.UncaughtExceptionHandler.class);
+            return (ScheduledExecutorService) create.invoke(null, threads, "CPU Thread ", CPUThreadPoolFactory, handler);
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@code Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("IO Thread ", 0).factory())},
+     * looked up by reflection so this compiles and runs on JDKs without virtual threads
+     *
+     * @return null if virtual threads are not available
+     */
+    static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "IO Thread ", 0L);
+            final ThreadFactory virtualFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            ThreadFactory factory = new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = virtualFactory.newThread(r);
+                    if (IOUncaughtHandler != null) {
+                        thread.setUncaughtExceptionHandler(IOUncaughtHandler);
+                    }
+                    return thread;
+                }
+            };
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static <E extends Enum<E>> E enumProperty(String name, E defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            logger.warn("unknown value for {}: {}", name, value);
+            return defaultValue;
+        }
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int retval = Integer.parseInt(value.trim());
+            if (retval > 0) {
+                return retval;
+            }
+        } catch (NumberFormatException e) {
+        }
+        logger.warn("invalid value for {}: {}", name, value);
+        return defaultValue;
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,114 @@
+package com.devsmart;
+
+
+import com.google.common.util.concurrent.ForwardingExecutorService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ForkJoinPool} with the {@link ScheduledExecutorService} interface, used for the
+ * {@link ThreadUtils.CPUProfile#WORK_STEALING} profile. Tasks passed to {@code execute} and
+ * {@code submit} run on the pool; delayed and periodic tasks run on a single timer thread,
+ * so they should be short or hand their work to the pool.
+ * <p>
+ * ForkJoinPool needs Java 7 or Android API 21, so {@link ThreadUtils} only loads this class
+ * by reflection, through {@link #create(int, String, ThreadFactory, Thread.UncaughtExceptionHandler)}.
+ */
+class WorkStealingExecutor extends ForwardingExecutorService implements ScheduledExecutorService {
+
+    private final ForkJoinPool mPool;
+    private final ScheduledThreadPoolExecutor mTimer;
+
+    WorkStealingExecutor(ForkJoinPool pool, ThreadFactory timerFactory) {
+        mPool = pool;
+        mTimer = new ScheduledThreadPoolExecutor(1, timerFactory);
+        mTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @param namePrefix    pool threads are named by it and a number
+     * @param timerFactory  creates the timer thread
+     * @param handler       receives exceptions that escape tasks run on the pool
+     */
+    static WorkStealingExecutor create(int threads, final String namePrefix, ThreadFactory timerFactory,
+                                       Thread.UncaughtExceptionHandler handler) {
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+            private int mThreadNum = 0;
+
+            @Override
+            public synchronized ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread retval = new ForkJoinWorkerThread(pool) {
+                };
+                retval.setName(namePrefix + mThreadNum++);
+                return retval;
+            }
+        };
+        return new WorkStealingExecutor(new ForkJoinPool(threads, factory, handler, true), timerFactory);
+    }
+
+    @Override
+    protected ExecutorService delegate() {
+        return mPool;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return mTimer.schedule(command, delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return mTimer.schedule(callable, delay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        return mTimer.scheduleAtFixedRate(command, initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        return mTimer.scheduleWithFixedDelay(command, initialDelay, delay, unit);
+    }
+
+    @Override
+    public void shutdown() {
+        mTimer.shutdown();
+        mPool.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> retval = new ArrayList<Runnable>(mTimer.shutdownNow());
+        retval.addAll(mPool.shutdownNow());
+        return retval;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return mPool.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return mPool.isTerminated() && mTimer.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return mTimer.awaitTermination(timeout, unit)
+                && mPool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,127 @@
+package com.devsmart;
+
+
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class ArrayAllocatorTest {
+
+    @Test
+    public void testReuse() {
+        ArrayAllocator allocator = new ArrayAllocator(1024 * 1024);
+
+        int[] ints = allocator.allocInts(100);
+        assertTrue(ints.length >= 100);
+        allocator.free(ints);
+        assertTrue(allocator.allocInts(90) == ints);
+
+        byte[] bytes = new byte[10];
+        allocator.free(bytes);
+        allocator.free(bytes);
+        assertTrue(allocator.allocBytes(10) == bytes);
+        assertTrue(allocator.allocBytes(10) != bytes);
+
+        long[] longs = allocator.allocLongs(3);
+        allocator.free(longs);
+        assertTrue(allocator.allocLongs(3) == longs);
+        assertTrue(allocator.allocFloats(3).length >= 3);
+    }
+
+    @Test
+    public void testSharedBudget() {
+        ArrayAllocator allocator = new ArrayAllocator(1000);
+
+        // 512 bytes
+        double[] doubles = allocator.allocDoubles(64);
+        // another 512 bytes
+        byte[] bytes = allocator.allocBytes(512);
+
+        allocator.free(doubles);
+        allocator.free(bytes);
+        assertTrue(allocator.allocDoubles(64) == doubles);
+        assertTrue(allocator.allocBytes(512) != bytes);
+    }
+
+    @Test
+    public void testDirectBuffers() {
+        ArrayAllocator allocator = new ArrayAllocator(1024 * 1024);
+
+        ByteBuffer buffer = allocator.allocDirect(1000);
+        assertTrue(buffer.isDirect());
+        assertTrue(buffer.capacity() >= 1000);
+        buffer.order(ByteOrder.BIG_ENDIAN == ByteOrder.nativeOrder() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        buffer.putInt(7);
+        allocator.free(buffer);
+        allocator.free(buffer);
+
+        ByteBuffer reused = allocator.allocDirect(1000);
+        assertTrue(reused == buffer);
+        assertEquals(0, reused.position());
+        assertEquals(reused.capacity(), reused.limit());
+        assertEquals(ByteOrder.nativeOrder(), reused.order());
+        assertTrue(allocator.allocDirect(1000) != buffer);
+
+        // buffers with equal contents are still different buffers
+        ByteBuffer a = allocator.allocDirect(64);
+        ByteBuffer b = allocator.allocDirect(64);
+        assertTrue(a.equals(b));
+        allocator.free(a);
+        allocator.free(b);
+        assertEquals(1, allocator.getDuplicateFrees());
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        ArrayAllocator allocator = new ArrayAllocator(1000);
+
+        int[] ints = allocator.allocInts(100);
+        allocator.free(ints);
+        allocator.free(ints);
+        allocator.allocInts(100);
+        allocator.free(new long[200]);
+
+        assertEquals(1, allocator.getHits());
+        assertEquals(1, allocator.getMisses());
+        assertEquals(0.5, allocator.getHitRate(), 0);
+        assertEquals(2, allocator.getOversizeAllocations());
+        assertEquals(2 * 28 * 4, allocator.getOversizeBytes());
+        assertEquals(1, allocator.getDuplicateFrees());
+        assertEquals(1, allocator.getRejectedFrees());
+        assertEquals(0, allocator.getPooledBytes());
+        assertEquals(1000, allocator.getMaxBytes());
+
+        ObjectName name = JmxUtils.register(allocator, "ArrayAllocator", "test");
+        try {
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Hits"));
+        } finally {
+            JmxUtils.unregister(name);
+        }
+    }
+
+    @Test
+    public void testLeakTracking() throws Exception {
+        ArrayAllocator allocator = new ArrayAllocator(1024 * 1024);
+        allocator.setLeakTracking(true);
+        assertTrue(allocator.isLeakTracking());
+
+        double[] kept = allocator.allocDoubles(10);
+        allocator.free(allocator.allocDoubles(10));
+        allocator.allocDoubles(1000);
+        assertEquals(2, allocator.getOutstandingAllocations().size());
+
+        for (int i = 0; i < 50 && allocator.getLeaks() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, allocator.getLeaks());
+        assertEquals(1, allocator.getOutstandingAllocations().size());
+        allocator.free(kept);
+        assertEquals(0, allocator.getOutstandingAllocations().size());
+    }
+}
@@ -7,6 +7,8 @@ import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.*;
 
@@ -79,6 +81,43 @@ public class ArrayTableTest {
         assertEquals(5, table.getInt(2, 0));
     }
 
+    @Test
+    public void testAppendRow() {
+        ArrayTable table = ArrayTable.createWithColumnTypes(2, long.class, double.class, String.class);
+        table.ensureCapacity(100);
+        assertEquals(100, table.capacity());
+
+        for(int i=0;i<200;i++) {
+            int row = table.appendRow();
+            assertEquals(i, row);
+            assertNull(table.getObject(row, 2));
+            table.setLong(row, 0, i * 1000L);
+            table.setDouble(row, 1, i * 0.5);
+        }
+
+        assertEquals(200, table.rows());
+        assertEquals(199000L, table.getLong(199, 0));
+        assertEquals(99.5, table.getDouble(199, 1), 0.0);
+    }
+
+    @Test
+    public void testInsertRow() {
+        ArrayTable table = ArrayTable.createWithColumnTypes(int.class, String.class);
+        table.addRow(1, "a");
+        table.addRow(3, "c");
+
+        table.insertRow(1);
+        assertNull(table.getObject(1, 1));
+        table.setInt(1, 0, 2);
+        table.setObject(1, 1, "b");
+
+        table.insertAt(0, 0, "start");
+        table.insertAt(4, 4, "end");
+
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, (int[]) table.getColumn(0));
+        assertArrayEquals(new Object[]{"start", "a", "b", "c", "end"}, (Object[]) table.getColumn(1));
+    }
+
     @Test
     public void testDeleteRow() {
         ArrayTable table = ArrayTable.createWithColumns(new int[]{1, 2, 3, 4, 5});
@@ -183,6 +222,154 @@ public class ArrayTableTest {
         assertTrue(Ordering.natural().isOrdered(Ints.asList(columnArray)));
     }
 
+    @Test
+    public void stableSortTest() {
+        ArrayTable table = ArrayTable.createWithColumnTypes(int.class, int.class);
+        Random r = new Random(1);
+        for(int i=0;i<1000;i++) {
+            table.addRow(r.nextInt(10), i);
+        }
+
+        table.sort(new ArrayTable.ChainedRowComparator.Builder(table)
+                .byColumnAsc(0)
+                .build());
+
+        for(int i=1;i<table.rows();i++) {
+            assertTrue(table.getInt(i-1, 0) <= table.getInt(i, 0));
+            if(table.getInt(i-1, 0) == table.getInt(i, 0)) {
+                assertTrue(table.getInt(i-1, 1) < table.getInt(i, 1));
+            }
+        }
+    }
+
+    @Test
+    public void sortKeepsRowsTogetherTest() {
+        final int numRows = 5000;
+        int[] keys = new int[numRows];
+        double[] values = new double[numRows];
+        Random r = new Random(2);
+        for(int i=0;i<numRows;i++) {
+            keys[i] = r.nextInt(numRows);
+            values[i] = keys[i] * 0.5;
+        }
+
+        ArrayTable table = ArrayTable.createWithColumns(keys, values);
+        table.sort(new ArrayTable.ChainedRowComparator.Builder(table)
+                .byColumnDesc(0)
+                .build());
+
+        for(int i=0;i<numRows;i++) {
+            assertEquals(table.getInt(i, 0) * 0.5, table.getDouble(i, 1), 0.0);
+            if(i > 0) {
+                assertTrue(table.getInt(i-1, 0) >= table.getInt(i, 0));
+            }
+        }
+
+        //sorting works in place on the columns the table was created with
+        assertEquals(table.getInt(0, 0), keys[0]);
+
+        table.resort();
+        assertTrue(Ordering.natural().reverse().isOrdered(Ints.asList((int[]) table.getColumn(0))));
+    }
+
+    private static ArrayTable createRandomKeyTable(int numRows, Random r) {
+        final double[] specialDoubles = new double[]{Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.MIN_VALUE, -Double.MAX_VALUE};
+        ArrayTable table = ArrayTable.createWithColumnTypes(numRows,
+                int.class, long.class, float.class, double.class, int.class);
+        for(int i=0;i<numRows;i++) {
+            double d = r.nextInt(10) == 0 ? specialDoubles[r.nextInt(specialDoubles.length)] : r.nextGaussian();
+            table.addRow(r.nextInt(), r.nextLong() >> r.nextInt(64), (float) d, d, i);
+        }
+        return table;
+    }
+
+    /**
+     * wraps a comparator so the table cannot recognize it and has to sort by comparison
+     */
+    private static ArrayTable.RowComparator opaque(final ArrayTable.RowComparator comparator) {
+        return new ArrayTable.RowComparator() {
+            @Override
+            public int compare(ArrayTable table, int rowa, int rowb) {
+                return comparator.compare(table, rowa, rowb);
+            }
+        };
+    }
+
+    @Test
+    public void radixSortTest() {
+        Random r = new Random(3);
+        ArrayTable expected = createRandomKeyTable(5000, r);
+        ArrayTable actual = ArrayTable.createWithColumnTypes(int.class);
+        actual.copy(expected);
+
+        for(int column=0;column<4;column++) {
+            ArrayTable.RowComparator asc = new ArrayTable.ChainedRowComparator.Builder(expected)
+                    .byColumnAsc(column)
+                    .build();
+            ArrayTable.RowComparator desc = new ArrayTable.ChainedRowComparator.Builder(expected)
+                    .byColumnDesc(column)
+                    .build();
+
+            for(ArrayTable.RowComparator comparator : new ArrayTable.RowComparator[]{asc, desc}) {
+                expected.sort(opaque(comparator));
+                actual.sort(comparator);
+                assertArrayEquals((int[]) expected.getColumn(4), (int[]) actual.getColumn(4));
+            }
+        }
+    }
+
+    @Test
+    public void radixSortMultikeyTest() {
+        ArrayTable expected = ArrayTable.createWithColumnTypes(int.class, long.class, double.class, int.class);
+        Random r = new Random(4);
+        for(int i=0;i<5000;i++) {
+            expected.addRow(r.nextInt(5) - 2, (long) r.nextInt(7), r.nextInt(3) * 0.5, i);
+        }
+        ArrayTable actual = ArrayTable.createWithColumnTypes(int.class);
+        actual.copy(expected);
+
+        ArrayTable.RowComparator comparator = new ArrayTable.ChainedRowComparator.Builder(expected)
+                .byColumnAsc(0)
+                .byColumnDesc(1)
+                .byColumnAsc(2)
+                .build();
+
+        expected.sort(opaque(comparator));
+        actual.sort(comparator);
+        assertArrayEquals((int[]) expected.getColumn(3), (int[]) actual.getColumn(3));
+    }
+
+    @Test
+    public void parallelSortTest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Random r = new Random(5);
+            ArrayTable expected = ArrayTable.createWithColumnTypes(int.class, String.class, int.class);
+            for(int i=0;i<20000;i++) {
+                expected.addRow(r.nextInt(100), "" + r.nextInt(50), i);
+            }
+            ArrayTable actual = ArrayTable.createWithColumnTypes(int.class);
+            actual.copy(expected);
+
+            ArrayTable.RowComparator radixComparator = new ArrayTable.ChainedRowComparator.Builder(expected)
+                    .byColumnDesc(0)
+                    .build();
+            ArrayTable.RowComparator objComparator = new ArrayTable.ChainedRowComparator.Builder(expected)
+                    .byColumnAsc(1)
+                    .build();
+
+            for(ArrayTable.RowComparator comparator : new ArrayTable.RowComparator[]{radixComparator, objComparator}) {
+                expected.sort(comparator);
+                actual.parallelSort(comparator, executor, 1000);
+                assertArrayEquals((int[]) expected.getColumn(2), (int[]) actual.getColumn(2));
+                assertArrayEquals((Object[]) expected.getColumn(1), (Object[]) actual.getColumn(1));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     public void binarySearchTest() {
 
@@ -0,0 +1,160 @@
+package com.devsmart;
+
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ColumnOpsTest {
+
+    private static ArrayTable createTable(int rows) {
+        Random r = new Random(1);
+        ArrayTable table = ArrayTable.createWithColumnTypes(int.class, long.class, float.class, double.class);
+        for (int i = 0; i < rows; i++) {
+            int row = table.appendRow();
+            table.setInt(row, 0, r.nextInt(10) - 5);
+            table.setLong(row, 1, r.nextLong());
+            table.setFloat(row, 2, r.nextFloat());
+            table.setDouble(row, 3, r.nextGaussian());
+        }
+        return table;
+    }
+
+    @Test
+    public void statsTest() {
+        ArrayTable table = createTable(1001);
+
+        long intSum = 0;
+        long longSum = 0;
+        long longMin = Long.MAX_VALUE;
+        double doubleSum = 0;
+        double doubleMax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < table.rows(); i++) {
+            intSum += table.getInt(i, 0);
+            longSum += table.getLong(i, 1);
+            longMin = Math.min(longMin, table.getLong(i, 1));
+            doubleSum += table.getDouble(i, 3);
+            doubleMax = Math.max(doubleMax, table.getDouble(i, 3));
+        }
+
+        ColumnOps.Stats ints = ColumnOps.stats(table, 0);
+        assertEquals(1001, ints.getCount());
+        assertEquals(intSum, ints.getLongSum());
+        assertEquals(-5, ints.getLongMin());
+        assertEquals(4, ints.getLongMax());
+        assertEquals((double) intSum / 1001, ColumnOps.mean(table, 0), 1e-12);
+
+        ColumnOps.Stats longs = ColumnOps.stats(table, 1);
+        assertEquals(longSum, longs.getLongSum());
+        assertEquals(longMin, longs.getLongMin());
+
+        assertEquals(doubleSum, ColumnOps.sum(table, 3), 1e-9);
+        assertEquals(doubleMax, ColumnOps.max(table, 3), 0);
+
+        ColumnOps.Stats empty = ColumnOps.stats(ArrayTable.createWithColumnTypes(double.class), 0);
+        assertEquals(0, empty.getCount());
+        assertTrue(Double.isNaN(empty.getMean()));
+
+        ColumnOps.Stats emptyInts = ColumnOps.stats(ArrayTable.createWithColumnTypes(int.class), 0);
+        assertEquals(Long.MAX_VALUE, emptyInts.getLongMin());
+        assertEquals(Long.MIN_VALUE, emptyInts.getLongMax());
+    }
+
+    @Test
+    public void filterTest() {
+        ArrayTable table = createTable(1001);
+
+        for (ColumnOps.Compare op : ColumnOps.Compare.values()) {
+            BitSet ints = ColumnOps.filter(table, 0, op, 1);
+            BitSet doubles = ColumnOps.filter(table, 3, op, 0.5);
+            for (int i = 0; i < table.rows(); i++) {
+                assertEquals(compare(op, table.getInt(i, 0), 1), ints.get(i));
+                assertEquals(compare(op, table.getDouble(i, 3), 0.5), doubles.get(i));
+            }
+            assertTrue(ints.length() <= table.rows());
+        }
+
+        assertTrue(ColumnOps.filter(table, 1, ColumnOps.Compare.LT, Long.MIN_VALUE).isEmpty());
+        assertEquals(table.rows(), ColumnOps.filter(table, 1, ColumnOps.Compare.GE, Long.MIN_VALUE).cardinality());
+        assertEquals(table.rows(), ColumnOps.filter(table, 2, ColumnOps.Compare.LT, 1).cardinality());
+    }
+
+    private static boolean compare(ColumnOps.Compare op, double a, double b) {
+        switch (op) {
+            case EQ:
+                return a == b;
+            case NE:
+                return a != b;
+            case LT:
+                return a < b;
+            case LE:
+                return a <= b;
+            case GT:
+                return a > b;
+            default:
+                return a >= b;
+        }
+    }
+
+    @Test
+    public void selectionTest() {
+        ArrayTable table = createTable(500);
+        BitSet sel = ColumnOps.filter(table, 0, ColumnOps.Compare.GE, 0);
+        sel.and(ColumnOps.filter(table, 3, ColumnOps.Compare.LT, 0.0));
+
+        int[] rows = ColumnOps.rows(sel);
+        assertEquals(sel.cardinality(), rows.length);
+        double sum = 0;
+        for (int row : rows) {
+            assertTrue(table.getInt(row, 0) >= 0 && table.getDouble(row, 3) < 0);
+            sum += table.getDouble(row, 3);
+        }
+
+        ColumnOps.Stats stats = ColumnOps.stats(table, 3, sel);
+        assertEquals(rows.length, stats.getCount());
+        assertEquals(sum, stats.getSum(), 1e-9);
+        assertTrue(stats.getMax() < 0);
+    }
+
+    @Test
+    public void groupByTest() {
+        ArrayTable table = ArrayTable.createWithColumnTypes(long.class, double.class);
+        for (int i = 0; i < 1000; i++) {
+            table.addRow((long) (i % 37) * 1000003L, (double) i);
+        }
+
+        ColumnOps.Groups groups = ColumnOps.groupBy(table, 0, 1);
+        assertEquals(37, groups.size());
+        for (int g = 0; g < groups.size(); g++) {
+            // groups are in order of first appearance
+            assertEquals(g * 1000003L, groups.getKey(g));
+            assertEquals(g < 1000 % 37 ? 28 : 27, groups.getCount(g));
+            assertEquals(g, groups.getMin(g), 0);
+        }
+        assertEquals(999.0, groups.getMax(groups.indexOf((999 % 37) * 1000003L)), 0);
+        assertEquals(-1, groups.indexOf(1));
+
+        BitSet sel = ColumnOps.filter(table, 1, ColumnOps.Compare.LT, 37);
+        ColumnOps.Groups selected = ColumnOps.groupBy(table, 0, 1, sel);
+        assertEquals(37, selected.size());
+        for (int g = 0; g < selected.size(); g++) {
+            assertEquals(1, selected.getCount(g));
+            assertEquals(g, selected.getSum(g), 0);
+        }
+    }
+
+    @Test
+    public void testCopyBits() {
+        long[] words = {0L, -1L, 0x8000000000000005L, 0x1234L};
+        BitSet bits = ColumnOps.copyBits(words, 256);
+        assertEquals(64 + 3 + 5, bits.cardinality());
+        assertTrue(bits.get(64) && bits.get(127));
+        assertTrue(bits.get(128) && bits.get(130) && bits.get(191));
+        assertTrue(!bits.get(129) && !bits.get(63));
+        assertTrue(bits.get(194) && bits.get(196) && bits.get(201) && bits.get(204));
+        assertEquals(205, bits.length());
+    }
+}
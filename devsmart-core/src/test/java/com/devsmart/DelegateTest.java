@@ -0,0 +1,377 @@
+package com.devsmart;
+
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DelegateTest {
+
+    // not public: the invoker must still be able to call it
+    interface Listener {
+        void onEvent(int value);
+        int onQuery(String name);
+    }
+
+    interface NameListener {
+        void onName(String name);
+    }
+
+    private static class OverloadedListener implements NameListener {
+        String name;
+        Object object;
+
+        @Override
+        public void onName(String name) {
+            this.name = name;
+        }
+
+        public void onName(Object object) {
+            this.object = object;
+        }
+
+        public void onName(String name, int count) {
+            this.name = name + count;
+        }
+    }
+
+    private static class RecordingListener implements Listener {
+        final List<Integer> events = new ArrayList<Integer>();
+
+        @Override
+        public void onEvent(int value) {
+            events.add(value);
+        }
+
+        @Override
+        public int onQuery(String name) {
+            return 5;
+        }
+    }
+
+    @Test
+    public void testInvoker() {
+        Delegate<Listener> delegate = new Delegate<Listener>(Listener.class);
+        RecordingListener a = new RecordingListener();
+        RecordingListener b = new RecordingListener();
+        delegate.registerCallback(a);
+        delegate.registerCallback(b);
+
+        Listener invoker = delegate.createInvoker();
+        invoker.onEvent(1);
+        invoker.onEvent(2);
+        assertEquals(0, invoker.onQuery("x"));
+        assertEquals(2, a.events.size());
+        assertEquals(2, b.events.get(1).intValue());
+
+        delegate.unregisterCallback(a);
+        invoker.onEvent(3);
+        assertEquals(2, a.events.size());
+        assertEquals(3, b.events.size());
+
+        // Object methods act on the invoker, not the listeners
+        assertTrue(invoker.equals(invoker));
+        assertEquals(System.identityHashCode(invoker), invoker.hashCode());
+        assertNotNull(invoker.toString());
+    }
+
+    @Test
+    public void testInvokerRethrows() {
+        Delegate<Listener> delegate = new Delegate<Listener>(Listener.class);
+        delegate.registerCallback(new RecordingListener() {
+            @Override
+            public void onEvent(int value) {
+                throw new IllegalStateException("expected");
+            }
+        });
+        try {
+            delegate.createInvoker().onEvent(1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("expected", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDispatch() {
+        Delegate<Listener> delegate = new Delegate<Listener>(Listener.class);
+        RecordingListener a = new RecordingListener();
+        delegate.registerCallback(a);
+        delegate.dispatch(new Delegate.Dispatcher<Listener>() {
+            @Override
+            public void dispatch(Listener listener) {
+                listener.onEvent(7);
+            }
+        });
+        assertEquals(7, a.events.get(0).intValue());
+    }
+
+    @Test
+    public void testEmit() throws Exception {
+        Delegate<Listener> delegate = new Delegate<Listener>(Listener.class);
+        RecordingListener a = new RecordingListener();
+        delegate.registerCallback(a);
+
+        // a boxed argument matches the primitive parameter
+        delegate.emit("onEvent", 3);
+        delegate.emit("onEvent", 4);
+        assertEquals(2, a.events.size());
+        assertEquals(4, a.events.get(1).intValue());
+
+        try {
+            delegate.emit("onEvent", "three");
+            fail();
+        } catch (NoSuchMethodException e) {
+        }
+        try {
+            delegate.emit("onEvent", (Object) null);
+            fail();
+        } catch (NoSuchMethodException e) {
+        }
+    }
+
+    @Test
+    public void testEmitOverloads() throws Exception {
+        Delegate<NameListener> delegate = new Delegate<NameListener>(NameListener.class);
+        OverloadedListener a = new OverloadedListener();
+        delegate.registerCallback(a);
+
+        // the most specific overload wins, also for null
+        delegate.emit("onName", "a");
+        assertEquals("a", a.name);
+        assertNull(a.object);
+
+        a.name = "x";
+        delegate.emit("onName", (Object) null);
+        assertNull(a.name);
+
+        delegate.emit("onName", 5);
+        assertEquals(5, a.object);
+
+        // overloads are told apart by argument count first
+        delegate.emit("onName", "b", 2);
+        assertEquals("b2", a.name);
+        try {
+            delegate.emit("onName", "b", "c");
+            fail();
+        } catch (NoSuchMethodException e) {
+        }
+        try {
+            delegate.emit("onName", "b", 2, 3);
+            fail();
+        } catch (NoSuchMethodException e) {
+        }
+    }
+
+    @Test
+    public void testEmitter() throws Exception {
+        Delegate<Listener> delegate = new Delegate<Listener>(Listener.class);
+        RecordingListener a = new RecordingListener();
+        RecordingListener b = new RecordingListener();
+        delegate.registerCallback(a);
+
+        Delegate.Emitter<Listener> emitter = delegate.emitter("onEvent", int.class);
+        emitter.emit(1);
+        delegate.registerCallback(b);
+        emitter.emit(2);
+        assertEquals(2, a.events.size());
+        assertEquals(1, b.events.size());
+
+        try {
+            emitter.emit(1, 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            delegate.emitter("onEvent", long.class);
+            fail();
+        } catch (NoSuchMethodException e) {
+        }
+    }
+
+    @Test
+    public void testEmitterWrapsException() throws Exception {
+        Delegate<Listener> delegate = new Delegate<Listener>(Listener.class);
+        delegate.registerCallback(new RecordingListener() {
+            @Override
+            public void onEvent(int value) {
+                throw new IllegalStateException("expected");
+            }
+        });
+        try {
+            delegate.emitter("onEvent", int.class).emit(1);
+            fail();
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static class BlockingListener extends RecordingListener {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onEvent(int value) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.onEvent(value);
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Delegate<Listener> delegate = new Delegate<Listener>(Listener.class);
+            delegate.setAsync(executor);
+            BlockingListener slow = new BlockingListener();
+            RecordingListener fast = new RecordingListener();
+            delegate.registerCallback(slow);
+            delegate.registerCallback(fast);
+
+            Listener invoker = delegate.createInvoker();
+            Delegate.Emitter<Listener> emitter = delegate.emitter("onEvent", int.class);
+            for (int i = 0; i < 100; i++) {
+                if (i % 2 == 0) {
+                    invoker.onEvent(i);
+                } else {
+                    emitter.emit(i);
+                }
+            }
+            assertEquals(0, invoker.onQuery("x"));
+
+            // the slow listener holds up neither the emitting thread nor the fast listener
+            assertTrue(delegate.getDeliveryQueue(fast).awaitIdle(5, TimeUnit.SECONDS));
+            assertEquals(100, fast.events.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, fast.events.get(i).intValue());
+            }
+
+            slow.release.countDown();
+            assertTrue(delegate.getDeliveryQueue(slow).awaitIdle(5, TimeUnit.SECONDS));
+            assertEquals(100, slow.events.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncCoalescing() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Delegate<Listener> delegate = new Delegate<Listener>(Listener.class);
+            delegate.setAsync(executor);
+            delegate.setCoalescing(true);
+            BlockingListener listener = new BlockingListener();
+            delegate.registerCallback(listener);
+
+            Listener invoker = delegate.createInvoker();
+            invoker.onEvent(0);
+            assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i <= 10; i++) {
+                invoker.onEvent(i);
+            }
+            listener.release.countDown();
+
+            TaskQueue queue = delegate.getDeliveryQueue(listener);
+            assertTrue(queue.awaitIdle(5, TimeUnit.SECONDS));
+            assertEquals(2, listener.events.size());
+            assertEquals(10, listener.events.get(1).intValue());
+            assertEquals(9, queue.getCoalescedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncOverflow() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Delegate<Listener> delegate = new Delegate<Listener>(Listener.class);
+            delegate.setAsync(new TaskQueue.Builder(executor)
+                    .capacity(2, TaskQueue.OverflowPolicy.REJECT));
+            BlockingListener listener = new BlockingListener();
+            delegate.registerCallback(listener);
+
+            delegate.dispatch(new Delegate.Dispatcher<Listener>() {
+                @Override
+                public void dispatch(Listener l) {
+                    l.onEvent(0);
+                }
+            });
+            assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+
+            // full queues drop the event for that listener without throwing
+            for (int i = 1; i <= 5; i++) {
+                delegate.emit("onEvent", i);
+            }
+            listener.release.countDown();
+
+            TaskQueue queue = delegate.getDeliveryQueue(listener);
+            assertTrue(queue.awaitIdle(5, TimeUnit.SECONDS));
+            assertEquals(3, listener.events.size());
+            assertEquals(3, queue.getRejectedCount());
+
+            delegate.unregisterCallback(listener);
+            assertNull(delegate.getDeliveryQueue(listener));
+            assertTrue(queue.isShutdown());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * equal to every other instance with the same id
+     */
+    private static class IdListener extends RecordingListener {
+        final int id;
+
+        IdListener(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IdListener && ((IdListener) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
+
+    @Test
+    public void testAsyncUnregisterEqualListener() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Delegate<Listener> delegate = new Delegate<Listener>(Listener.class);
+            delegate.setAsync(executor);
+            IdListener listener = new IdListener(1);
+            delegate.registerCallback(listener);
+            delegate.createInvoker().onEvent(1);
+
+            TaskQueue queue = delegate.getDeliveryQueue(new IdListener(1));
+            assertSame(delegate.getDeliveryQueue(listener), queue);
+            assertTrue(queue.awaitIdle(5, TimeUnit.SECONDS));
+
+            delegate.unregisterCallback(new IdListener(1));
+            assertTrue(queue.isShutdown());
+            assertNull(delegate.getDeliveryQueue(listener));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
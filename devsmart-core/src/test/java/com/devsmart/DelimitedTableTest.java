@@ -0,0 +1,159 @@
+package com.devsmart;
+
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DelimitedTableTest {
+
+    private static ByteArrayInputStream input(String str) throws Exception {
+        return new ByteArrayInputStream(str.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testReadAll() throws Exception {
+        ArrayTable table = DelimitedTableReader.readAll(input(
+                "id,time,price,ok,name\r\n" +
+                "1,1500000000000,10.25,true,abc\r\n" +
+                "\r\n" +
+                "-2, -9223372036854775808 ,1e-3,0,\"a,\"\"b\"\"\"\n" +
+                "3,,,,"),
+                ',', true, int.class, long.class, double.class, boolean.class, String.class);
+
+        assertEquals(3, table.rows());
+        assertEquals("price", table.getColumnName(2));
+
+        assertEquals(1, table.getInt(0, 0));
+        assertEquals(1500000000000L, table.getLong(0, 1));
+        assertEquals(10.25, table.getDouble(0, 2), 0.0);
+        assertTrue(table.getBoolean(0, 3));
+        assertEquals("abc", table.getObject(0, 4));
+
+        assertEquals(-2, table.getInt(1, 0));
+        assertEquals(Long.MIN_VALUE, table.getLong(1, 1));
+        assertEquals(0.001, table.getDouble(1, 2), 0.0);
+        assertFalse(table.getBoolean(1, 3));
+        assertEquals("a,\"b\"", table.getObject(1, 4));
+
+        assertEquals(0L, table.getLong(2, 1));
+        assertTrue(Double.isNaN(table.getDouble(2, 2)));
+        assertNull(table.getObject(2, 4));
+    }
+
+    @Test
+    public void testRoundTripInChunks() throws Exception {
+        Random r = new Random(1);
+        ArrayTable expected = ArrayTable.createWithColumnTypes(int.class, long.class, float.class, double.class, String.class);
+        expected.setColumnName(0, "a");
+        for(int i=0;i<20000;i++) {
+            expected.addRow(r.nextInt(), r.nextLong(), r.nextFloat() * 1000, r.nextGaussian() * Math.pow(10, r.nextInt(40) - 20),
+                    r.nextInt(5) == 0 ? null : "s\"" + i + ",");
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DelimitedTableWriter writer = new DelimitedTableWriter(out, ',');
+        writer.writeHeader(expected);
+        writer.write(expected, 0, 10000);
+        writer.write(expected, 10000, expected.rows());
+        writer.close();
+
+        DelimitedTableReader reader = new DelimitedTableReader(new ByteArrayInputStream(out.toByteArray()), ',',
+                int.class, long.class, float.class, double.class, String.class);
+        assertEquals("a", reader.readHeader()[0]);
+
+        ArrayTable chunk = ArrayTable.createWithColumnTypes(int.class, long.class, float.class, double.class, String.class);
+        int offset = 0;
+        int read;
+        while((read = reader.read(chunk, 3000)) > 0) {
+            for(int i=0;i<read;i++) {
+                assertEquals(expected.getInt(offset + i, 0), chunk.getInt(i, 0));
+                assertEquals(expected.getLong(offset + i, 1), chunk.getLong(i, 1));
+                assertEquals(expected.getFloat(offset + i, 2), chunk.getFloat(i, 2), 0.0f);
+                assertEquals(expected.getDouble(offset + i, 3), chunk.getDouble(i, 3), 0.0);
+                assertEquals(expected.getObject(offset + i, 4), chunk.getObject(i, 4));
+            }
+            offset += read;
+            chunk.clear();
+        }
+        reader.close();
+        assertEquals(expected.rows(), offset);
+    }
+
+    @Test
+    public void testSingleColumnNullRoundTrip() throws Exception {
+        ArrayTable expected = ArrayTable.createWithColumnTypes(String.class);
+        expected.addRow("a");
+        expected.addRow((Object) null);
+        expected.addRow("");
+        expected.addRow((Object) null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DelimitedTableWriter writer = new DelimitedTableWriter(out, ',');
+        writer.write(expected, 0, expected.rows());
+        writer.close();
+
+        ArrayTable table = ArrayTable.createWithColumnTypes(String.class);
+        DelimitedTableReader reader = new DelimitedTableReader(new ByteArrayInputStream(out.toByteArray()), ',', String.class);
+        assertEquals(4, reader.read(table, 10));
+        assertEquals("a", table.getObject(0, 0));
+        assertNull(table.getObject(1, 0));
+        assertEquals("", table.getObject(2, 0));
+        assertNull(table.getObject(3, 0));
+    }
+
+    @Test
+    public void testInvalidNumber() throws Exception {
+        ArrayTable table = ArrayTable.createWithColumnTypes(int.class);
+        DelimitedTableReader reader = new DelimitedTableReader(input("1\n2x\n"), ',', int.class);
+        try {
+            reader.read(table, 10);
+            fail("expected parse error");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("line 2"));
+        }
+        assertEquals(1, table.rows());
+    }
+
+    @Test
+    public void testSkipBadLines() throws Exception {
+        ArrayTable table = ArrayTable.createWithColumnTypes(int.class, String.class);
+        DelimitedTableReader reader = new DelimitedTableReader(input(
+                "1,\"a\nb\"\n" +
+                "2x,c\n" +
+                "3\n" +
+                "4,\"d\ne\"x,f\n" +
+                "5,g\n"), ',', int.class, String.class);
+
+        String[] errors = new String[3];
+        int numErrors = 0;
+        while (true) {
+            try {
+                if (reader.read(table, 10) == 0) {
+                    break;
+                }
+            } catch (IOException e) {
+                errors[numErrors++] = e.getMessage();
+            }
+        }
+
+        assertEquals(3, numErrors);
+        assertTrue(errors[0], errors[0].startsWith("line 3:"));
+        assertTrue(errors[1], errors[1].startsWith("line 4:"));
+        assertTrue(errors[2], errors[2].startsWith("line 5:"));
+        assertEquals(2, table.rows());
+        assertEquals(1, table.getInt(0, 0));
+        assertEquals("a\nb", table.getObject(0, 1));
+        assertEquals(5, table.getInt(1, 0));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnterminatedQuote() throws Exception {
+        DelimitedTableReader.readAll(input("\"abc\n"), ',', false, String.class);
+    }
+}
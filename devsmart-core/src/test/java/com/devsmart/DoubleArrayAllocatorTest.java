@@ -3,6 +3,9 @@ package com.devsmart;
 
 import org.junit.Test;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -28,6 +31,43 @@ public class DoubleArrayAllocatorTest {
         assertTrue(c != a);
     }
 
+    @Test
+    public void testDoubleFreeAnywhere() throws Exception {
+        final DoubleArrayAllocator allocator = new DoubleArrayAllocator(1 << 20);
+        final double[] a = new double[8];
+        allocator.free(a);
+
+        // buried under more recently freed arrays of the same size
+        for (int i = 0; i < 100; i++) {
+            allocator.free(new double[8]);
+        }
+        allocator.free(a);
+        assertEquals(1, allocator.getDuplicateFrees());
+
+        // freed again from another thread, which uses another stripe
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                allocator.free(a);
+            }
+        };
+        t.start();
+        t.join();
+        assertEquals(2, allocator.getDuplicateFrees());
+
+        int found = 0;
+        for (int i = 0; i < 101; i++) {
+            if (allocator.alloc(8) == a) {
+                found++;
+            }
+        }
+        assertEquals(1, found);
+
+        // once handed out, it can be freed again
+        allocator.free(a);
+        assertEquals(2, allocator.getDuplicateFrees());
+    }
+
     @Test
     public void test1() {
 
@@ -59,4 +99,74 @@ public class DoubleArrayAllocatorTest {
         assertTrue(retval == last);
 
     }
+
+    @Test
+    public void testMaxSize() {
+        DoubleArrayAllocator allocator = new DoubleArrayAllocator(100);
+
+        double[] a = allocator.alloc(64);
+        double[] b = allocator.alloc(64);
+        allocator.free(a);
+        allocator.free(b);
+
+        // only one of the two arrays fits into the pool
+        assertTrue(allocator.alloc(33) == a);
+        assertTrue(allocator.alloc(33) != b);
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final DoubleArrayAllocator allocator = new DoubleArrayAllocator(1 << 20);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(4);
+
+        for (int t = 0; t < 4; t++) {
+            final double marker = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100000; i++) {
+                            double[] array = allocator.alloc(1 + i % 100);
+                            array[0] = marker;
+                            Thread.yield();
+                            // no other thread may have been handed the same array
+                            assertEquals(marker, array[0], 0);
+                            allocator.free(array);
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        assertEquals(null, error.get());
+        assertTrue(allocator.getPooledBytes() < allocator.getMaxBytes());
+    }
+
+    @Test
+    public void testBudgetCredit() {
+        PoolBudget budget = new PoolBudget(1 << 20);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(budget.tryReserve(10));
+        }
+        // unused credit is not counted as used
+        assertEquals(10000, budget.getSize());
+        for (int i = 0; i < 1000; i++) {
+            budget.release(10);
+        }
+        assertEquals(0, budget.getSize());
+
+        // credit held back by a stripe lets reserves fail early, by at most 1/32
+        long reserved = 0;
+        while (budget.tryReserve(10)) {
+            reserved += 10;
+        }
+        assertTrue(reserved < 1 << 20);
+        assertTrue(reserved >= (1 << 20) - (1 << 15));
+        assertEquals(reserved, budget.getSize());
+    }
 }
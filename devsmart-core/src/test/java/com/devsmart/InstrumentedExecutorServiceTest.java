@@ -0,0 +1,197 @@
+package com.devsmart;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedExecutorServiceTest {
+
+    private InstrumentedScheduledExecutorService mExecutor;
+
+    @Before
+    public void setup() {
+        mExecutor = new InstrumentedScheduledExecutorService("test", Executors.newScheduledThreadPool(1));
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    private static Runnable sleep(final long millis) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private void awaitCompleted(int count) throws InterruptedException {
+        for (int i = 0; i < 1000 && mExecutor.getCompletedCount() < count; i++) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax(TimeUnit.MICROSECONDS));
+        assertEquals(500.5, histogram.getMean(TimeUnit.MICROSECONDS), 0.01);
+        assertEquals(500, histogram.getPercentile(50, TimeUnit.MICROSECONDS), 500.0 / 16);
+        assertEquals(990, histogram.getPercentile(99, TimeUnit.MICROSECONDS), 990.0 / 16);
+
+        for (long value = 0; value < 1L << 40; value = value * 3 + 1) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.highestValueOf(bucket) >= value);
+            assertTrue(bucket == 0 || LatencyHistogram.highestValueOf(bucket - 1) < value);
+        }
+    }
+
+    @Test
+    public void testCountsAndLatency() throws Exception {
+        mExecutor.execute(sleep(20));
+        Future<Integer> answer = mExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return 42;
+            }
+        });
+        Future<?> failed = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("expected");
+            }
+        });
+        assertEquals(42, answer.get().intValue());
+        try {
+            failed.get();
+            fail();
+        } catch (ExecutionException e) {
+        }
+        // futures complete just before the executor counts them
+        awaitCompleted(3);
+
+        assertEquals(3, mExecutor.getSubmittedCount());
+        assertEquals(3, mExecutor.getCompletedCount());
+        assertEquals(1, mExecutor.getFailedCount());
+        assertEquals(0, mExecutor.getQueueSize());
+        // the last two tasks waited behind the first one
+        assertTrue(mExecutor.getQueueWaitMaxMillis() >= 15);
+        assertTrue(mExecutor.getRunTimeMaxMillis() >= 15);
+    }
+
+    @Test
+    public void testSlowTasksAndSink() throws Exception {
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger slow = new AtomicInteger();
+        final Runnable slowTask = sleep(20);
+        mExecutor.setSlowTaskThreshold(10, TimeUnit.MILLISECONDS);
+        mExecutor.setMetricsSink(new InstrumentedExecutorService.MetricsSink() {
+            @Override
+            public void taskCompleted(String executor, long waitNanos, long runNanos, boolean failed) {
+                completed.incrementAndGet();
+            }
+
+            @Override
+            public void slowTask(String executor, Object task, long runNanos) {
+                assertEquals("test", executor);
+                // reported as submitted, not as the future wrapping it
+                if (task == slowTask) {
+                    slow.incrementAndGet();
+                }
+            }
+        });
+
+        mExecutor.submit(slowTask).get();
+        mExecutor.submit(sleep(0)).get();
+        awaitCompleted(2);
+        assertEquals(1, mExecutor.getSlowTaskCount());
+        assertEquals(1, slow.get());
+        assertEquals(2, completed.get());
+    }
+
+    @Test
+    public void testScheduled() throws Exception {
+        final CountDownLatch ticks = new CountDownLatch(3);
+        Future<?> periodic = mExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                ticks.countDown();
+            }
+        }, 0, 1, TimeUnit.MILLISECONDS);
+        assertTrue(ticks.await(10, TimeUnit.SECONDS));
+        periodic.cancel(false);
+
+        assertEquals("done", mExecutor.schedule(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return "done";
+            }
+        }, 1, TimeUnit.MILLISECONDS).get());
+        assertTrue(mExecutor.getCompletedCount() >= 4);
+        assertEquals(0, mExecutor.getQueueWaitHistogram().getCount());
+    }
+
+    @Test
+    public void testShutdownNow() throws Exception {
+        InstrumentedExecutorService executor = new InstrumentedExecutorService("test", Executors.newFixedThreadPool(1));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Runnable queued = sleep(0);
+        executor.execute(queued);
+        assertEquals(1, executor.getQueueSize());
+
+        List<Runnable> neverRan = executor.shutdownNow();
+        assertEquals(1, neverRan.size());
+        assertSame(queued, neverRan.get(0));
+        assertEquals(0, executor.getQueueSize());
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        ObjectName name = JmxUtils.register(mExecutor, "Executor", "test");
+        try {
+            mExecutor.submit(sleep(0)).get();
+            awaitCompleted(1);
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "CompletedCount"));
+        } finally {
+            JmxUtils.unregister(name);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.devsmart;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KeyedTaskQueueTest {
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setup() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testPerKeyOrder() throws Exception {
+        final KeyedTaskQueue<Integer> queue = new KeyedTaskQueue<Integer>(mExecutor, 4);
+        final int keys = 16;
+        final int producers = 4;
+        final int tasks = 5000;
+        final int[][] lastSeen = new int[keys][producers];
+        final AtomicInteger[] running = new AtomicInteger[keys];
+        for (int k = 0; k < keys; k++) {
+            running[k] = new AtomicInteger();
+        }
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(producers * tasks);
+
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= tasks; i++) {
+                        final int key = i % keys;
+                        final int value = i;
+                        queue.execute(key, new Runnable() {
+                            @Override
+                            public void run() {
+                                if (running[key].incrementAndGet() != 1) {
+                                    errors.incrementAndGet();
+                                }
+                                // a producer's tasks for one key run in the order queued
+                                if (lastSeen[key][producer] >= value) {
+                                    errors.incrementAndGet();
+                                }
+                                lastSeen[key][producer] = value;
+                                running[key].decrementAndGet();
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+            }.start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+    }
+
+    @Test
+    public void testKeysRunInParallel() throws Exception {
+        KeyedTaskQueue<String> queue = new KeyedTaskQueue<String>(mExecutor);
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        queue.execute("a", blocking);
+        queue.execute("b", blocking);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(2, queue.getActiveKeyCount());
+        release.countDown();
+    }
+
+    @Test
+    public void testIdleKeysReclaimed() throws Exception {
+        KeyedTaskQueue<Integer> queue = new KeyedTaskQueue<Integer>(mExecutor);
+        final CountDownLatch done = new CountDownLatch(10000);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < 10000; i++) {
+            queue.execute(i, task);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100 && queue.getActiveKeyCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, queue.getActiveKeyCount());
+    }
+
+    @Test
+    public void testNullTask() throws Exception {
+        KeyedTaskQueue<String> queue = new KeyedTaskQueue<String>(mExecutor);
+        try {
+            queue.execute("a", null);
+            fail();
+        } catch (NullPointerException e) {
+        }
+        assertEquals(0, queue.getActiveKeyCount());
+    }
+
+    @Test
+    public void testExecutorRejects() throws Exception {
+        // rejects the first submission and every third one after it
+        final AtomicInteger submissions = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (submissions.getAndIncrement() % 3 == 0) {
+                    throw new RejectedExecutionException();
+                }
+                mExecutor.execute(command);
+            }
+        };
+        KeyedTaskQueue<String> queue = new KeyedTaskQueue<String>(executor, 2);
+        final AtomicInteger ran = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        };
+
+        try {
+            queue.execute("a", task);
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+        assertEquals(0, queue.getActiveKeyCount());
+        assertEquals(0, ran.get());
+
+        // the key works again, and a rejected resubmission runs the rest inline
+        final CountDownLatch release = new CountDownLatch(1);
+        queue.execute("a", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            queue.execute("a", task);
+        }
+        release.countDown();
+        for (int i = 0; i < 500 && queue.getActiveKeyCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, queue.getActiveKeyCount());
+        assertEquals(10, ran.get());
+    }
+
+    @Test
+    public void testRacingProducersAgainstRejectingExecutor() throws Exception {
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        final KeyedTaskQueue<Integer> queue = new KeyedTaskQueue<Integer>(rejecting);
+        final int rounds = 20000;
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicInteger[][] ran = new AtomicInteger[rounds][2];
+        final boolean[][] rejected = new boolean[rounds][2];
+        for (int i = 0; i < rounds; i++) {
+            ran[i][0] = new AtomicInteger();
+            ran[i][1] = new AtomicInteger();
+        }
+
+        Thread[] producers = new Thread[2];
+        for (int p = 0; p < producers.length; p++) {
+            final int producer = p;
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < rounds; i++) {
+                            final AtomicInteger counter = ran[i][producer];
+                            barrier.await();
+                            try {
+                                queue.execute(i, new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        counter.incrementAndGet();
+                                    }
+                                });
+                            } catch (RejectedExecutionException e) {
+                                rejected[i][producer] = true;
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join(60000);
+        }
+
+        // a task runs exactly when its submission was accepted
+        for (int i = 0; i < rounds; i++) {
+            for (int p = 0; p < 2; p++) {
+                assertEquals(rejected[i][p] ? 0 : 1, ran[i][p].get());
+            }
+        }
+        assertEquals(0, queue.getActiveKeyCount());
+    }
+}
@@ -0,0 +1,104 @@
+package com.devsmart;
+
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ListenerRegistryTest {
+
+    private static <T> List<T> toList(Iterable<T> iterable) {
+        List<T> retval = new ArrayList<T>();
+        for (T t : iterable) {
+            retval.add(t);
+        }
+        return retval;
+    }
+
+    @Test
+    public void testAddRemove() {
+        ListenerRegistry<String> registry = new ListenerRegistry<String>();
+        assertTrue(registry.isEmpty());
+        assertTrue(registry.add("a"));
+        assertTrue(registry.add("b"));
+        assertTrue(registry.add("c"));
+        assertFalse(registry.add("b"));
+        assertFalse(registry.addWeak("b"));
+        assertEquals(3, registry.size());
+        assertEquals(Arrays.asList("a", "b", "c"), toList(registry));
+
+        assertTrue(registry.remove("b"));
+        assertFalse(registry.remove("b"));
+        assertFalse(registry.contains("b"));
+        assertTrue(registry.contains("c"));
+        assertEquals(Arrays.asList("a", "c"), toList(registry));
+
+        registry.add("b");
+        assertEquals(Arrays.asList("a", "c", "b"), toList(registry));
+
+        registry.clear();
+        assertTrue(registry.isEmpty());
+        assertFalse(registry.iterator().hasNext());
+    }
+
+    @Test
+    public void testOrderAfterCompaction() {
+        ListenerRegistry<Integer> registry = new ListenerRegistry<Integer>();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            registry.add(i);
+            expected.add(i);
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            registry.remove(i);
+            expected.remove(Integer.valueOf(i));
+        }
+        for (int i = 1000; i < 1100; i++) {
+            registry.add(i);
+            expected.add(i);
+        }
+        for (int i = 1; i < 1000; i += 3) {
+            registry.remove(i);
+            expected.remove(Integer.valueOf(i));
+        }
+        assertEquals(expected.size(), registry.size());
+        assertEquals(expected, toList(registry));
+    }
+
+    @Test
+    public void testSnapshotIteration() {
+        ListenerRegistry<String> registry = new ListenerRegistry<String>();
+        registry.add("a");
+        registry.add("b");
+
+        Iterator<String> it = registry.iterator();
+        registry.remove("a");
+        registry.add("c");
+        assertEquals("a", it.next());
+        assertEquals("b", it.next());
+        assertFalse(it.hasNext());
+
+        assertEquals(Arrays.asList("b", "c"), toList(registry));
+    }
+
+    @Test
+    public void testWeakListener() throws Exception {
+        ListenerRegistry<Object> registry = new ListenerRegistry<Object>();
+        Object strong = new Object();
+        registry.add(strong);
+        registry.addWeak(new Object());
+        assertEquals(2, registry.size());
+
+        for (int i = 0; i < 50 && registry.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(1, registry.size());
+        assertEquals(Arrays.asList(strong), toList(registry));
+    }
+}
@@ -0,0 +1,216 @@
+package com.devsmart;
+
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ObjectPoolTest {
+
+    private static final ObjectPool.PooledCreator<StringBuilder> CREATOR = new ObjectPool.ResettingCreator<StringBuilder>() {
+        @Override
+        public StringBuilder create() {
+            return new StringBuilder();
+        }
+
+        @Override
+        public void reset(StringBuilder obj) {
+            obj.setLength(0);
+        }
+    };
+
+    @Test
+    public void testReuse() {
+        ObjectPool<StringBuilder> pool = new ObjectPool<StringBuilder>(1, CREATOR);
+
+        StringBuilder a = pool.borrow();
+        StringBuilder b = pool.borrow();
+        assertTrue(a != b);
+
+        a.append("hello");
+        pool.release(a);
+        pool.release(b);
+        assertTrue(pool.isInFreeList(a));
+        assertFalse(pool.isInFreeList(b));
+
+        StringBuilder c = pool.borrow();
+        assertTrue(c == a);
+        assertEquals(0, c.length());
+    }
+
+    @Test
+    public void testThreadCache() {
+        ObjectPool<StringBuilder> pool = new ObjectPool<StringBuilder>(0, 2, CREATOR);
+
+        StringBuilder a = pool.borrow();
+        StringBuilder b = pool.borrow();
+        StringBuilder c = pool.borrow();
+        pool.release(a);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+
+        assertTrue(pool.borrow() == b);
+        assertTrue(pool.borrow() == a);
+        assertTrue(pool.borrow() != c);
+    }
+
+    @Test
+    public void testDebugDoubleRelease() {
+        ObjectPool<StringBuilder> pool = new ObjectPool<StringBuilder>(10, CREATOR);
+        pool.setDebug(true);
+
+        StringBuilder a = pool.borrow();
+        StringBuilder b = pool.borrow();
+        pool.release(a);
+        pool.release(b);
+        pool.release(a);
+
+        StringBuilder first = pool.borrow();
+        StringBuilder second = pool.borrow();
+        assertTrue(first != second);
+        assertTrue(pool.borrow() != a);
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final ObjectPool<StringBuilder> pool = new ObjectPool<StringBuilder>(4, 1, CREATOR);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(4);
+
+        for (int t = 0; t < 4; t++) {
+            final String marker = "t" + t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100000; i++) {
+                            StringBuilder a = pool.borrow();
+                            StringBuilder b = pool.borrow();
+                            assertEquals(0, a.length());
+                            a.append(marker);
+                            b.append(marker);
+                            Thread.yield();
+                            // no other thread may have been handed the same objects
+                            assertEquals(marker, a.toString());
+                            assertEquals(marker, b.toString());
+                            pool.release(a);
+                            pool.release(b);
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        assertEquals(null, error.get());
+    }
+
+    private static class Connection {
+        boolean open = true;
+    }
+
+    private static class ConnectionCreator implements ObjectPool.ValidatingCreator<Connection> {
+        final Set<Connection> destroyed = new HashSet<Connection>();
+
+        @Override
+        public Connection create() {
+            return new Connection();
+        }
+
+        @Override
+        public boolean validate(Connection obj) {
+            return obj.open;
+        }
+
+        @Override
+        public void destroy(Connection obj) {
+            obj.open = false;
+            destroyed.add(obj);
+        }
+    }
+
+    @Test
+    public void testPrewarmAndCounters() {
+        ConnectionCreator creator = new ConnectionCreator();
+        ObjectPool<Connection> pool = new ObjectPool<Connection>(4, creator).prewarm(10);
+        assertEquals(4, pool.getIdleCount());
+        assertEquals(4, pool.getCreatedCount());
+
+        Connection a = pool.borrow();
+        Connection b = pool.borrow();
+        assertEquals(2, pool.getBorrowedCount());
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(4, pool.getCreatedCount());
+
+        pool.release(a);
+        assertEquals(1, pool.getBorrowedCount());
+        assertEquals(3, pool.getIdleCount());
+        assertEquals(0, pool.getDestroyedCount());
+        pool.release(b);
+    }
+
+    @Test
+    public void testValidateAndDestroy() {
+        ConnectionCreator creator = new ConnectionCreator();
+        ObjectPool<Connection> pool = new ObjectPool<Connection>(1, creator);
+
+        Connection a = pool.borrow();
+        Connection b = pool.borrow();
+        pool.release(a);
+        // the pool is full
+        pool.release(b);
+        assertTrue(creator.destroyed.contains(b));
+
+        // a was closed while pooled: it must be destroyed instead of handed out
+        a.open = false;
+        Connection c = pool.borrow();
+        assertTrue(c != a && c != b);
+        assertTrue(c.open);
+        assertTrue(creator.destroyed.contains(a));
+        assertEquals(2, pool.getDestroyedCount());
+        assertEquals(3, pool.getCreatedCount());
+    }
+
+    @Test
+    public void testEvictIdle() throws Exception {
+        ConnectionCreator creator = new ConnectionCreator();
+        ObjectPool<Connection> pool = new ObjectPool<Connection>(10, creator).prewarm(5);
+        Thread.sleep(20);
+        Connection fresh = pool.borrow();
+        pool.release(fresh);
+
+        assertEquals(3, pool.evictIdle(TimeUnit.MILLISECONDS.toNanos(10), 2));
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(3, creator.destroyed.size());
+        assertTrue(pool.isInFreeList(fresh));
+        assertFalse(creator.destroyed.contains(fresh));
+        assertTrue(pool.borrow() == fresh);
+        assertTrue(pool.borrow().open);
+    }
+
+    @Test
+    public void testIdleEvictionScheduler() throws Exception {
+        ConnectionCreator creator = new ConnectionCreator();
+        ObjectPool<Connection> pool = new ObjectPool<Connection>(10, creator).prewarm(5);
+        pool.startIdleEviction(10, TimeUnit.MILLISECONDS, 1);
+        try {
+            for (int i = 0; i < 100 && pool.getIdleCount() > 1; i++) {
+                Thread.sleep(10);
+            }
+        } finally {
+            pool.stopIdleEviction();
+        }
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(4, pool.getDestroyedCount());
+    }
+}
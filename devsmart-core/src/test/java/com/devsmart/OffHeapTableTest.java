@@ -0,0 +1,161 @@
+package com.devsmart;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
+import static org.junit.Assert.*;
+
+public class OffHeapTableTest {
+
+    @Test
+    public void testGrowAcrossChunks() {
+        OffHeapTable table = OffHeapTable.createWithColumnTypes(0, 8, int.class, long.class, double.class, boolean.class);
+        try {
+            for(int i=0;i<100;i++) {
+                int row = table.appendRow();
+                table.setInt(row, 0, i);
+                table.setLong(row, 1, i * 10000000000L);
+                table.setDouble(row, 2, i * 0.25);
+                table.setBoolean(row, 3, i % 3 == 0);
+            }
+
+            assertEquals(100, table.rows());
+            assertEquals(104, table.capacity());
+            for(int i=0;i<100;i++) {
+                assertEquals(i, table.getInt(i, 0));
+                assertEquals(i * 10000000000L, table.getLong(i, 1));
+                assertEquals(i * 0.25, table.getDouble(i, 2), 0.0);
+                assertEquals(i % 3 == 0, table.getBoolean(i, 3));
+            }
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test
+    public void testCopyToAndFromHeap() {
+        ArrayTable heap = ArrayTable.createWithColumnsCopy(
+                new int[]{3, 1, 2},
+                new float[]{1.5f, 2.5f, 3.5f},
+                new boolean[]{true, false, true}
+        );
+        heap.setColumnName(0, "id");
+
+        OffHeapTable table = OffHeapTable.copyOf(heap);
+        assertEquals(3, table.rows());
+        assertEquals("id", table.getColumnName(0));
+        assertEquals(2.5f, table.getFloat(1, 1), 0.0f);
+
+        ArrayTable copy = table.toArrayTable();
+        table.close();
+
+        assertArrayEquals((int[]) heap.getColumn(0), (int[]) copy.getColumn(0));
+        assertArrayEquals((float[]) heap.getColumn(1), (float[]) copy.getColumn(1), 0.0f);
+        assertTrue(copy.getBoolean(2, 2));
+        assertEquals("id", copy.getColumnName(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testObjectColumnsUnsupported() {
+        OffHeapTable.createWithColumnTypes(int.class, String.class);
+    }
+
+    @Test
+    public void testSaveAndMap() throws Exception {
+        final int numRows = 1000;
+        ArrayTable heap = ArrayTable.createWithColumnTypes(int.class, long.class, float.class, double.class, boolean.class);
+        heap.setColumnName(1, "timestamp");
+        for(int i=0;i<numRows;i++) {
+            heap.addRow(i, 1500000000000L + i, i * 0.5f, i * 0.25, i % 2 == 0);
+        }
+
+        File file = File.createTempFile("table", ".dsat");
+        try {
+            heap.save(file);
+
+            OffHeapTable mapped = ArrayTable.mapReadOnly(file);
+            try {
+                assertEquals(numRows, mapped.rows());
+                assertEquals(5, mapped.columns());
+                assertEquals(long.class, mapped.getColumnType(1));
+                assertEquals("timestamp", mapped.getColumnName(1));
+                assertNull(mapped.getColumnName(0));
+
+                for(int i=0;i<numRows;i++) {
+                    assertEquals(i, mapped.getInt(i, 0));
+                    assertEquals(1500000000000L + i, mapped.getLong(i, 1));
+                    assertEquals(i * 0.5f, mapped.getFloat(i, 2), 0.0f);
+                    assertEquals(i * 0.25, mapped.getDouble(i, 3), 0.0);
+                    assertEquals(i % 2 == 0, mapped.getBoolean(i, 4));
+                }
+
+                try {
+                    mapped.setInt(0, 0, 5);
+                    fail("mapped table should be read-only");
+                } catch (ReadOnlyBufferException e) {
+                }
+            } finally {
+                mapped.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testMapInvalidFile() throws Exception {
+        File file = File.createTempFile("table", ".dsat");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[64]);
+            out.close();
+            ArrayTable.mapReadOnly(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertCorrupt(File file, int position, int value) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(position);
+            raf.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array());
+        } finally {
+            raf.close();
+        }
+        try {
+            ArrayTable.mapReadOnly(file);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testMapCorruptHeader() throws Exception {
+        ArrayTable heap = ArrayTable.createWithColumnTypes(int.class, long.class);
+        heap.setColumnName(0, "id");
+        heap.addRow(1, 2L);
+
+        File file = File.createTempFile("table", ".dsat");
+        try {
+            // number of columns, rows, then the first column's name length
+            final int[][] corruptions = {
+                    {12, -1}, {12, Integer.MAX_VALUE}, {16, -5}, {32, Integer.MAX_VALUE}, {32, -7}
+            };
+            for (int[] corruption : corruptions) {
+                heap.save(file);
+                assertCorrupt(file, corruption[0], corruption[1]);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.devsmart;
+
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StateMachineTest {
+
+    enum State {
+        CLOSED, OPENING, OPEN
+    }
+
+    enum Input {
+        OPEN, OPENED, CLOSE
+    }
+
+    @Test
+    public void testTransitions() {
+        StateMachine<State, Input> machine = new StateMachine<State, Input>(State.CLOSED);
+        assertNull(machine.getTransition(State.CLOSED, Input.OPEN));
+        machine.input(Input.OPEN, null);
+        assertEquals(State.CLOSED, machine.getState());
+
+        machine.configure(State.CLOSED, Input.OPEN, State.OPENING);
+        machine.configure(State.OPENING, Input.OPENED, State.OPEN);
+        machine.configure(State.OPENING, Input.CLOSE, State.CLOSED);
+        machine.configure(State.OPEN, Input.CLOSE, State.CLOSED);
+        assertEquals(State.OPEN, machine.getTransition(State.OPENING, Input.OPENED));
+        assertNull(machine.getTransition(State.OPEN, Input.OPEN));
+
+        final List<String> changes = new ArrayList<String>();
+        machine.addListener(new StateMachine.StateChangeListener<State, Input>() {
+            @Override
+            public void onStateChanged(StateMachine<State, Input> stateMachine, State lastState, State newState, Input input, Object data) {
+                changes.add(lastState + ">" + newState + ":" + input + ":" + data);
+            }
+        });
+
+        machine.input(Input.OPENED, 0);
+        assertEquals(State.CLOSED, machine.getState());
+        machine.input(Input.OPEN, 1);
+        machine.input(Input.OPEN, 2);
+        machine.input(Input.OPENED, 3);
+        assertEquals(State.OPEN, machine.getState());
+        machine.input(Input.CLOSE, 4);
+        assertEquals(State.CLOSED, machine.getState());
+
+        assertEquals(3, changes.size());
+        assertEquals("CLOSED>OPENING:OPEN:1", changes.get(0));
+        assertEquals("OPENING>OPEN:OPENED:3", changes.get(1));
+        assertEquals("OPEN>CLOSED:CLOSE:4", changes.get(2));
+
+        // reconfiguring replaces a transition
+        machine.configure(State.CLOSED, Input.OPEN, State.OPEN);
+        machine.input(Input.OPEN, null);
+        assertEquals(State.OPEN, machine.getState());
+    }
+}
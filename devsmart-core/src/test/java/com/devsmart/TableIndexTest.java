@@ -0,0 +1,143 @@
+package com.devsmart;
+
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TableIndexTest {
+
+    @Test
+    public void hashIndexTest() {
+        ArrayTable table = ArrayTable.createWithColumnTypes(long.class, String.class);
+        table.addRow(7L, "a");
+        table.addRow(3L, "b");
+        table.addRow(7L, "c");
+        table.addRow(-1L, "d");
+
+        HashIndex index = table.createHashIndex(0);
+        assertArrayEquals(new int[]{0, 2}, index.find(7));
+        assertEquals(1, index.first(3));
+        assertEquals(-1, index.next(1));
+        assertEquals(3, index.first(-1));
+        assertFalse(index.contains(5));
+
+        table.setLong(1, 0, 7L);
+        assertEquals(3, index.count(7));
+        assertFalse(index.contains(3));
+
+        table.deleteRow(0);
+        assertArrayEquals(new int[]{0, 1}, index.find(7));
+
+        table.insertAt(0, 5L, "e");
+        assertEquals(0, index.first(5));
+        assertArrayEquals(new int[]{1, 2}, index.find(7));
+    }
+
+    @Test
+    public void hashIndexSurvivesSortTest() {
+        Random r = new Random(1);
+        ArrayTable table = ArrayTable.createWithColumnTypes(int.class, int.class);
+        for (int i = 0; i < 2000; i++) {
+            table.addRow(r.nextInt(100), i);
+        }
+        HashIndex index = table.createHashIndex(1);
+        assertEquals(42, index.first(42));
+
+        table.sort(new ArrayTable.AscIntRowComparator(0));
+        checkHashIndex(table, index);
+
+        table.shuffle(r);
+        checkHashIndex(table, index);
+    }
+
+    private static void checkHashIndex(ArrayTable table, HashIndex index) {
+        for (int row = 0; row < table.rows(); row++) {
+            assertEquals(row, index.first(table.getInt(row, 1)));
+            assertEquals(-1, index.next(row));
+        }
+    }
+
+    @Test
+    public void sortedIndexTest() {
+        Random r = new Random(1);
+        ArrayTable table = ArrayTable.createWithColumnTypes(double.class, int.class);
+        for (int i = 0; i < 1000; i++) {
+            table.addRow((double) r.nextInt(50), i);
+        }
+
+        SortedIndex index = table.createSortedIndex(0);
+        assertEquals(table.rows(), index.size());
+        for (int i = 1; i < index.size(); i++) {
+            double prev = table.getDouble(index.row(i - 1), 0);
+            double cur = table.getDouble(index.row(i), 0);
+            assertTrue(prev <= cur);
+            if (prev == cur) {
+                // stable: equal keys keep table order
+                assertTrue(index.row(i - 1) < index.row(i));
+            }
+        }
+
+        int count = 0;
+        for (int row = 0; row < table.rows(); row++) {
+            double v = table.getDouble(row, 0);
+            if (v >= 10 && v < 20) {
+                count++;
+            }
+        }
+        assertEquals(count, index.lowerBound(20.0) - index.lowerBound(10.0));
+        assertEquals(0, index.lowerBound(-1.0));
+        assertEquals(index.size(), index.upperBound(49.0));
+
+        table.addRow(-5.0, 1000);
+        assertEquals(1000, table.getInt(index.row(0), 1));
+    }
+
+    @Test
+    public void sortedIndexObjectTest() {
+        ArrayTable table = ArrayTable.createWithColumnTypes(String.class, long.class);
+        table.addRow("pear", 1L);
+        table.addRow("apple", 2L);
+        table.addRow("fig", 3L);
+
+        SortedIndex names = table.createSortedIndex(0);
+        assertEquals(1, names.row(0));
+        assertEquals(1, names.lowerBound("b"));
+        assertEquals(2, names.upperBound("fig"));
+
+        SortedIndex ids = table.createSortedIndex(1);
+        assertEquals(2, ids.find(3));
+        assertEquals(-1, ids.find(4));
+
+        table.setObject(2, 0, "banana");
+        assertEquals(2, names.row(1));
+    }
+
+    @Test
+    public void sortedIndexNullsAndUnsupportedTypes() {
+        ArrayTable table = ArrayTable.createWithColumnTypes(String.class, boolean.class, Object.class);
+        table.addRow("pear", true, null);
+        table.addRow(null, false, null);
+        table.addRow("apple", true, null);
+
+        // nulls sort first
+        SortedIndex names = table.createSortedIndex(0);
+        assertEquals(1, names.row(0));
+        assertEquals(2, names.row(1));
+        assertEquals(0, names.lowerBound((Comparable<?>) null));
+        assertEquals(1, names.upperBound((Comparable<?>) null));
+
+        try {
+            table.createSortedIndex(1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            table.createSortedIndex(2);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
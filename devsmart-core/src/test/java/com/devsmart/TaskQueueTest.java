@@ -0,0 +1,424 @@
+package com.devsmart;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TaskQueueTest {
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setup() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testSerialOrder() throws Exception {
+        TaskQueue queue = new TaskQueue(mExecutor, 8, 1, TimeUnit.MILLISECONDS);
+        final List<Integer> order = new ArrayList<Integer>();
+        final AtomicInteger running = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        for (int i = 0; i < 10000; i++) {
+            final int value = i;
+            queue.execute(new Runnable() {
+                @Override
+                public void run() {
+                    assertEquals(1, running.incrementAndGet());
+                    order.add(value);
+                    running.decrementAndGet();
+                }
+            });
+        }
+        queue.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(10000, order.size());
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(i, order.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final TaskQueue queue = new TaskQueue(mExecutor);
+        final int producers = 4;
+        final int tasks = 20000;
+        final int[] lastSeen = new int[producers];
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(producers * tasks);
+
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= tasks; i++) {
+                        final int value = i;
+                        queue.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                // tasks of one producer run in the order they were queued
+                                if (lastSeen[producer] != value - 1) {
+                                    errors.incrementAndGet();
+                                }
+                                lastSeen[producer] = value;
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+            }.start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+    }
+
+    @Test
+    public void testTaskErrorDoesNotStopQueue() throws Exception {
+        TaskQueue queue = new TaskQueue(mExecutor);
+        final CountDownLatch done = new CountDownLatch(1);
+        queue.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("expected");
+            }
+        });
+        queue.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * occupies the queue until {@code release} is counted down
+     */
+    private static Runnable blocker(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static Runnable append(final List<Integer> list, final int value) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                list.add(value);
+            }
+        };
+    }
+
+    @Test
+    public void testReject() throws Exception {
+        TaskQueue queue = new TaskQueue.Builder(mExecutor)
+                .capacity(2, TaskQueue.OverflowPolicy.REJECT)
+                .build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> ran = new ArrayList<Integer>();
+
+        queue.execute(blocker(started, release));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        queue.execute(append(ran, 1));
+        queue.execute(append(ran, 2));
+        try {
+            queue.execute(append(ran, 3));
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+        assertEquals(2, queue.getQueueSize());
+        assertEquals(1, queue.getRejectedCount());
+
+        release.countDown();
+        assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(2, ran.size());
+        assertEquals(3, queue.getCompletedTaskCount());
+        assertEquals(2, queue.getPeakQueueSize());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        TaskQueue queue = new TaskQueue.Builder(mExecutor)
+                .capacity(2, TaskQueue.OverflowPolicy.DROP_OLDEST)
+                .build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> ran = new ArrayList<Integer>();
+
+        queue.execute(blocker(started, release));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<?> dropped = queue.submit(append(ran, 1));
+        for (int i = 2; i <= 4; i++) {
+            queue.execute(append(ran, i));
+        }
+        assertTrue(dropped.isCancelled());
+        assertEquals(2, queue.getDroppedCount());
+
+        release.countDown();
+        assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(2, ran.size());
+        assertEquals(3, ran.get(0).intValue());
+        assertEquals(4, ran.get(1).intValue());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        final TaskQueue queue = new TaskQueue.Builder(mExecutor)
+                .capacity(1, TaskQueue.OverflowPolicy.BLOCK)
+                .build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> ran = new ArrayList<Integer>();
+
+        queue.execute(blocker(started, release));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        queue.execute(append(ran, 1));
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        new Thread() {
+            @Override
+            public void run() {
+                queue.execute(append(ran, 2));
+                submitted.countDown();
+            }
+        }.start();
+        assertFalse(submitted.await(50, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(2, ran.size());
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        TaskQueue queue = new TaskQueue(mExecutor);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> ran = new ArrayList<Integer>();
+
+        queue.execute(blocker(started, release));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        queue.executeCoalesced("refresh", append(ran, 1));
+        queue.execute(append(ran, 2));
+        queue.executeCoalesced("refresh", append(ran, 3));
+        assertEquals(2, queue.getQueueSize());
+        assertEquals(1, queue.getCoalescedCount());
+
+        release.countDown();
+        assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(2, ran.size());
+        assertEquals(3, ran.get(0).intValue());
+        assertEquals(2, ran.get(1).intValue());
+
+        // the key is free again once its task ran
+        queue.executeCoalesced("refresh", append(ran, 4));
+        assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(3, ran.size());
+    }
+
+    @Test
+    public void testSubmitAndShutdown() throws Exception {
+        TaskQueue queue = new TaskQueue(mExecutor);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<Integer> answer = queue.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return 42;
+            }
+        });
+        assertEquals(42, answer.get(10, TimeUnit.SECONDS).intValue());
+
+        queue.execute(blocker(started, release));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<?> queued = queue.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        queue.shutdownNow();
+        try {
+            queue.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+
+        try {
+            queue.executeCoalesced("refresh", new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+
+        release.countDown();
+        assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+        assertTrue(queued.isCancelled());
+        assertTrue(queue.getMaxQueueLatency(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    public void testLatencyOfCongestedQueue() throws Exception {
+        TaskQueue queue = new TaskQueue(mExecutor);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> ran = new ArrayList<Integer>();
+
+        queue.execute(blocker(started, release));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        // the queue never drops below 2 tasks while these are submitted
+        for (int i = 0; i < 16; i++) {
+            queue.execute(append(ran, i));
+        }
+        Thread.sleep(20);
+        release.countDown();
+        assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+        assertTrue(queue.getMaxQueueLatency(TimeUnit.MILLISECONDS) >= 20);
+        assertTrue(queue.getAverageQueueLatency(TimeUnit.MILLISECONDS) > 0);
+    }
+
+    @Test
+    public void testExecutorRejects() throws Exception {
+        final AtomicInteger rejections = new AtomicInteger(1);
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (rejections.getAndDecrement() > 0) {
+                    throw new RejectedExecutionException();
+                }
+                mExecutor.execute(command);
+            }
+        };
+        TaskQueue queue = new TaskQueue.Builder(executor)
+                .capacity(1, TaskQueue.OverflowPolicy.REJECT)
+                .build();
+        List<Integer> ran = new ArrayList<Integer>();
+
+        try {
+            queue.execute(append(ran, 1));
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+        // the rejected task does not take up space and never runs
+        assertEquals(0, queue.getQueueSize());
+        assertTrue(queue.isIdle());
+
+        queue.execute(append(ran, 2));
+        assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, ran.size());
+        assertEquals(2, ran.get(0).intValue());
+        assertEquals(1, queue.getCompletedTaskCount());
+
+        rejections.set(1);
+        try {
+            queue.executeCoalesced("refresh", append(ran, 3));
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+        queue.executeCoalesced("refresh", append(ran, 4));
+        assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(2, ran.size());
+        assertEquals(4, ran.get(1).intValue());
+    }
+
+    @Test
+    public void testExecutorRejectsWithConcurrentProducer() throws Exception {
+        final CountDownLatch inExecute = new CountDownLatch(1);
+        final CountDownLatch otherQueued = new CountDownLatch(1);
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                inExecute.countDown();
+                try {
+                    otherQueued.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new RejectedExecutionException();
+            }
+        };
+        final TaskQueue queue = new TaskQueue(executor);
+        final List<Integer> ran = new ArrayList<Integer>();
+        final AtomicInteger rejected = new AtomicInteger();
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.execute(append(ran, 1));
+                } catch (RejectedExecutionException e) {
+                    rejected.incrementAndGet();
+                }
+            }
+        };
+        producer.start();
+        assertTrue(inExecute.await(10, TimeUnit.SECONDS));
+        // the drainer is being scheduled, so this one is accepted without an executor call
+        queue.execute(append(ran, 2));
+        otherQueued.countDown();
+        producer.join(10000);
+
+        // the accepted task still runs, on the thread whose submission was rejected
+        assertEquals(1, rejected.get());
+        assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, ran.size());
+        assertEquals(2, ran.get(0).intValue());
+        assertEquals(0, queue.getQueueSize());
+    }
+
+    @Test
+    public void testExecutorServiceConstructor() throws Exception {
+        // callers compiled against the old signature link to this constructor
+        TaskQueue queue = TaskQueue.class.getConstructor(ExecutorService.class).newInstance(mExecutor);
+        List<Integer> ran = new ArrayList<Integer>();
+        queue.execute(append(ran, 1));
+        assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, ran.size());
+    }
+}
@@ -0,0 +1,83 @@
+package com.devsmart;
+
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ThreadUtilsTest {
+
+    @Test
+    public void testProfileFixedOnceUsed() throws Exception {
+        ThreadUtils.CPUThreads.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        try {
+            ThreadUtils.setCPUProfile(ThreadUtils.CPUProfile.WORK_STEALING, 2);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testWorkStealingExecutor() throws Exception {
+        // loaded by reflection, as ThreadUtils does for the WORK_STEALING profile
+        ScheduledExecutorService executor = ThreadUtils.createWorkStealingExecutor(2);
+        assertTrue(executor instanceof WorkStealingExecutor);
+        try {
+            assertEquals(42, executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return 42;
+                }
+            }).get().intValue());
+            assertTrue(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return Thread.currentThread().getName();
+                }
+            }).get().startsWith("CPU Thread "));
+
+            final CountDownLatch ticks = new CountDownLatch(3);
+            executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    ticks.countDown();
+                }
+            }, 0, 1, TimeUnit.MILLISECONDS);
+            assertTrue(ticks.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testVirtualThreadsOrFallback() throws Exception {
+        ExecutorService executor = ThreadUtils.createVirtualThreadExecutor();
+        if (executor == null) {
+            // not available on this JDK
+            return;
+        }
+        try {
+            final String[] name = new String[1];
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    name[0] = Thread.currentThread().getName();
+                }
+            }).get();
+            assertTrue(name[0].startsWith("IO Thread "));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}